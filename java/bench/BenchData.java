@@ -0,0 +1,125 @@
+/*
+ * Benchmark helpers
+ * =================
+ *
+ * Loads the semicolon separated files shipped in data/ so the benchmarks
+ * can run on the same users and connections as the database.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+public class BenchData {
+
+   /**
+	* Reads a data/*.csv file, skipping the header line.
+	*
+	* @param dataDir the data directory
+	* @param name the file name, e.g. connection.csv
+	* @return every row split on ';' with the fields trimmed
+	*/
+   public static List<String[]> readCsv(String dataDir, String name) throws IOException {
+	BufferedReader reader = new BufferedReader(new FileReader(new File(dataDir, name)));
+	List<String[]> rows = new ArrayList<String[]>();
+	try {
+	   String line = reader.readLine(); // header
+	   while ((line = reader.readLine()) != null) {
+		  if (line.trim().equals(""))
+			 continue;
+		  String[] fields = line.split(";", -1);
+		  for (int i = 0; i < fields.length; ++i)
+			 fields[i] = fields[i].trim();
+		  rows.add(fields);
+	   }
+	} finally {
+	   reader.close();
+	}
+	return rows;
+   }
+
+   /**
+	* Builds the undirected adjacency of all connections with the given status.
+	*/
+   public static Map<String, List<String>> adjacency(String dataDir, String status) throws IOException {
+	Map<String, List<String>> adj = new HashMap<String, List<String>>();
+	for (String[] row : readCsv(dataDir, "connection.csv")) {
+	   if (!row[2].equals(status))
+		  continue;
+	   link(adj, row[0], row[1]);
+	   link(adj, row[1], row[0]);
+	}
+	return adj;
+   }
+
+   private static void link(Map<String, List<String>> adj, String from, String to) {
+	List<String> list = adj.get(from);
+	if (list == null) {
+	   list = new ArrayList<String>();
+	   adj.put(from, list);
+	}
+	if (!list.contains(to))
+	   list.add(to);
+   }
+
+   /**
+	* @return the users of adj sorted by decreasing degree, at most limit of them
+	*/
+   public static List<String> topByDegree(final Map<String, List<String>> adj, int limit) {
+	List<String> users = new ArrayList<String>(adj.keySet());
+	Collections.sort(users, new Comparator<String>() {
+	   public int compare(String a, String b) {
+		  return adj.get(b).size() - adj.get(a).size();
+	   }
+	});
+	return users.subList(0, Math.min(limit, users.size()));
+   }
+
+   /**
+	* Builds a connection graph of users u0 .. u(users - 1) with a power law
+	* degree distribution: every accepted edge joins two users drawn with
+	* probability proportional to 1 / (rank + 1)^skew, so u0 gets the most
+	* connections and most users only a handful.
+	*/
+   public static ConnectionGraph skewedGraph(Random random, int users, int edges, double skew) {
+	double[] cumulative = new double[users];
+	double total = 0;
+	for (int i = 0; i < users; ++i) {
+	   total += 1 / Math.pow(i + 1, skew);
+	   cumulative[i] = total;
+	}
+	ConnectionGraph graph = new ConnectionGraph();
+	for (int i = 0; i < users; ++i)
+	   graph.addConnection("u" + i, "u" + i, "Reject"); // fixes the dense ids
+	for (int e = 0; e < edges; ++e) {
+	   int a = draw(random, cumulative, total);
+	   int b = draw(random, cumulative, total);
+	   if (a != b)
+		  graph.addConnection("u" + a, "u" + b, "Accept");
+	}
+	return graph;
+   }
+
+   private static int draw(Random random, double[] cumulative, double total) {
+	int at = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+	return Math.min(cumulative.length - 1, at < 0 ? -at - 1 : at);
+   }
+
+   /**
+	* Opens a ProfNetwork connection when <dbname> <port> <user> follow the
+	* data directory on the command line, otherwise returns null.
+	*/
+   public static ProfNetwork connect(String[] args) throws Exception {
+	if (args.length < 4)
+	   return null;
+	Class.forName ("org.postgresql.Driver").newInstance ();
+	return new ProfNetwork(args[1], args[2], args[3], "");
+   }
+
+   public static double millis(long nanos) {
+	return nanos / 1000000.0;
+   }
+}//end BenchData
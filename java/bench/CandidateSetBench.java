@@ -0,0 +1,110 @@
+/*
+ * Candidate set benchmark
+ * =======================
+ *
+ * Builds the "valid users to add" list of SendRequest from a synthetic
+ * 3-hop fan-out three ways: the old ArrayList.contains scans, the hash
+ * sets SendRequest uses now, and a BitSet over interned ids as used by
+ * ConnectionGraph.withinHops.
+ *
+ * Usage: CandidateSetBench <data dir>
+ *
+ */
+
+import java.util.*;
+
+public class CandidateSetBench {
+
+   static final int[] FAN_OUTS = { 10, 20, 30 };
+   static final int ROUNDS = 5;
+
+   public static void main(String[] args) throws Exception {
+	Random random = new Random(166);
+	System.out.println("fanout\ttier3 rows\tcandidates\tms(list)\tms(hash)\tms(bitset)");
+	for (int fanOut : FAN_OUTS) {
+	   // users are numbered 0..population-1, user 0 is the requester
+	   int population = fanOut * fanOut * fanOut;
+	   int[] tier1 = draw(random, fanOut, population);
+	   int[] tier2 = draw(random, fanOut * fanOut, population);
+	   int[] tier3 = draw(random, fanOut * fanOut * fanOut, population);
+
+	   long list = 0, hash = 0, bits = 0;
+	   int candidates = 0;
+	   for (int r = 0; r < ROUNDS; ++r) {
+		  long start = System.nanoTime();
+		  candidates = withList(tier1, tier2, tier3);
+		  list += System.nanoTime() - start;
+
+		  start = System.nanoTime();
+		  if (withHash(tier1, tier2, tier3) != candidates)
+			 throw new IllegalStateException("hash set disagrees");
+		  hash += System.nanoTime() - start;
+
+		  start = System.nanoTime();
+		  if (withBits(population, tier1, tier2, tier3) != candidates)
+			 throw new IllegalStateException("bitset disagrees");
+		  bits += System.nanoTime() - start;
+	   }
+	   System.out.println(fanOut + "\t" + tier3.length + "\t" + candidates + "\t" +
+		  String.format("%.2f\t%.2f\t%.2f", BenchData.millis(list / ROUNDS), BenchData.millis(hash / ROUNDS), BenchData.millis(bits / ROUNDS)));
+	}
+   }
+
+   static int[] draw(Random random, int count, int population) {
+	int[] ids = new int[count];
+	for (int i = 0; i < count; ++i)
+	   ids[i] = random.nextInt(population);
+	return ids;
+   }
+
+   static String name(int id) {
+	return "user" + id;
+   }
+
+   static int withList(int[] tier1, int[] tier2, int[] tier3) {
+	List<String> tier1_friends = new ArrayList<String>();
+	for (int id : tier1)
+	   tier1_friends.add(name(id));
+	List<String> valid_connections = new ArrayList<String>();
+	for (int[] tier : new int[][] { tier2, tier3 }) {
+	   for (int id : tier) {
+		  String tmpfriend = name(id);
+		  if (!tier1_friends.contains(tmpfriend) && !valid_connections.contains(tmpfriend) && !tmpfriend.equals(name(0)))
+			 valid_connections.add(tmpfriend);
+	   }
+	}
+	return valid_connections.size();
+   }
+
+   static int withHash(int[] tier1, int[] tier2, int[] tier3) {
+	Set<String> tier1_friends = new HashSet<String>();
+	for (int id : tier1)
+	   tier1_friends.add(name(id));
+	Set<String> valid_connections = new LinkedHashSet<String>();
+	for (int[] tier : new int[][] { tier2, tier3 }) {
+	   for (int id : tier) {
+		  String tmpfriend = name(id);
+		  if (!tier1_friends.contains(tmpfriend) && !tmpfriend.equals(name(0)))
+			 valid_connections.add(tmpfriend);
+	   }
+	}
+	return valid_connections.size();
+   }
+
+   static int withBits(int population, int[] tier1, int[] tier2, int[] tier3) {
+	BitSet seen = new BitSet(population);
+	seen.set(0);
+	for (int id : tier1)
+	   seen.set(id);
+	int count = 0;
+	for (int[] tier : new int[][] { tier2, tier3 }) {
+	   for (int id : tier) {
+		  if (!seen.get(id)) {
+			 seen.set(id);
+			 count++;
+		  }
+	   }
+	}
+	return count;
+   }
+}//end CandidateSetBench
@@ -0,0 +1,259 @@
+/*
+ * Hot path benchmark
+ * ==================
+ *
+ * Runs the menu handlers users wait on most, FriendList, SendRequest (the
+ * tier expansion up to the prompt), displayProfile, seeInbox and
+ * NewMessage, end to end against a database loaded from data/, and
+ * reports the latency and the statements of each call.
+ *
+ * Usage: HotPathBench <data dir> [<dbname> <port> <user>]
+ * Without database arguments only the plan of the run is printed. With
+ * them, load data/ with BulkLoader first (scripts/bench_db.sh starts a
+ * scratch database and does both). Every sample user gets an inbox of
+ * INBOX messages, deleted again afterwards with the ones NewMessage sent.
+ *
+ * The users, the inboxes and the order of the calls come from SEED, so
+ * two runs on the same data do the same work. The caches of ProfNetwork
+ * are warm after the warmup rounds, as on a server that has been up for
+ * a while. A statement that fails makes the call return early, so the
+ * errors column counts them and the run exits with status 1 if any.
+ *
+ * The same calls run under JMH with the suite in jmh/, through Run: see
+ * pom.xml and "scripts/bench_db.sh jmh".
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class HotPathBench {
+
+   static final long SEED = 25;
+   static final int SAMPLES = 100;
+   static final int WARMUP = 3;
+   static final int ROUNDS = 10;
+   static final int INBOX = 2 * Mailbox.DEFAULT_PAGE_SIZE;
+   static final String CONTENTS = "~hotpath";
+
+   /**
+	* One handler call; input is what the user types at its prompts.
+	*/
+   static abstract class Action {
+	final String name;
+	final String input;
+
+	Action(String name, String input) {
+	   this.name = name;
+	   this.input = input;
+	}
+
+	abstract void run(ProfNetwork esql, String user, String other);
+   }
+
+   static final Action[] ACTIONS = {
+	new Action("FriendList", "") {
+	   void run(ProfNetwork esql, String user, String other) {
+		  ProfNetwork.FriendList(esql, user);
+	   }
+	},
+	// an empty answer at the prompt stops right after the tier expansion
+	new Action("SendRequest", "\n") {
+	   void run(ProfNetwork esql, String user, String other) {
+		  ProfNetwork.SendRequest(esql, user);
+	   }
+	},
+	new Action("displayProfile", "") {
+	   void run(ProfNetwork esql, String user, String other) {
+		  ProfNetwork.displayProfile(esql, other);
+	   }
+	},
+	new Action("seeInbox", "3\n") {
+	   void run(ProfNetwork esql, String user, String other) {
+		  ProfNetwork.seeInbox(esql, user);
+	   }
+	},
+	new Action("NewMessage", CONTENTS + "\n\n") {
+	   void run(ProfNetwork esql, String user, String other) {
+		  ProfNetwork.NewMessage(esql, user, other);
+	   }
+	}
+   };
+
+   /**
+	* A database seeded for the run and the sample users. JMH reaches it
+	* by reflection, since a benchmark in a package cannot name the classes
+	* of the default one: see jmh/hotpath/HotPathBenchmark.java.
+	*/
+   public static class Run {
+	final ProfNetwork esql;
+	final List<String> samples;
+	private final OutputStream _discard = new ByteArrayOutputStream() {
+	   public void write(byte[] b, int off, int len) {
+		  // the screen output is not part of the measurement
+	   }
+	   public void write(int b) {
+	   }
+	};
+
+	/**
+	 * Connects and seeds the inboxes, after deleting what a run that did
+	 * not get to close left behind.
+	 *
+	 * @param args the data directory, then the dbname, port and user
+	 */
+	public Run(String[] args) throws Exception {
+	   Random random = new Random(SEED);
+	   this.samples = samples(args[0], random);
+	   this.esql = BenchData.connect(args);
+	   if (esql == null)
+		  throw new IllegalArgumentException("Usage: <data dir> <dbname> <port> <user>");
+	   try {
+		  esql.executeUpdate("DELETE FROM MESSAGE WHERE contents = ?", CONTENTS);
+		  Schema.provision(esql);
+		  seed(esql, samples, random);
+	   } catch (Exception e) {
+		  close();
+		  throw e;
+	   }
+	}
+
+	/**
+	 * Makes call number n of the named handler: sample n % samples is the
+	 * user, and every round through the samples pairs it with another one.
+	 */
+	public void call(String handler, int n) {
+	   for (Action action : ACTIONS)
+		  if (action.name.equals(handler)) {
+			 call(action, n % samples.size(), n / samples.size());
+			 return;
+		  }
+	   throw new IllegalArgumentException("No handler " + handler);
+	}
+
+	void call(final Action action, int i, int round) {
+	   final String user = samples.get(i);
+	   final String other = samples.get((i + 1 + round) % samples.size());
+	   Session session = new Session(esql, new ByteArrayInputStream(action.input.getBytes()), _discard);
+	   session.setUser(user);
+	   session.call(new Runnable() {
+		  public void run() {
+			 action.run(esql, user, other);
+		  }
+	   });
+	}
+
+	/**
+	 * @return the number of statements that failed so far
+	 */
+	public long errors() {
+	   return esql.metrics().getErrors();
+	}
+
+	/**
+	 * Deletes the seeded and sent messages and disconnects.
+	 */
+	public void close() throws SQLException {
+	   try {
+		  esql.executeUpdate("DELETE FROM MESSAGE WHERE contents = ?", CONTENTS);
+	   } finally {
+		  esql.cleanup();
+	   }
+	}
+   }//end Run
+
+   public static void main(String[] args) throws Exception {
+	System.out.println(samples(args[0], new Random(SEED)).size() + " users, " + WARMUP + " warmup and " + ROUNDS +
+		" measured rounds, seed " + SEED + ", java " + System.getProperty("java.version"));
+	if (args.length < 4) {
+	   for (Action action : ACTIONS)
+		  System.out.println(action.name);
+	   return;
+	}
+
+	long errors = 0;
+	Run run = new Run(args);
+	try {
+	   System.out.println("handler\tcalls\tqueries/call\tms p50\tms p99\tms max\terrors");
+	   for (Action action : ACTIONS)
+		  errors += run(run, action);
+	} finally {
+	   run.close();
+	}
+	if (errors > 0) {
+	   System.err.println(errors + " statements failed, the timings above are not valid");
+	   System.exit(1);
+	}
+   }
+
+   /**
+	* @return SAMPLES userIds of usr.csv, drawn with random
+	*/
+   static List<String> samples(String dataDir, Random random) throws Exception {
+	List<String> users = new ArrayList<String>();
+	for (String[] row : BenchData.readCsv(dataDir, "usr.csv"))
+	   if (row[0].length() <= 10) // longer ones do not fit USR.userId and are not loaded
+		  users.add(row[0]);
+	Collections.shuffle(users, random);
+	return users.subList(0, Math.min(SAMPLES, users.size()));
+   }
+
+   /**
+	* Calls the action once per round for every sample user, each time
+	* with another sample as the other user.
+	*
+	* @return the number of statements that failed in the measured rounds
+	*/
+   static long run(Run run, Action action) {
+	ProfNetwork esql = run.esql;
+	Metrics.Histogram latency = new Metrics.Histogram();
+	long queries = 0;
+	long errors = 0;
+	for (int round = 0; round < WARMUP + ROUNDS; ++round) {
+	   for (int i = 0; i < run.samples.size(); ++i) {
+		  long before = esql.metrics().getQueries();
+		  long errorsBefore = run.errors();
+		  long start = System.nanoTime();
+		  run.call(action, i, round);
+		  long elapsed = System.nanoTime() - start;
+		  if (round >= WARMUP) {
+			 latency.record(elapsed);
+			 queries += esql.metrics().getQueries() - before;
+			 errors += run.errors() - errorsBefore;
+		  }
+	   }
+	}
+	System.out.println(String.format("%s\t%d\t%.1f\t%.2f\t%.2f\t%.2f\t%d", action.name, latency.count(),
+		queries / (double) latency.count(), latency.percentile(0.5) / 1e6, latency.percentile(0.99) / 1e6,
+		latency.max() / 1e6, errors));
+	return errors;
+   }
+
+   /**
+	* Gives every sample user INBOX messages from the other samples, in
+	* one transaction.
+	*/
+   static void seed(ProfNetwork esql, List<String> samples, Random random) throws Exception {
+	esql.messageIds().setBlockSize(1000);
+	long day = 24 * 3600 * 1000L;
+	long base = 1420070400000L; // 2015-01-01, so every run seeds the same times
+	WriteBatch batch = esql.batch();
+	for (String receiver : samples) {
+	   for (int i = 0; i < INBOX; ++i) {
+		  String sender = samples.get(random.nextInt(samples.size()));
+		  java.sql.Timestamp sendTime = new java.sql.Timestamp(base + (long) (random.nextDouble() * 365 * day));
+		  batch.add("INSERT INTO MESSAGE (msgId, senderId, receiverId, contents, sendTime, deleteStatus, status) " +
+			  "VALUES (?, ?, ?, ?, CAST(? AS timestamp), 0, 'Sent')", esql.messageIds().next(), sender, receiver,
+			  CONTENTS, sendTime.toString());
+	   }
+	}
+	batch.flush();
+	esql.messageIds().setBlockSize(1);
+   }
+}//end HotPathBench
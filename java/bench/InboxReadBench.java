@@ -0,0 +1,72 @@
+/*
+ * Inbox read receipt benchmark
+ * ============================
+ *
+ * Compares marking an inbox read the old way (one UPDATE per displayed
+ * message) against the single set-based update seeInbox now sends after
+ * rendering.
+ *
+ * Usage: InboxReadBench <data dir> [<dbname> <port> <user>]
+ * Without database arguments only the round trip counts are reported.
+ * With them, MESSAGE is seeded with an inbox for a scratch receiver per
+ * size, which is deleted again afterwards.
+ *
+ */
+
+import java.util.*;
+
+public class InboxReadBench {
+
+   static final int[] INBOX_SIZES = { 10, 100, 500, 2000 };
+   static final String RECEIVER = "~inboxbnch";
+
+   public static void main(String[] args) throws Exception {
+	ProfNetwork esql = BenchData.connect(args);
+	if (esql != null)
+	   esql.messageIds().setBlockSize(1000);
+
+	System.out.println("messages\tqueries(before)\tqueries(after)\tms(seed)\tms(before)\tms(after)");
+	for (int size : INBOX_SIZES) {
+	   int after = (size + ProfNetwork.IN_LIST_CHUNK - 1) / ProfNetwork.IN_LIST_CHUNK;
+	   String msSeed = "-";
+	   String msBefore = "-";
+	   String msAfter = "-";
+	   if (esql != null) {
+		  List<Integer> ids = new ArrayList<Integer>();
+		  long start = System.nanoTime();
+		  seed(esql, size, ids);
+		  msSeed = String.format("%.1f", BenchData.millis(System.nanoTime() - start));
+
+		  start = System.nanoTime();
+		  for (Integer msgId : ids)
+			 esql.executeUpdate("UPDATE MESSAGE SET status = 'Read' WHERE msgId = ?", msgId);
+		  msBefore = String.format("%.1f", BenchData.millis(System.nanoTime() - start));
+
+		  esql.executeUpdate("UPDATE MESSAGE SET status = 'Sent' WHERE receiverId = ?", RECEIVER);
+		  start = System.nanoTime();
+		  after = esql.executeUpdateIn("UPDATE MESSAGE SET status = 'Read' WHERE receiverId = ? AND msgId IN (%s)",
+			  ids, RECEIVER);
+		  msAfter = String.format("%.1f", BenchData.millis(System.nanoTime() - start));
+
+		  esql.executeUpdate("DELETE FROM MESSAGE WHERE receiverId = ?", RECEIVER);
+	   }
+	   System.out.println(size + "\t" + size + "\t" + after + "\t" + msSeed + "\t" + msBefore + "\t" + msAfter);
+	}
+	if (esql != null)
+	   esql.cleanup();
+   }
+
+   /**
+	* Inserts size messages for RECEIVER in one transaction.
+	*/
+   static void seed(ProfNetwork esql, int size, List<Integer> ids) throws Exception {
+	WriteBatch batch = esql.batch();
+	for (int i = 0; i < size; ++i) {
+	   int msgId = esql.messageIds().next();
+	   ids.add(msgId);
+	   batch.add("INSERT INTO MESSAGE (msgId, senderId, receiverId, contents, sendTime, deleteStatus, status) " +
+		   "VALUES (?, ?, ?, ?, current_timestamp, 0, 'Sent')", msgId, "~bench", RECEIVER, "message " + i);
+	}
+	batch.flush();
+   }
+}//end InboxReadBench
@@ -0,0 +1,122 @@
+/*
+ * Index benchmark
+ * ===============
+ *
+ * Times every query template of Schema with the indexes of Schema.INDEXES
+ * dropped and then created, and prints the plan each run used.
+ *
+ * Usage: IndexBench <data dir> [<dbname> <port> <user>]
+ * Without database arguments only the indexes are printed.
+ * With them, load data/ with BulkLoader first: MESSAGE is seeded with
+ * MESSAGES messages between the users of usr.csv, deleted again
+ * afterwards, and the indexes are left in place.
+ *
+ */
+
+import java.util.*;
+
+public class IndexBench {
+
+   static final int MESSAGES = 100000;
+   static final int SAMPLES = 50;
+   static final int ROUNDS = 5;
+   static final String CONTENTS = "~indexbench";
+
+   public static void main(String[] args) throws Exception {
+	for (Schema.Index index : Schema.INDEXES)
+	   System.out.println(index.ddl());
+	ProfNetwork esql = BenchData.connect(args);
+	if (esql == null)
+	   return;
+
+	List<String> users = new ArrayList<String>();
+	for (String[] row : BenchData.readCsv(args[0], "usr.csv"))
+	   if (row[0].length() <= 10) // longer ones do not fit USR.userId and are not loaded
+		  users.add(row[0]);
+	Set<String> requested = new LinkedHashSet<String>();
+	for (String[] row : BenchData.readCsv(args[0], "connection.csv"))
+	   if (row[2].equals("Request") && requested.size() < SAMPLES)
+		  requested.add(row[1]);
+
+	long start = System.nanoTime();
+	List<String> heavy = seed(esql, users, new Random(23));
+	System.out.println("seeded " + MESSAGES + " messages in " +
+		String.format("%.0f", BenchData.millis(System.nanoTime() - start)) + " ms");
+
+	try {
+	   System.out.println("template\tus(no index)\tus(index)\tplan(no index)\tplan(index)");
+	   Schema.drop(esql);
+	   Map<String, String[]> without = run(esql, heavy, new ArrayList<String>(requested));
+	   Schema.provision(esql);
+	   Map<String, String[]> with = run(esql, heavy, new ArrayList<String>(requested));
+	   for (String name : without.keySet())
+		  System.out.println(name + "\t" + without.get(name)[0] + "\t" + with.get(name)[0] +
+			  "\t" + without.get(name)[1] + "\t" + with.get(name)[1]);
+	} finally {
+	   esql.executeUpdate("DELETE FROM MESSAGE WHERE contents = ?", CONTENTS);
+	   Schema.provision(esql);
+	   esql.cleanup();
+	}
+   }
+
+   /**
+	* Times every template over its sample users.
+	*
+	* @return the microseconds per query and the top plan node, by template name
+	*/
+   static Map<String, String[]> run(ProfNetwork esql, List<String> heavy, List<String> requested) throws Exception {
+	Map<String, String[]> results = new LinkedHashMap<String, String[]>();
+	for (Schema.Template template : Schema.templates(esql)) {
+	   List<String> samples = template.name.equals("AcceptRejectConnectionRequests") ? requested : heavy;
+	   for (String user : samples) // warmup
+		  esql.executeQueryAndReturnResult(template.sql, template.params(user));
+	   long start = System.nanoTime();
+	   for (int r = 0; r < ROUNDS; ++r)
+		  for (String user : samples)
+			 esql.executeQueryAndReturnResult(template.sql, template.params(user));
+	   long elapsed = System.nanoTime() - start;
+	   String us = String.format("%.0f", elapsed / 1000.0 / (ROUNDS * samples.size()));
+	   results.put(template.name, new String[] { us, scanOf(Schema.plan(esql, template, samples.get(0))) });
+	}
+	return results;
+   }
+
+   // the first scan node of a plan, e.g. "Index Scan Backward using message_inbox_key_idx on message"
+   static String scanOf(List<String> plan) {
+	for (String line : plan)
+	   if (line.contains("Scan"))
+		  return line.replaceFirst("^[ ->]*", "").replaceFirst("  \\(cost.*$", "");
+	return plan.isEmpty() ? "-" : plan.get(0).trim();
+   }
+
+   /**
+	* Inserts MESSAGES messages in one transaction. Receivers and senders
+	* are skewed towards the first users, like real inboxes, and about a third
+	* of the messages are deleted, drafts or failed.
+	*
+	* @return the SAMPLES users with the most messages
+	*/
+   static List<String> seed(ProfNetwork esql, List<String> users, Random random) throws Exception {
+	esql.messageIds().setBlockSize(1000);
+	String[] statuses = { "Sent", "Read", "Sent", "Read", "Sent", "Read", "Draft", "Failed to Deliver" };
+	long now = System.currentTimeMillis();
+	WriteBatch batch = esql.batch();
+	for (int i = 0; i < MESSAGES; ++i) {
+	   String sender = users.get(skewed(random, users.size()));
+	   String receiver = users.get(skewed(random, users.size()));
+	   java.sql.Timestamp sendTime = new java.sql.Timestamp(now - (long) random.nextInt(365 * 24 * 3600) * 1000);
+	   batch.add("INSERT INTO MESSAGE (msgId, senderId, receiverId, contents, sendTime, deleteStatus, status) " +
+		   "VALUES (?, ?, ?, ?, CAST(? AS timestamp), ?, ?)", esql.messageIds().next(), sender, receiver, CONTENTS,
+		   sendTime.toString(), random.nextInt(8) == 0 ? 1 + random.nextInt(3) : 0,
+		   statuses[random.nextInt(statuses.length)]);
+	}
+	batch.flush();
+	Schema.analyze(esql);
+	return users.subList(0, Math.min(SAMPLES, users.size()));
+   }
+
+   // an index below n, i with probability proportional to 1 / (i + 1)
+   static int skewed(Random random, int n) {
+	return Math.min(n - 1, (int) Math.floor(Math.exp(random.nextDouble() * Math.log(n + 1))) - 1);
+   }
+}//end IndexBench
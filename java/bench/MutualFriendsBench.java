@@ -0,0 +1,111 @@
+/*
+ * Mutual friends benchmark
+ * ========================
+ *
+ * Times ConnectionGraph.mutualFriendCount against intersecting two HashSets
+ * of friend names, on a synthetic graph with a power law degree
+ * distribution (a few users with thousands of connections, most with a
+ * handful) and on the highest degree users of data/connection.csv.
+ *
+ * Usage: MutualFriendsBench [<data dir>]
+ *
+ */
+
+import java.util.*;
+
+public class MutualFriendsBench {
+
+   static final int USERS = 50000;
+   static final int EDGES = 400000;
+   static final double SKEW = 0.8;
+   static final int PAIRS = 200;
+   static final int ROUNDS = 50;
+
+   public static void main(String[] args) throws Exception {
+	Random random = new Random(42);
+	ConnectionGraph graph = BenchData.skewedGraph(random, USERS, EDGES, SKEW);
+	List<String> hubs = new ArrayList<String>();
+	for (int i = 0; i < 20; ++i)
+	   hubs.add("u" + i);
+
+	System.out.println("synthetic: " + USERS + " users, " + EDGES + " edges, skew " + SKEW);
+	System.out.println("pairs\tavg degrees\tavg mutual\tus(graph)\tp99 us(graph)\tus(hash sets)");
+	run(graph, "hub-hub", pairs(random, hubs, hubs));
+	List<String> all = new ArrayList<String>();
+	for (int i = 0; i < USERS; ++i)
+	   all.add("u" + i);
+	run(graph, "hub-any", pairs(random, hubs, all));
+	run(graph, "any-any", pairs(random, all, all));
+
+	if (args.length > 0) {
+	   Map<String, List<String>> adj = BenchData.adjacency(args[0], "Accept");
+	   ConnectionGraph data = new ConnectionGraph();
+	   for (String[] row : BenchData.readCsv(args[0], "connection.csv"))
+		  data.addConnection(row[0], row[1], row[2]);
+	   List<String> top = BenchData.topByDegree(adj, 20);
+	   List<String> users = new ArrayList<String>(adj.keySet());
+	   System.out.println();
+	   System.out.println("data/connection.csv: " + adj.size() + " users");
+	   System.out.println("pairs\tavg degrees\tavg mutual\tus(graph)\tp99 us(graph)\tus(hash sets)");
+	   run(data, "top-top", pairs(random, top, top));
+	   run(data, "top-any", pairs(random, top, users));
+	}
+   }
+
+   static List<String[]> pairs(Random random, List<String> from, List<String> to) {
+	List<String[]> pairs = new ArrayList<String[]>();
+	while (pairs.size() < PAIRS) {
+	   String a = from.get(random.nextInt(from.size()));
+	   String b = to.get(random.nextInt(to.size()));
+	   if (!a.equals(b))
+		  pairs.add(new String[] { a, b });
+	}
+	return pairs;
+   }
+
+   static void run(ConnectionGraph graph, String name, List<String[]> pairs) {
+	long degrees = 0;
+	long mutual = 0;
+	for (String[] p : pairs) {
+	   degrees += graph.friends(p[0], "Accept").size() + graph.friends(p[1], "Accept").size();
+	   int count = graph.mutualFriendCount(p[0], p[1]);
+	   if (count != hashSets(graph, p[0], p[1]))
+		  System.out.println("MISMATCH for " + p[0] + ", " + p[1]);
+	   mutual += count;
+	}
+
+	long sink = 0;
+	long[] times = new long[ROUNDS * pairs.size()];
+	int n = 0;
+	long start = System.nanoTime();
+	for (int r = 0; r < ROUNDS; ++r) {
+	   for (String[] p : pairs) {
+		  long t = System.nanoTime();
+		  sink += graph.mutualFriendCount(p[0], p[1]);
+		  times[n++] = System.nanoTime() - t;
+	   }
+	}
+	double usGraph = (System.nanoTime() - start) / 1000.0 / ROUNDS / pairs.size();
+
+	start = System.nanoTime();
+	for (int r = 0; r < ROUNDS; ++r)
+	   for (String[] p : pairs)
+		  sink += hashSets(graph, p[0], p[1]);
+	double usHash = (System.nanoTime() - start) / 1000.0 / ROUNDS / pairs.size();
+	Arrays.sort(times);
+	long p99 = times[times.length * 99 / 100];
+
+	System.out.println(String.format("%s\t%.0f\t%.1f\t%.2f\t%.1f\t%.2f%s", name,
+		(double) degrees / pairs.size(), (double) mutual / pairs.size(),
+		usGraph, p99 / 1000.0, usHash, sink < 0 ? "!" : ""));
+   }
+
+   /**
+	* The straightforward way: both friend lists as sets, then retainAll.
+	*/
+   static int hashSets(ConnectionGraph graph, String a, String b) {
+	Set<String> common = new HashSet<String>(graph.friends(a, "Accept"));
+	common.retainAll(new HashSet<String>(graph.friends(b, "Accept")));
+	return common.size();
+   }
+}//end MutualFriendsBench
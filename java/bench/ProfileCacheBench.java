@@ -0,0 +1,112 @@
+/*
+ * Profile cache benchmark
+ * =======================
+ *
+ * Replays profile lookups over the userIds in data/usr.csv, drawn from a
+ * Zipfian distribution so a few users are looked up far more often than
+ * the rest, and reports the hit ratio and latency percentiles of the
+ * ProfileCache for a few capacities next to uncached lookups.
+ *
+ * Usage: ProfileCacheBench <data dir> [<dbname> <port> <user>]
+ * Without database arguments a miss is served from usr.csv after a
+ * simulated round trip of ROUND_TRIP_MICROS.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+public class ProfileCacheBench {
+
+   static final int LOOKUPS = 20000;
+   static final double SKEW = 0.99;
+   static final long ROUND_TRIP_MICROS = 500;
+   static final int[] CAPACITIES = { 256, 1024, 4096 };
+
+   public static void main(String[] args) throws Exception {
+	final Map<String, String[]> users = new HashMap<String, String[]>();
+	for (String[] row : BenchData.readCsv(args[0], "usr.csv"))
+	   users.put(row[0], row);
+	final List<String> ids = new ArrayList<String>(users.keySet());
+	Collections.sort(ids);
+
+	final ProfNetwork esql = BenchData.connect(args);
+	ProfileCache.Loader loader;
+	if (esql != null) {
+	   loader = new ProfileCache.Loader() {
+		  public Profile load(String userId) throws SQLException {
+			 return Profile.load(esql, userId);
+		  }
+	   };
+	} else {
+	   loader = new ProfileCache.Loader() {
+		  public Profile load(String userId) {
+			 LockSupport.parkNanos(ROUND_TRIP_MICROS * 1000);
+			 String[] row = users.get(userId);
+			 return new Profile(userId, row[2], row[3], row[4], new ArrayList<Profile.Work>(),
+				 new ArrayList<Profile.Education>(), new ArrayList<String>());
+		  }
+	   };
+	}
+
+	String[] trace = zipfTrace(ids, LOOKUPS, SKEW, new Random(42));
+	System.out.println(ids.size() + " users, " + LOOKUPS + " lookups, zipf s=" + SKEW +
+		(esql == null ? ", simulated round trip " + ROUND_TRIP_MICROS + " us" : ""));
+	System.out.println("capacity\thit ratio\tp50 ms\tp99 ms\ttotal ms");
+
+	long[] nanos = new long[trace.length];
+	for (int i = 0; i < trace.length; ++i) {
+	   long start = System.nanoTime();
+	   loader.load(trace[i]);
+	   nanos[i] = System.nanoTime() - start;
+	}
+	report("none", "-", nanos);
+
+	for (int capacity : CAPACITIES) {
+	   ProfileCache cache = new ProfileCache(loader, capacity, ProfileCache.DEFAULT_TTL_MILLIS);
+	   for (int i = 0; i < trace.length; ++i) {
+		  long start = System.nanoTime();
+		  cache.get(trace[i]);
+		  nanos[i] = System.nanoTime() - start;
+	   }
+	   report(String.valueOf(capacity), String.format("%.3f", cache.hitRatio()), nanos);
+	}
+	if (esql != null)
+	   esql.cleanup();
+   }
+
+   /**
+	* Draws count userIds, the k-th of them (in a random order) with a
+	* probability proportional to 1 / k^skew.
+	*/
+   static String[] zipfTrace(List<String> ids, int count, double skew, Random random) {
+	List<String> ranked = new ArrayList<String>(ids);
+	Collections.shuffle(ranked, random);
+	double[] cdf = new double[ranked.size()];
+	double sum = 0;
+	for (int k = 0; k < cdf.length; ++k) {
+	   sum += 1 / Math.pow(k + 1, skew);
+	   cdf[k] = sum;
+	}
+	String[] trace = new String[count];
+	for (int i = 0; i < count; ++i) {
+	   int k = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+	   if (k < 0)
+		  k = -k - 1;
+	   trace[i] = ranked.get(Math.min(k, cdf.length - 1));
+	}
+	return trace;
+   }
+
+   static void report(String capacity, String hitRatio, long[] nanos) {
+	long total = 0;
+	for (long n : nanos)
+	   total += n;
+	long[] sorted = nanos.clone();
+	Arrays.sort(sorted);
+	System.out.println(capacity + "\t" + hitRatio + "\t" +
+		String.format("%.3f\t%.3f\t%.0f", BenchData.millis(sorted[sorted.length / 2]),
+			BenchData.millis(sorted[(int) (sorted.length * 0.99)]), BenchData.millis(total)));
+   }
+}//end ProfileCacheBench
@@ -0,0 +1,92 @@
+/*
+ * Degrees of separation benchmark
+ * ===============================
+ *
+ * Compares how SendRequestToSpecificUser used to check a target (expand
+ * the requester's whole three hop network with ConnectionGraph.withinHops,
+ * then look the target up) against ConnectionGraph.degreesOfSeparation,
+ * counting the users each one reaches. Runs on a synthetic graph with a
+ * power law degree distribution and on data/connection.csv.
+ *
+ * Usage: SeparationBench [<data dir>]
+ *
+ */
+
+import java.util.*;
+
+public class SeparationBench {
+
+   static final int USERS = 50000;
+   static final int EDGES = 400000;
+   static final double SKEW = 0.8;
+   static final int MAX_DEPTH = 3;
+   static final int PAIRS = 200;
+
+   public static void main(String[] args) throws Exception {
+	Random random = new Random(42);
+	ConnectionGraph graph = BenchData.skewedGraph(random, USERS, EDGES, SKEW);
+	List<String> all = new ArrayList<String>();
+	for (int i = 0; i < USERS; ++i)
+	   all.add("u" + i);
+	List<String> hubs = all.subList(0, 20);
+
+	System.out.println("synthetic: " + USERS + " users, " + EDGES + " edges, skew " + SKEW);
+	System.out.println("pairs\tfound\tvisited(tiers)\tvisited(bidirectional)\tus(tiers)\tus(bidirectional)");
+	run(graph, "any-any", pairs(random, all, all));
+	run(graph, "hub-any", pairs(random, hubs, all));
+
+	if (args.length > 0) {
+	   Map<String, List<String>> adj = BenchData.adjacency(args[0], "Accept");
+	   ConnectionGraph data = new ConnectionGraph();
+	   for (String[] row : BenchData.readCsv(args[0], "connection.csv"))
+		  data.addConnection(row[0], row[1], row[2]);
+	   List<String> users = new ArrayList<String>(adj.keySet());
+	   System.out.println();
+	   System.out.println("data/connection.csv: " + adj.size() + " users");
+	   System.out.println("pairs\tfound\tvisited(tiers)\tvisited(bidirectional)\tus(tiers)\tus(bidirectional)");
+	   run(data, "any-any", pairs(random, users, users));
+	   run(data, "top-any", pairs(random, BenchData.topByDegree(adj, 20), users));
+	}
+   }
+
+   static List<String[]> pairs(Random random, List<String> from, List<String> to) {
+	List<String[]> pairs = new ArrayList<String[]>();
+	while (pairs.size() < PAIRS) {
+	   String a = from.get(random.nextInt(from.size()));
+	   String b = to.get(random.nextInt(to.size()));
+	   if (!a.equals(b))
+		  pairs.add(new String[] { a, b });
+	}
+	return pairs;
+   }
+
+   static void run(ConnectionGraph graph, String name, List<String[]> pairs) {
+	// warm up, and check both give the same answer
+	int found = 0;
+	for (String[] p : pairs) {
+	   Integer tiers = graph.withinHops(p[0], MAX_DEPTH).get(p[1]);
+	   int bidirectional = graph.degreesOfSeparation(p[0], p[1], MAX_DEPTH);
+	   if ((tiers == null ? -1 : tiers) != bidirectional)
+		  System.out.println("MISMATCH for " + p[0] + ", " + p[1] + ": " + tiers + " vs " + bidirectional);
+	   if (bidirectional > 0)
+		  found++;
+	}
+
+	long visitedTiers = 0;
+	long start = System.nanoTime();
+	for (String[] p : pairs)
+	   visitedTiers += graph.withinHops(p[0], MAX_DEPTH).size();
+	double usTiers = (System.nanoTime() - start) / 1000.0 / pairs.size();
+
+	long visitedBidirectional = 0;
+	start = System.nanoTime();
+	for (String[] p : pairs) {
+	   graph.degreesOfSeparation(p[0], p[1], MAX_DEPTH);
+	   visitedBidirectional += graph.lastVisited();
+	}
+	double usBidirectional = (System.nanoTime() - start) / 1000.0 / pairs.size();
+
+	System.out.println(String.format("%s\t%d/%d\t%d\t%d\t%.1f\t%.1f", name, found, pairs.size(),
+		visitedTiers / pairs.size(), visitedBidirectional / pairs.size(), usTiers, usBidirectional));
+   }
+}//end SeparationBench
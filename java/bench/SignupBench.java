@@ -0,0 +1,78 @@
+/*
+ * Signup benchmark
+ * ================
+ *
+ * Measures signups/sec for the old CreateUser path (three auto-committed
+ * INSERTs per user), for Signup.create (one transaction per user) and for
+ * Signup.createAll (one transaction for all of them). Scratch accounts are
+ * named ~s<n> and deleted after each run.
+ *
+ * Usage: SignupBench <data dir> [<dbname> <port> <user>]
+ * Without database arguments only the statements and commits are reported.
+ *
+ */
+
+import java.util.*;
+
+public class SignupBench {
+
+   static final int USERS = 1000;
+
+   public static void main(String[] args) throws Exception {
+	ProfNetwork esql = BenchData.connect(args);
+	List<Signup.Account> accounts = new ArrayList<Signup.Account>();
+	for (int i = 0; i < USERS; ++i)
+	   accounts.add(new Signup.Account("~s" + i, "pw", "s" + i + "@bench", "Bench " + i, "01/02/1990",
+		   "Bench Co", "Tester", "Riverside", "01/01/2010", "12/30/9999",
+		   "UCR", "CS", "BS", "09/01/2006", "06/15/2010"));
+	int chunks = (USERS + Signup.CHUNK - 1) / Signup.CHUNK;
+
+	System.out.println(USERS + " signups");
+	System.out.println("method\tstatements\tcommits\tms\tsignups/s");
+	run(esql, "legacy", 3 * USERS, 3 * USERS, accounts, 0);
+	run(esql, "create", 3 * USERS, USERS, accounts, 1);
+	run(esql, "createAll", 3 * chunks, 1, accounts, 2);
+	if (esql != null)
+	   esql.cleanup();
+   }
+
+   static void run(ProfNetwork esql, String method, int statements, int commits,
+	   List<Signup.Account> accounts, int mode) throws Exception {
+	String ms = "-";
+	String rate = "-";
+	if (esql != null) {
+	   long start = System.nanoTime();
+	   if (mode == 0) {
+		  for (Signup.Account a : accounts)
+			 legacyCreate(esql, a);
+	   } else if (mode == 1) {
+		  for (Signup.Account a : accounts)
+			 Signup.create(esql, a);
+	   } else
+		  Signup.createAll(esql, accounts);
+	   long elapsed = System.nanoTime() - start;
+	   ms = String.format("%.1f", BenchData.millis(elapsed));
+	   rate = String.format("%.0f", accounts.size() / (elapsed / 1e9));
+	   cleanup(esql);
+	}
+	System.out.println(method + "\t" + statements + "\t" + commits + "\t" + ms + "\t" + rate);
+   }
+
+   /**
+	* The inserts exactly as CreateUser used to send them.
+	*/
+   static void legacyCreate(ProfNetwork esql, Signup.Account a) throws Exception {
+	esql.executeUpdate("INSERT INTO USR (userId, password, email, name, dateOfBirth) VALUES (?, ?, ?, ?, CAST(? AS date))",
+		a.login, a.password, a.email, a.name, a.birthday);
+	esql.executeUpdate("INSERT INTO WORK_EXPR (userId, company, role, location, startDate, endDate) VALUES (?, ?, ?, ?, CAST(? AS date), CAST(? AS date))",
+		a.login, a.company, a.role, a.location, a.workStart, a.workEnd);
+	esql.executeUpdate("INSERT INTO EDUCATIONAL_DETAILS (userId , instituitionName, major, degree, startdate, enddate) VALUES (?, ?, ?, ?, CAST(? AS date), CAST(? AS date))",
+		a.login, a.institution, a.major, a.degree, a.collegeStart, a.graduation);
+   }
+
+   static void cleanup(ProfNetwork esql) throws Exception {
+	esql.executeUpdate("DELETE FROM EDUCATIONAL_DETAILS WHERE userId LIKE '~s%'");
+	esql.executeUpdate("DELETE FROM WORK_EXPR WHERE userId LIKE '~s%'");
+	esql.executeUpdate("DELETE FROM USR WHERE userId LIKE '~s%'");
+   }
+}//end SignupBench
@@ -0,0 +1,117 @@
+/*
+ * Streaming query benchmark
+ * =========================
+ *
+ * Compares reading all of CONNECTION_USR with executeQueryAndReturnResult
+ * (every row copied into a List<List<String>>) against streaming it with
+ * executeQueryForEach into the same ConnectionGraph, reporting time, bytes
+ * allocated and the heap held once the graph is built.
+ *
+ * Usage: StreamingQueryBench <data dir> [<dbname> <port> <user>]
+ * Without database arguments the rows of data/connection.csv, padded the
+ * way char(n) columns come back from the DBMS, stand in for the result set.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.*;
+
+public class StreamingQueryBench {
+
+   static final String QUERY = "SELECT userId, connectionId, status FROM CONNECTION_USR";
+   static final int RUNS = 5;
+
+   public static void main(String[] args) throws Exception {
+	final ProfNetwork esql = BenchData.connect(args);
+	final List<String[]> csv = esql == null ? BenchData.readCsv(args[0], "connection.csv") : null;
+
+	long baseline = heldBytes();
+	System.out.println("method\trows\tms\tMB allocated\tMB held");
+	for (int run = 0; run < RUNS; ++run) {
+	   boolean last = run == RUNS - 1;
+
+	   // materialized: the whole result is held while the graph is built
+	   long start = System.nanoTime();
+	   long allocated = allocatedBytes();
+	   List<List<String>> rows;
+	   if (esql != null)
+		  rows = esql.executeQueryAndReturnResult(QUERY);
+	   else {
+		  rows = new ArrayList<List<String>>();
+		  for (String[] row : csv)
+			 rows.add(new ArrayList<String>(Arrays.asList(pad(row[0], 10), pad(row[1], 10), pad(row[2], 30))));
+	   }
+	   ConnectionGraph graph = new ConnectionGraph();
+	   for (List<String> row : rows)
+		  graph.addConnection(row.get(0), row.get(1), row.get(2));
+	   long elapsed = System.nanoTime() - start;
+	   allocated = allocatedBytes() - allocated;
+	   // rows and graph are both still referenced below, so both count as held
+	   long held = heldBytes() - baseline;
+	   if (last)
+		  report("materialized", rows.size(), elapsed, allocated, held);
+	   if (graph.edgeCount() != rows.size())
+		  System.out.println("duplicate rows: " + (rows.size() - graph.edgeCount()));
+	   rows = null;
+	   graph = null;
+
+	   // streamed: one row at a time straight into the graph
+	   start = System.nanoTime();
+	   allocated = allocatedBytes();
+	   final ConnectionGraph streamed = new ConnectionGraph();
+	   int count;
+	   if (esql != null) {
+		  count = esql.executeQueryForEach(QUERY, ConnectionGraph.LOAD_FETCH_SIZE, new Row.Handler() {
+			 public boolean row(Row row) throws SQLException {
+				streamed.addConnection(row.getString(1), row.getString(2), row.getString(3));
+				return true;
+			 }
+		  });
+	   } else {
+		  count = 0;
+		  for (String[] row : csv) {
+			 streamed.addConnection(pad(row[0], 10), pad(row[1], 10), pad(row[2], 30));
+			 count++;
+		  }
+	   }
+	   elapsed = System.nanoTime() - start;
+	   allocated = allocatedBytes() - allocated;
+	   held = heldBytes() - baseline;
+	   if (last)
+		  report("streamed", count, elapsed, allocated, held);
+	   if (streamed.edgeCount() != count)
+		  System.out.println("duplicate rows: " + (count - streamed.edgeCount()));
+	}
+	if (esql != null)
+	   esql.cleanup();
+   }
+
+   static void report(String method, int rows, long elapsed, long allocated, long held) {
+	System.out.println(method + "\t" + rows + "\t" +
+		String.format("%.1f\t%.1f\t%.1f", BenchData.millis(elapsed), allocated / 1048576.0, held / 1048576.0));
+   }
+
+   static String pad(String value, int width) {
+	StringBuilder padded = new StringBuilder(value);
+	while (padded.length() < width)
+	   padded.append(' ');
+	return padded.toString();
+   }
+
+   // bytes allocated by this thread so far, where the JVM reports it
+   static long allocatedBytes() {
+	java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	if (threads instanceof com.sun.management.ThreadMXBean)
+	   return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	return 0;
+   }
+
+   // heap in use after a full collection
+   static long heldBytes() {
+	Runtime runtime = Runtime.getRuntime();
+	for (int i = 0; i < 3; ++i)
+	   System.gc();
+	return runtime.totalMemory() - runtime.freeMemory();
+   }
+}//end StreamingQueryBench
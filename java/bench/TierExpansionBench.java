@@ -0,0 +1,84 @@
+/*
+ * Tier expansion benchmark
+ * ========================
+ *
+ * Compares the old SendRequest expansion (one FriendList query per tier-1
+ * and per tier-2 friend) against ProfNetwork.connectionsWithinHops for the
+ * highest degree users in data/connection.csv, and against the BFS of the
+ * in-memory ConnectionGraph.
+ *
+ * Usage: TierExpansionBench <data dir> [<dbname> <port> <user>]
+ * Without database arguments only the round trip counts are reported.
+ *
+ */
+
+import java.util.*;
+
+public class TierExpansionBench {
+
+   static final int USERS = 10;
+
+   public static void main(String[] args) throws Exception {
+	Map<String, List<String>> adj = BenchData.adjacency(args[0], "Accept");
+	ProfNetwork esql = BenchData.connect(args);
+
+	ConnectionGraph graph = new ConnectionGraph();
+	for (String[] row : BenchData.readCsv(args[0], "connection.csv"))
+	   graph.addConnection(row[0], row[1], row[2]);
+	graph.withinHops(graph.nameOf(0), 3); // builds the CSR index
+
+	System.out.println("user\ttier1\tqueries(before)\tqueries(after)\tms(before)\tms(after)\tus(graph)");
+	for (String user : BenchData.topByDegree(adj, USERS)) {
+	   List<String> tier1 = adj.get(user);
+	   int tier2 = 0;
+	   for (String friend : tier1)
+		  tier2 += adj.get(friend).size();
+	   // FriendList for the user, then once per tier-1 and once per tier-2 row
+	   int before = 1 + tier1.size() + tier2;
+
+	   String msBefore = "-";
+	   String msAfter = "-";
+	   if (esql != null) {
+		  long start = System.nanoTime();
+		  Set<String> legacy = legacyExpand(esql, user);
+		  msBefore = String.format("%.1f", BenchData.millis(System.nanoTime() - start));
+
+		  start = System.nanoTime();
+		  Map<String, Integer> reached = esql.connectionsWithinHops(user, 3);
+		  msAfter = String.format("%.1f", BenchData.millis(System.nanoTime() - start));
+
+		  legacy.remove(user);
+		  if (!legacy.equals(reached.keySet()))
+			 System.out.println("MISMATCH for " + user + ": " + legacy.size() + " vs " + reached.size());
+	   }
+	   long start = System.nanoTime();
+	   for (int i = 0; i < 1000; ++i)
+		  graph.withinHops(user, 3);
+	   String usGraph = String.format("%.1f", (System.nanoTime() - start) / 1000 / 1000.0);
+
+	   System.out.println(user + "\t" + tier1.size() + "\t" + before + "\t1\t" + msBefore + "\t" + msAfter + "\t" + usGraph);
+	}
+	if (esql != null)
+	   esql.cleanup();
+   }
+
+   /**
+	* The tier-1/2/3 expansion exactly as SendRequest used to run it.
+	*/
+   static Set<String> legacyExpand(ProfNetwork esql, String user) throws Exception {
+	Set<String> seen = new HashSet<String>();
+	List<String> frontier = new ArrayList<String>();
+	frontier.add(user);
+	for (int tier = 0; tier < 3; ++tier) {
+	   List<String> next = new ArrayList<String>();
+	   for (String requester : frontier) {
+		  String query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Accept' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Accept'", requester, requester);
+		  for (List<String> row : esql.executeQueryAndReturnResult(query))
+			 next.add(row.get(0).trim());
+	   }
+	   seen.addAll(next);
+	   frontier = next;
+	}
+	return seen;
+   }
+}//end TierExpansionBench
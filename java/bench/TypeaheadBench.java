@@ -0,0 +1,104 @@
+/*
+ * Typeahead benchmark
+ * ===================
+ *
+ * Builds Typeahead from data/usr.csv (ranked by the accepted connections
+ * of data/connection.csv) and times completions of short prefixes, for
+ * everyone and scoped to a user's three hop network, against checking
+ * every userId and name.
+ *
+ * Usage: TypeaheadBench <data dir>
+ *
+ */
+
+import java.util.*;
+
+public class TypeaheadBench {
+
+   static final int QUERIES = 1000;
+   static final int ROUNDS = 100;
+
+   public static void main(String[] args) throws Exception {
+	long start = System.nanoTime();
+	Map<String, String> users = new LinkedHashMap<String, String>();
+	for (String[] row : BenchData.readCsv(args[0], "usr.csv"))
+	   users.put(row[0], row[3]);
+	double msRead = BenchData.millis(System.nanoTime() - start);
+	ConnectionGraph graph = new ConnectionGraph();
+	for (String[] row : BenchData.readCsv(args[0], "connection.csv"))
+	   graph.addConnection(row[0], row[1], row[2]);
+	graph.degree(graph.nameOf(0), ConnectionGraph.ACCEPT); // builds the CSR index
+
+	Typeahead typeahead = new Typeahead();
+	for (int i = 0; i < 5; ++i) // warm up
+	   typeahead.build(users, graph);
+	start = System.nanoTime();
+	typeahead.build(users, graph);
+	double msBuild = BenchData.millis(System.nanoTime() - start);
+	System.out.println(typeahead);
+	System.out.println(String.format("read usr.csv %.0f ms, build %.0f ms", msRead, msBuild));
+
+	Random random = new Random(42);
+	List<String> ids = new ArrayList<String>(users.keySet());
+	List<String> prefixes = new ArrayList<String>();
+	for (int i = 0; i < QUERIES; ++i) {
+	   String id = ids.get(random.nextInt(ids.size()));
+	   String source = random.nextBoolean() ? id : users.get(id);
+	   prefixes.add(source.substring(0, Math.min(source.length(), 1 + random.nextInt(3))));
+	}
+
+	System.out.println("completion\tus(typeahead)\tus(scan)");
+	long sink = 0;
+	for (int r = 0; r < ROUNDS; ++r) // warm up
+	   for (String p : prefixes)
+		  sink += typeahead.complete(p, Typeahead.DEFAULT_K).size();
+	start = System.nanoTime();
+	for (int r = 0; r < ROUNDS; ++r)
+	   for (String p : prefixes)
+		  sink += typeahead.complete(p, Typeahead.DEFAULT_K).size();
+	double usTrie = (System.nanoTime() - start) / 1000.0 / ROUNDS / prefixes.size();
+	start = System.nanoTime();
+	for (String p : prefixes)
+	   sink += scan(users, ids, graph, p).size();
+	double usScan = (System.nanoTime() - start) / 1000.0 / prefixes.size();
+	System.out.println(String.format("everyone\t%.2f\t%.1f", usTrie, usScan));
+
+	// scoped to the three hop network of the best connected users
+	List<String> top = new ArrayList<String>();
+	for (String id : typeahead.complete("", Typeahead.MAX_K))
+	   top.add(id);
+	long scopeSize = 0;
+	start = System.nanoTime();
+	for (int i = 0; i < prefixes.size(); ++i) {
+	   Set<String> scope = graph.withinHops(top.get(i % top.size()), 3).keySet();
+	   scopeSize += scope.size();
+	   sink += typeahead.complete(prefixes.get(i), Typeahead.DEFAULT_K, scope).size();
+	}
+	double usScoped = (System.nanoTime() - start) / 1000.0 / prefixes.size();
+	System.out.println(String.format("3-hop network (%d users, incl. the BFS)\t%.1f\t-%s",
+		scopeSize / prefixes.size(), usScoped, sink < 0 ? "!" : ""));
+   }
+
+   /**
+	* The completions without an index: every user is checked.
+	*/
+   static List<String> scan(Map<String, String> users, List<String> ids, final ConnectionGraph graph, String prefix) {
+	String lower = prefix.toLowerCase();
+	List<String> matches = new ArrayList<String>();
+	for (String id : ids) {
+	   String name = users.get(id).toLowerCase();
+	   boolean match = id.toLowerCase().startsWith(lower) || name.startsWith(lower);
+	   for (String word : name.split("\\s+"))
+		  match |= word.startsWith(lower);
+	   if (match)
+		  matches.add(id);
+	}
+	Collections.sort(matches, new Comparator<String>() {
+	   public int compare(String a, String b) {
+		  int d = graph.degree(b, ConnectionGraph.ACCEPT) - graph.degree(a, ConnectionGraph.ACCEPT);
+		  return d != 0 ? d : a.compareTo(b);
+	   }
+	});
+	return matches.subList(0, Math.min(Typeahead.DEFAULT_K, matches.size()));
+   }
+}//end TypeaheadBench
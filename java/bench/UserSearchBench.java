@@ -0,0 +1,110 @@
+/*
+ * User search benchmark
+ * =====================
+ *
+ * Builds UserSearch from data/usr.csv, work_ex.csv and edu_det.csv and
+ * times queries against it, next to a scan of every row for the same
+ * words (what a LIKE '%word%' over the three tables has to do).
+ *
+ * Usage: UserSearchBench <data dir>
+ *
+ */
+
+import java.nio.file.Paths;
+import java.util.*;
+
+public class UserSearchBench {
+
+   static final int QUERIES = 200;
+   static final int ROUNDS = 20;
+   static final int WARMUP_ROUNDS = 100;
+
+   public static void main(String[] args) throws Exception {
+	Runtime rt = Runtime.getRuntime();
+	System.gc();
+	long heapBefore = rt.totalMemory() - rt.freeMemory();
+	long start = System.nanoTime();
+	UserSearch search = new UserSearch(null);
+	search.buildFromFiles(Paths.get(args[0]));
+	double msBuild = BenchData.millis(System.nanoTime() - start);
+	System.gc();
+	long heap = rt.totalMemory() - rt.freeMemory() - heapBefore;
+	System.out.println(search + String.format(", built in %.0f ms, ~%.1f MB", msBuild, heap / 1e6));
+
+	// every row as one lower case string, for the scan
+	Map<String, StringBuilder> rows = new HashMap<String, StringBuilder>();
+	for (String[] row : BenchData.readCsv(args[0], "usr.csv"))
+	   text(rows, row[0]).append(' ').append(row[0]).append(' ').append(row[3]);
+	for (String[] row : BenchData.readCsv(args[0], "work_ex.csv"))
+	   text(rows, row[0]).append(' ').append(row[1]).append(' ').append(row[2]).append(' ').append(row[3]);
+	for (String[] row : BenchData.readCsv(args[0], "edu_det.csv"))
+	   text(rows, row[0]).append(' ').append(row[1]).append(' ').append(row[2]);
+	List<String> texts = new ArrayList<String>();
+	for (StringBuilder text : rows.values())
+	   texts.add(text.toString().toLowerCase());
+
+	// queries: a full name, a name prefix, a company plus a role word
+	Random random = new Random(42);
+	List<String[]> users = BenchData.readCsv(args[0], "usr.csv");
+	List<String[]> work = BenchData.readCsv(args[0], "work_ex.csv");
+	List<String> names = new ArrayList<String>();
+	List<String> prefixes = new ArrayList<String>();
+	List<String> companies = new ArrayList<String>();
+	for (int i = 0; i < QUERIES; ++i) {
+	   String name = users.get(random.nextInt(users.size()))[3];
+	   names.add(name);
+	   prefixes.add(name.substring(0, Math.min(3, name.length())));
+	   String[] w = work.get(random.nextInt(work.size()));
+	   companies.add(w[1] + " " + w[2].split(" ")[0]);
+	}
+
+	System.out.println("queries\tavg hits\tus(index)\tus(scan)");
+	run(search, texts, "full name", names);
+	run(search, texts, "3-letter prefix", prefixes);
+	run(search, texts, "company + role", companies);
+   }
+
+   static StringBuilder text(Map<String, StringBuilder> rows, String userId) {
+	StringBuilder text = rows.get(userId);
+	if (text == null) {
+	   text = new StringBuilder();
+	   rows.put(userId, text);
+	}
+	return text;
+   }
+
+   static void run(UserSearch search, List<String> texts, String name, List<String> queries) {
+	long hits = 0;
+	for (String q : queries)
+	   hits += search.search(q, 0, UserSearch.DEFAULT_PAGE_SIZE).total;
+	for (int r = 0; r < WARMUP_ROUNDS; ++r)
+	   for (String q : queries)
+		  search.search(q, 0, UserSearch.DEFAULT_PAGE_SIZE);
+
+	long start = System.nanoTime();
+	for (int r = 0; r < ROUNDS; ++r)
+	   for (String q : queries)
+		  search.search(q, 0, UserSearch.DEFAULT_PAGE_SIZE);
+	double usIndex = (System.nanoTime() - start) / 1000.0 / ROUNDS / queries.size();
+
+	long sink = 0;
+	start = System.nanoTime();
+	for (String q : queries) {
+	   String[] words = q.toLowerCase().split("[^\\p{L}\\p{N}]+");
+	   for (String text : texts) {
+		  boolean all = true;
+		  for (String word : words)
+			 if (!word.isEmpty() && text.indexOf(word) < 0) {
+				all = false;
+				break;
+			 }
+		  if (all)
+			 sink++;
+	   }
+	}
+	double usScan = (System.nanoTime() - start) / 1000.0 / queries.size();
+
+	System.out.println(String.format("%s\t%.1f\t%.1f\t%.1f%s", name, (double) hits / queries.size(),
+		usIndex, usScan, sink < 0 ? "!" : ""));
+   }
+}//end UserSearchBench
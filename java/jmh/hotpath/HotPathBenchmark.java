@@ -0,0 +1,121 @@
+/*
+ * Hot path JMH benchmark
+ * ======================
+ *
+ * The calls of HotPathBench under JMH: FriendList, SendRequest up to its
+ * prompt, displayProfile, seeInbox and NewMessage, end to end against a
+ * database loaded from data/. Build with "mvn package" and run with
+ * "scripts/bench_db.sh jmh", which starts the scratch database first.
+ *
+ * Usage: java -jar target/benchmarks.jar [-p db=<dbname> -p port=<port> -p user=<user>]
+ *
+ */
+
+package hotpath;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * One trial per handler, each on a freshly seeded HotPathBench.Run. JMH
+ * only accepts benchmarks in a package, and a package cannot name the
+ * classes of the default one, so the Run is looked up by reflection.
+ * An iteration in which a statement failed fails the benchmark: a call
+ * that hit an error returns early and its time means nothing.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class HotPathBenchmark {
+
+   @Param({ "FriendList", "SendRequest", "displayProfile", "seeInbox", "NewMessage" })
+   public String handler;
+
+   @Param("../data")
+   public String data;
+
+   @Param("profnetwork_bench")
+   public String db;
+
+   @Param("54321")
+   public String port;
+
+   // empty for the name of the user running the benchmark
+   @Param("")
+   public String user;
+
+   private Object _run;
+   private Method _call;
+   private Method _errors;
+   private Method _close;
+   private int _calls = 0;
+   private long _errorsBefore;
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception {
+	Class<?> run = Class.forName("HotPathBench$Run");
+	String login = user.isEmpty() ? System.getProperty("user.name") : user;
+	_run = run.getConstructor(String[].class).newInstance((Object) new String[] { data, db, port, login });
+	_call = run.getMethod("call", String.class, int.class);
+	_errors = run.getMethod("errors");
+	_close = run.getMethod("close");
+   }
+
+   @Setup(Level.Iteration)
+   public void countErrors() throws Exception {
+	_errorsBefore = errors();
+   }
+
+   @Benchmark
+   public void call() throws Exception {
+	invoke(_call, handler, _calls++);
+   }
+
+   @TearDown(Level.Iteration)
+   public void checkErrors() throws Exception {
+	long failed = errors() - _errorsBefore;
+	if (failed > 0)
+	   throw new IllegalStateException(failed + " statements failed in " + handler + ", see the log of the database");
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws Exception {
+	if (_run != null)
+	   invoke(_close);
+   }
+
+   private long errors() throws Exception {
+	return (Long) invoke(_errors);
+   }
+
+   // calls a method of the Run, rethrowing what it threw
+   private Object invoke(Method method, Object... args) throws Exception {
+	try {
+	   return method.invoke(_run, args);
+	} catch (InvocationTargetException e) {
+	   if (e.getCause() instanceof Exception)
+		  throw (Exception) e.getCause();
+	   throw e;
+	}
+   }
+}//end HotPathBenchmark
@@ -0,0 +1,14 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use, unless JAVA_HOME is set
+export JAVA_HOME=${JAVA_HOME:-/usr/csshare/pkgs/jdk1.7.0_17}
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program together with the benchmarks
+javac -d $DIR/../classes -cp $DIR/../lib/pg73jdbc3.jar $DIR/../src/*.java $DIR/../bench/*.java
+
+#run a benchmark, e.g. ./bench.sh TierExpansionBench
+#Pass the database name, port number and login as extra arguments to time against postgres
+BENCH=$1
+shift
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar $BENCH $DIR/../../data "$@"
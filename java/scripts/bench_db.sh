@@ -0,0 +1,36 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use, unless JAVA_HOME is set
+export JAVA_HOME=${JAVA_HOME:-/usr/csshare/pkgs/jdk1.7.0_17}
+export PATH=$JAVA_HOME/bin:$PATH
+
+#run a benchmark against a scratch postgres on this machine, e.g. ./bench_db.sh HotPathBench
+#the first run creates the database in $BENCH_PGDATA and loads data/ into it; later runs reuse it
+#./bench_db.sh jmh [<jmh options>] runs the JMH suite instead, built with "mvn package" in java/
+BENCH_PGDATA=${BENCH_PGDATA:-/tmp/$USER-profnetwork-bench}
+BENCH_PGPORT=${BENCH_PGPORT:-54321}
+BENCH_DB=profnetwork_bench
+
+fresh=0
+if [ ! -d $BENCH_PGDATA ]; then
+   initdb -D $BENCH_PGDATA -A trust > /dev/null || exit 1
+   fresh=1
+fi
+pg_ctl -D $BENCH_PGDATA -o "-p $BENCH_PGPORT -k /tmp -c listen_addresses=localhost" -l $BENCH_PGDATA/log -w start || exit 1
+trap "pg_ctl -D $BENCH_PGDATA -m fast -w stop > /dev/null" EXIT
+
+javac -d $DIR/../classes -cp $DIR/../lib/pg73jdbc3.jar $DIR/../src/*.java $DIR/../bench/*.java || exit 1
+if [ $fresh = 1 ]; then
+   createdb -h localhost -p $BENCH_PGPORT $BENCH_DB
+   #the tables of the project handout
+   unzip -p $DIR/../../CS166_Project.zip CS166_Project/sql/src/create_tables.sql | psql -q -h localhost -p $BENCH_PGPORT $BENCH_DB 2> /dev/null
+   java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BulkLoader $DIR/../../data $BENCH_DB $BENCH_PGPORT $USER
+fi
+
+BENCH=${1:-HotPathBench}
+shift
+if [ $BENCH = jmh ]; then
+   java -jar $DIR/../target/benchmarks.jar -p data=$DIR/../../data -p db=$BENCH_DB -p port=$BENCH_PGPORT -p user=$USER "$@"
+   exit
+fi
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar $BENCH $DIR/../../data $BENCH_DB $BENCH_PGPORT $USER "$@"
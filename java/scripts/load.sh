@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use, unless JAVA_HOME is set
+export JAVA_HOME=${JAVA_HOME:-/usr/csshare/pkgs/jdk1.7.0_17}
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#load the files in data/ into the tables
+#Use your database name, port number and login; add --replace to empty the tables first
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BulkLoader $DIR/../../data $DB_NAME $PGPORT $USER "$@"
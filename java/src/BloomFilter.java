@@ -0,0 +1,63 @@
+/*
+ * Bloom filter
+ * ============
+ *
+ * Fixed size Bloom filter over strings. Sized at 10 bits per expected key
+ * with 7 probes, which keeps the false positive rate near 1%.
+ *
+ */
+
+public class BloomFilter {
+
+   private static final int BITS_PER_KEY = 10;
+   private static final int PROBES = 7;
+
+   private final long[] _bits;
+   private final int _size;
+
+   /**
+	* @param expectedKeys the number of keys the filter is sized for
+	*/
+   public BloomFilter(int expectedKeys) {
+	long size = Math.max(64L, (long) expectedKeys * BITS_PER_KEY);
+	this._size = (int) Math.min(size, Integer.MAX_VALUE - 63);
+	this._bits = new long[(this._size + 63) / 64];
+   }
+
+   public void add(String key) {
+	int h1 = key.hashCode();
+	int h2 = mix(h1);
+	for (int i = 0; i < PROBES; ++i) {
+	   int bit = index(h1 + i * h2);
+	   _bits[bit >>> 6] |= 1L << bit;
+	}
+   }
+
+   /**
+	* @return false if key was definitely never added
+	*/
+   public boolean mightContain(String key) {
+	int h1 = key.hashCode();
+	int h2 = mix(h1);
+	for (int i = 0; i < PROBES; ++i) {
+	   int bit = index(h1 + i * h2);
+	   if ((_bits[bit >>> 6] & (1L << bit)) == 0)
+		  return false;
+	}
+	return true;
+   }
+
+   private int index(int hash) {
+	return (hash & Integer.MAX_VALUE) % _size;
+   }
+
+   // second, independent hash for double hashing (murmur3 finalizer)
+   private static int mix(int h) {
+	h ^= h >>> 16;
+	h *= 0x85ebca6b;
+	h ^= h >>> 13;
+	h *= 0xc2b2ae35;
+	h ^= h >>> 16;
+	return h | 1;
+   }
+}//end BloomFilter
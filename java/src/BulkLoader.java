@@ -0,0 +1,329 @@
+/*
+ * Bulk loader
+ * ===========
+ *
+ * Loads the semicolon separated files in data/ into USR, WORK_EXPR,
+ * EDUCATIONAL_DETAILS and CONNECTION_USR, one thread per table, with
+ * multi-row INSERT statements of BATCH_ROWS rows each.
+ *
+ * Usage: BulkLoader <data dir> <dbname> <port> <user> [--replace]
+ *        BulkLoader <data dir> --dry-run
+ *
+ * --replace empties the tables first; --dry-run only reads and converts
+ * the files, which times the parsing without a database.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * This class streams every file once and sends its rows in batches. The
+ * PostgreSQL 7.3 driver has no COPY API, so multi-row INSERTs stand in for
+ * COPY FROM STDIN. Rows with a value longer than its column, e.g. most
+ * userIds in data/, are rejected before they are sent. A batch the DBMS
+ * still refuses (a duplicate key) is split in halves until the bad rows
+ * are found, so each one costs a few statements and only loses itself;
+ * rejected rows are counted and the first few are printed.
+ *
+ */
+public class BulkLoader {
+
+   static final int BATCH_ROWS = 500;
+   static final long PROGRESS_MILLIS = 2000;
+   static final int REJECTS_SHOWN = 5;
+
+   // yyyy/MM/dd (usr.csv, work_ex.csv), yyyy-MM-dd (edu_det.csv) and MM/dd/yyyy (CreateUser)
+   private static final Pattern YMD = Pattern.compile("(\\d{4})[/-](\\d{1,2})[/-](\\d{1,2})");
+   private static final Pattern MDY = Pattern.compile("(\\d{1,2})/(\\d{1,2})/(\\d{4})");
+
+   /**
+	* A file of data/ and the table it goes into; the columns are in file
+	* order, dates are marked so they get normalized and cast, and widths
+	* holds the n of the char(n) and varchar(n) columns, 0 for the others.
+	*/
+   public static class Table {
+	public final String name;
+	public final String file;
+	public final String[] columns;
+	public final boolean[] dates;
+	public final int[] widths;
+
+	public Table(String name, String file, String[] columns, boolean[] dates, int[] widths) {
+	   this.name = name;
+	   this.file = file;
+	   this.columns = columns;
+	   this.dates = dates;
+	   this.widths = widths;
+	}
+
+	/**
+	 * @return the first column the value of which is too long for it, or -1
+	 */
+	public int tooLong(Object[] row) {
+	   for (int i = 0; i < columns.length; ++i)
+		  if (widths[i] > 0 && row[i] instanceof String && ((String) row[i]).length() > widths[i])
+			 return i;
+	   return -1;
+	}
+
+	/**
+	 * @return an INSERT of rows rows, each a group of placeholders
+	 */
+	public String insert(int rows) {
+	   StringBuilder sql = new StringBuilder("INSERT INTO ").append(name).append(" (");
+	   for (int i = 0; i < columns.length; ++i)
+		  sql.append(i == 0 ? "" : ", ").append(columns[i]);
+	   sql.append(") VALUES ");
+	   for (int r = 0; r < rows; ++r) {
+		  sql.append(r == 0 ? "(" : ", (");
+		  for (int i = 0; i < columns.length; ++i)
+			 sql.append(i == 0 ? "" : ", ").append(dates[i] ? "CAST(? AS date)" : "?");
+		  sql.append(")");
+	   }
+	   return sql.toString();
+	}
+   }//end Table
+
+   public static final Table USR = new Table("USR", "usr.csv",
+	new String[] { "userId", "password", "email", "name", "dateOfBirth" },
+	new boolean[] { false, false, false, false, true },
+	new int[] { 10, 10, 0, 50, 0 });
+   public static final Table WORK_EXPR = new Table("WORK_EXPR", "work_ex.csv",
+	new String[] { "userId", "company", "role", "location", "startDate", "endDate" },
+	new boolean[] { false, false, false, false, true, true },
+	new int[] { 10, 50, 50, 50, 0, 0 });
+   public static final Table EDUCATIONAL_DETAILS = new Table("EDUCATIONAL_DETAILS", "edu_det.csv",
+	new String[] { "userId", "instituitionName", "major", "degree", "startdate", "enddate" },
+	new boolean[] { false, false, false, false, true, true },
+	new int[] { 10, 50, 50, 50, 0, 0 });
+   public static final Table CONNECTION_USR = new Table("CONNECTION_USR", "connection.csv",
+	new String[] { "userId", "connectionId", "status" },
+	new boolean[] { false, false, false },
+	new int[] { 10, 10, 30 });
+
+   public static final Table[] TABLES = { USR, WORK_EXPR, EDUCATIONAL_DETAILS, CONNECTION_USR };
+
+   /**
+	* Progress of one table.
+	*/
+   public static class Progress {
+	public final Table table;
+	public final AtomicLong read = new AtomicLong();
+	public final AtomicLong loaded = new AtomicLong();
+	public final AtomicLong rejected = new AtomicLong();
+	volatile long finishedAt = 0;
+
+	Progress(Table table) {
+	   this.table = table;
+	}
+   }//end Progress
+
+   private final ProfNetwork _esql;
+   private final Path _dataDir;
+   private final long _startedAt = System.currentTimeMillis();
+
+   /**
+	* @param esql the database to load into, or null to only read the files
+	* @param dataDir the directory holding the files
+	*/
+   public BulkLoader(ProfNetwork esql, Path dataDir) {
+	this._esql = esql;
+	this._dataDir = dataDir;
+   }
+
+   /**
+	* Converts the date formats found in the data files and typed into
+	* CreateUser to yyyy-MM-dd.
+	*
+	* @return the ISO date, null for an empty value, or the value unchanged
+	*         when it is not a known format (the DBMS then rejects the row)
+	*/
+   public static String normalizeDate(String value) {
+	if (value == null || value.isEmpty())
+	   return null;
+	Matcher m = YMD.matcher(value);
+	if (m.matches())
+	   return m.group(1) + "-" + pad(m.group(2)) + "-" + pad(m.group(3));
+	m = MDY.matcher(value);
+	if (m.matches())
+	   return m.group(3) + "-" + pad(m.group(1)) + "-" + pad(m.group(2));
+	return value;
+   }
+
+   private static String pad(String field) {
+	return field.length() == 1 ? "0" + field : field;
+   }
+
+   /**
+	* Empties the tables, children first.
+	*/
+   public void truncate() throws SQLException {
+	for (int i = TABLES.length - 1; i >= 0; --i)
+	   _esql.executeUpdate("DELETE FROM " + TABLES[i].name);
+   }
+
+   /**
+	* Loads every table on its own thread and prints progress until all
+	* are done.
+	*
+	* @return the progress of every table
+	*/
+   public List<Progress> loadAll() throws Exception {
+	final List<Progress> progress = new ArrayList<Progress>();
+	for (Table table : TABLES)
+	   progress.add(new Progress(table));
+
+	ExecutorService executor = Executors.newFixedThreadPool(TABLES.length);
+	List<Future<Void>> done = new ArrayList<Future<Void>>();
+	for (final Progress p : progress) {
+	   done.add(executor.submit(new Callable<Void>() {
+		  public Void call() throws Exception {
+			 try {
+				load(p);
+			 } finally {
+				p.finishedAt = System.currentTimeMillis();
+			 }
+			 return null;
+		  }
+	   }));
+	}
+	executor.shutdown();
+	while (!executor.awaitTermination(PROGRESS_MILLIS, TimeUnit.MILLISECONDS))
+	   report(progress);
+	for (Future<Void> f : done)
+	   f.get();
+	report(progress);
+	return progress;
+   }
+
+   /**
+	* Streams one file into its table.
+	*/
+   public void load(Progress progress) throws IOException, SQLException {
+	Table table = progress.table;
+	int width = table.columns.length;
+	List<Object[]> batch = new ArrayList<Object[]>(BATCH_ROWS);
+
+	BufferedReader reader = Files.newBufferedReader(_dataDir.resolve(table.file), Charset.forName("UTF-8"));
+	try {
+	   String line = reader.readLine(); // header
+	   while ((line = reader.readLine()) != null) {
+		  if (line.trim().isEmpty())
+			 continue;
+		  String[] fields = line.split(";", -1);
+		  Object[] row = new Object[width];
+		  for (int i = 0; i < width; ++i) {
+			 String field = i < fields.length ? fields[i].trim() : "";
+			 row[i] = table.dates[i] ? normalizeDate(field) : (field.isEmpty() ? null : field);
+		  }
+		  progress.read.incrementAndGet();
+		  int column = table.tooLong(row);
+		  if (column >= 0) {
+			 reject(progress, row, "value too long for " + table.columns[column]);
+			 continue;
+		  }
+		  batch.add(row);
+		  if (batch.size() == BATCH_ROWS) {
+			 flush(progress, batch);
+			 batch.clear();
+		  }
+	   }
+	   if (!batch.isEmpty())
+		  flush(progress, batch);
+	} finally {
+	   reader.close();
+	}
+   }
+
+   private void flush(Progress progress, List<Object[]> batch) {
+	if (_esql == null) {
+	   progress.loaded.addAndGet(batch.size());
+	   return;
+	}
+	int width = progress.table.columns.length;
+	Object[] params = new Object[batch.size() * width];
+	for (int r = 0; r < batch.size(); ++r)
+	   System.arraycopy(batch.get(r), 0, params, r * width, width);
+	try {
+	   _esql.executeUpdate(progress.table.insert(batch.size()), params);
+	   progress.loaded.addAndGet(batch.size());
+	   return;
+	} catch (SQLException e) {
+	   if (batch.size() == 1) {
+		  reject(progress, batch.get(0), e.getMessage());
+		  return;
+	   }
+	}
+	// the halves without a refused row go in at once
+	int half = batch.size() / 2;
+	flush(progress, batch.subList(0, half));
+	flush(progress, batch.subList(half, batch.size()));
+   }
+
+   private void reject(Progress progress, Object[] row, String reason) {
+	if (progress.rejected.incrementAndGet() <= REJECTS_SHOWN)
+	   System.err.println(progress.table.name + ": rejected " + Arrays.toString(row) + ": " + reason);
+   }
+
+   private void report(List<Progress> progress) {
+	long now = System.currentTimeMillis();
+	StringBuilder line = new StringBuilder(String.format("%6.1fs", (now - _startedAt) / 1000.0));
+	long total = 0;
+	for (Progress p : progress) {
+	   long loaded = p.loaded.get();
+	   long end = p.finishedAt == 0 ? now : p.finishedAt;
+	   line.append(String.format("  %s %d%s (%.0f rows/s%s)", p.table.name, loaded,
+		   p.rejected.get() > 0 ? " +" + p.rejected.get() + " rejected" : "",
+		   loaded * 1000.0 / Math.max(1, end - _startedAt), p.finishedAt == 0 ? "" : ", done"));
+	   total += loaded;
+	}
+	line.append(String.format("  total %.0f rows/s", total * 1000.0 / Math.max(1, now - _startedAt)));
+	System.out.println(line);
+   }
+
+   public static void main(String[] args) {
+	boolean dryRun = args.length == 2 && args[1].equals("--dry-run");
+	if (!dryRun && (args.length < 4 || args.length > 5 || (args.length == 5 && !args[4].equals("--replace")))) {
+	   System.err.println("Usage: java " + BulkLoader.class.getName() +
+		   " <data dir> <dbname> <port> <user> [--replace]\n" +
+		   "       java " + BulkLoader.class.getName() + " <data dir> --dry-run");
+	   return;
+	}
+
+	ProfNetwork esql = null;
+	try {
+	   if (!dryRun) {
+		  Class.forName("org.postgresql.Driver").newInstance();
+		  // one connection per table
+		  esql = new ProfNetwork(args[1], args[2], args[3], "", TABLES.length);
+	   }
+	   BulkLoader loader = new BulkLoader(esql, Paths.get(args[0]));
+	   if (args.length == 5)
+		  loader.truncate();
+	   loader.loadAll();
+	} catch (Exception e) {
+	   System.err.println(e.getMessage());
+	} finally {
+	   if (esql != null)
+		  esql.cleanup();
+	}
+   }
+}//end BulkLoader
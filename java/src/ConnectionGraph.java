@@ -0,0 +1,661 @@
+/*
+ * Connection graph
+ * ================
+ *
+ * In-memory copy of CONNECTION_USR. UserIds are interned to dense ints and
+ * the edges of every status are kept as CSR (compressed sparse row) arrays,
+ * so friend lists and tier expansion never have to go back to the DBMS.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * This class holds the connections between users as primitive int arrays.
+ * The raw (userId, connectionId, status) rows are kept in growable arrays
+ * and the per status CSR index is rebuilt lazily after a write.
+ *
+ */
+public class ConnectionGraph {
+
+   public static final String ACCEPT = "Accept";
+   public static final String REQUEST = "Request";
+   public static final String REJECT = "Reject";
+
+   // above this size ratio the smaller friend list gallops through the larger
+   static final int GALLOP_RATIO = 8;
+
+   // rows per round trip while loading CONNECTION_USR
+   static final int LOAD_FETCH_SIZE = 4096;
+
+   // statuses in the order of their CSR index
+   private static final String[] STATUSES = { ACCEPT, REQUEST, REJECT };
+
+   // a value in the statements below, either a quoted literal or a '?' placeholder
+   private static final String VALUE = "('[^']*'|\\?)";
+   private static final Pattern INSERT_EDGE = Pattern.compile(
+	"\\s*insert\\s+into\\s+connection_usr\\s*\\(\\s*userid\\s*,\\s*connectionid\\s*,\\s*status\\s*\\)\\s*" +
+	"values\\s*\\(\\s*" + VALUE + "\\s*,\\s*" + VALUE + "\\s*,\\s*" + VALUE + "\\s*\\)\\s*",
+	Pattern.CASE_INSENSITIVE);
+   private static final Pattern UPDATE_EDGE = Pattern.compile(
+	"\\s*update\\s+connection_usr\\s+set\\s+status\\s*=\\s*" + VALUE + "\\s+where\\s+" +
+	"\\(\\s*userid\\s*=\\s*" + VALUE + "\\s+and\\s+connectionid\\s*=\\s*" + VALUE + "\\s*\\)" +
+	"(?:\\s+or\\s+\\(\\s*userid\\s*=\\s*" + VALUE + "\\s+and\\s+connectionid\\s*=\\s*" + VALUE + "\\s*\\))?\\s*",
+	Pattern.CASE_INSENSITIVE);
+
+   /**
+	* Told about writes that change the accepted connections. The calls are
+	* made while the graph is locked, so a listener must not call back into
+	* the graph from them.
+	*/
+   public interface Listener {
+	/**
+	 * The connection between two users became, or stopped being, Accept.
+	 */
+	void acceptChanged(String user, String connection);
+
+	/**
+	 * The graph was replaced by a freshly loaded one.
+	 */
+	void reloaded();
+   }
+
+   /**
+	* A user within reach of another, with the friends they share.
+	*/
+   public static class Suggestion {
+	public final String userId;
+	public final int hops;
+	public final int mutualFriends;
+
+	Suggestion(String userId, int hops, int mutualFriends) {
+	   this.userId = userId;
+	   this.hops = hops;
+	   this.mutualFriends = mutualFriends;
+	}
+   }//end Suggestion
+
+   private final List<Listener> _listeners = new ArrayList<Listener>();
+
+   // userId <-> dense id
+   private final Map<String, Integer> _ids = new HashMap<String, Integer>();
+   private final List<String> _names = new ArrayList<String>();
+
+   // raw edges, one per CONNECTION_USR row
+   private int[] _src = new int[1024];
+   private int[] _dst = new int[1024];
+   private byte[] _status = new byte[1024];
+   private int _edgeCount = 0;
+   private final Map<Long, Integer> _edgeIndex = new HashMap<Long, Integer>();
+
+   // CSR per status, undirected, each row sorted and without duplicates
+   private int[][] _offsets = null;
+   private int[][] _targets = null;
+
+   // set when a write could not be applied and the table must be loaded again
+   private boolean _stale = false;
+
+   // scratch space of degreesOfSeparation, reused so a search only costs
+   // the users it reaches: a user is seen from side s in the search
+   // numbered _search if _seen[s][id] == _search
+   private int[][] _seen = new int[2][0];
+   private int[][] _depth = new int[2][0];
+   private int[][] _queue = new int[2][0];
+   private int _search = 0;
+   private int _lastVisited = 0;
+
+   /**
+	* Loads every row of CONNECTION_USR, or CONNECTION_EDGE once the
+	* connections were migrated, into a new graph. No other thread can see
+	* the graph until it is returned, so the scan runs without holding any
+	* lock; only put() takes the graph's monitor, for one row at a time.
+	*
+	* @param esql the database connection
+	* @return the loaded graph
+	* @throws java.sql.SQLException when failed to execute the query
+	*/
+   public static ConnectionGraph load(ProfNetwork esql) throws SQLException {
+	final ConnectionGraph graph = new ConnectionGraph();
+	esql.executeQueryForEach(esql.connections().scanQuery(), LOAD_FETCH_SIZE,
+		new Row.Handler() {
+		   public boolean row(Row row) throws SQLException {
+			  graph.put(row.getString(1), row.getString(2), row.getString(3));
+			  return true;
+		   }
+		});
+	return graph;
+   }
+
+   public synchronized void addListener(Listener listener) {
+	_listeners.add(listener);
+   }
+
+   /**
+	* Adds one CONNECTION_USR row to the graph, or changes the status of the
+	* row if (user, connection) is already present.
+	*/
+   public synchronized void addConnection(String user, String connection, String status) {
+	changed(user, connection, put(user, connection, status), status);
+	_offsets = null;
+   }
+
+   /**
+	* @return true when a write was seen that the graph could not apply
+	*/
+   public synchronized boolean isStale() {
+	return _stale;
+   }
+
+   /**
+	* Keeps the graph in sync with an update that was just executed against
+	* the DBMS. The INSERT and UPDATE statements issued by ProfNetwork are
+	* applied in place; any other write to CONNECTION_USR marks the graph
+	* stale so it is reloaded before the next read.
+	*
+	* @param sql the update that was executed
+	* @param params the values bound to the '?' placeholders of sql
+	*/
+   public synchronized void applyUpdate(String sql, Object... params) {
+	if (sql.toUpperCase().indexOf("CONNECTION_USR") < 0)
+	   return;
+
+	Matcher m = INSERT_EDGE.matcher(sql);
+	if (m.matches()) {
+	   String[] v = values(m, params);
+	   changed(v[0], v[1], put(v[0], v[1], v[2]), v[2]);
+	   _offsets = null;
+	   return;
+	}
+	m = UPDATE_EDGE.matcher(sql);
+	if (m.matches()) {
+	   String[] v = values(m, params);
+	   changed(v[1], v[2], setStatus(v[1], v[2], v[0]), v[0]);
+	   if (v[3] != null)
+		  changed(v[3], v[4], setStatus(v[3], v[4], v[0]), v[0]);
+	   _offsets = null;
+	   return;
+	}
+	_stale = true;
+   }
+
+   // resolves the matched values, taking the params in order for each '?'
+   private static String[] values(Matcher m, Object[] params) {
+	String[] v = new String[m.groupCount()];
+	int next = 0;
+	for (int i = 0; i < v.length; ++i) {
+	   String group = m.group(i + 1);
+	   if (group == null)
+		  continue;
+	   if (group.equals("?"))
+		  v[i] = next < params.length ? String.valueOf(params[next++]) : "";
+	   else
+		  v[i] = group.substring(1, group.length() - 1);
+	}
+	return v;
+   }
+
+   /**
+	* @return the number of distinct users seen in CONNECTION_USR
+	*/
+   public synchronized int userCount() {
+	return _names.size();
+   }
+
+   /**
+	* @return the number of CONNECTION_USR rows
+	*/
+   public synchronized int edgeCount() {
+	return _edgeCount;
+   }
+
+   /**
+	* @return the dense id of a user or -1 if the user has no connections
+	*/
+   public synchronized int idOf(String user) {
+	Integer id = _ids.get(user.trim());
+	return id == null ? -1 : id.intValue();
+   }
+
+   /**
+	* @return the userId of a dense id
+	*/
+   public synchronized String nameOf(int id) {
+	return _names.get(id);
+   }
+
+   /**
+	* Returns the neighbors of a user over the edges with the given status,
+	* in either direction.
+	*
+	* @param id the dense id of the user
+	* @param status Accept, Request or Reject
+	* @return the dense ids of the neighbors, sorted
+	*/
+   public synchronized int[] neighbors(int id, String status) {
+	int s = statusIndex(status);
+	if (id < 0 || s < 0)
+	   return new int[0];
+	buildIndex();
+	int[] offsets = _offsets[s];
+	return Arrays.copyOfRange(_targets[s], offsets[id], offsets[id + 1]);
+   }
+
+   /**
+	* @return the number of users connected to user with the given status
+	*/
+   public synchronized int degree(String user, String status) {
+	int id = idOf(user);
+	int s = statusIndex(status);
+	if (id < 0 || s < 0)
+	   return 0;
+	buildIndex();
+	return _offsets[s][id + 1] - _offsets[s][id];
+   }
+
+   /**
+	* @return the userIds connected to user with the given status
+	*/
+   public synchronized List<String> friends(String user, String status) {
+	int[] ids = neighbors(idOf(user), status);
+	List<String> names = new ArrayList<String>(ids.length);
+	for (int id : ids)
+	   names.add(_names.get(id));
+	return names;
+   }
+
+   /**
+	* Breadth first search over the accepted connections of a user.
+	*
+	* @param user the userId to start from
+	* @param maxHops the number of connection levels to follow
+	* @return every reachable userId (excluding user) mapped to its hop
+	*         distance, ordered by distance
+	*/
+   public synchronized Map<String, Integer> withinHops(String user, int maxHops) {
+	Map<String, Integer> reached = new LinkedHashMap<String, Integer>();
+	int start = idOf(user);
+	if (start < 0)
+	   return reached;
+	buildIndex();
+	int[] offsets = _offsets[0];
+	int[] targets = _targets[0];
+
+	int[] dist = new int[_names.size()];
+	Arrays.fill(dist, -1);
+	int[] queue = new int[_names.size()];
+	int head = 0, tail = 0;
+	dist[start] = 0;
+	queue[tail++] = start;
+	while (head < tail) {
+	   int u = queue[head++];
+	   if (dist[u] == maxHops)
+		  break;
+	   for (int e = offsets[u]; e < offsets[u + 1]; ++e) {
+		  int v = targets[e];
+		  if (dist[v] < 0) {
+			 dist[v] = dist[u] + 1;
+			 queue[tail++] = v;
+			 reached.put(_names.get(v), dist[v]);
+		  }
+	   }
+	}
+	return reached;
+   }
+
+   /**
+	* Finds the number of accepted connections on the shortest path between
+	* two users with a bidirectional breadth first search: each round
+	* expands one level of whichever side has the fewer edges to follow,
+	* and the search stops as soon as the two sides meet or their depths add
+	* up to maxDepth. With friend lists of size d a path of length k costs
+	* about 2 * d^(k/2) visits instead of d^k.
+	*
+	* @param a a userId
+	* @param b another userId
+	* @param maxDepth the longest path to look for
+	* @return the degrees of separation, 0 for the same user, or -1 if b is
+	*         further than maxDepth away from a (or either is unknown)
+	*/
+   public synchronized int degreesOfSeparation(String a, String b, int maxDepth) {
+	_lastVisited = 0;
+	int ia = idOf(a);
+	int ib = idOf(b);
+	if (ia < 0 || ib < 0)
+	   return -1;
+	if (ia == ib)
+	   return 0;
+	buildIndex();
+	int[] offsets = _offsets[0];
+	int[] targets = _targets[0];
+	int n = _names.size();
+	if (_seen[0].length < n || ++_search == Integer.MAX_VALUE) {
+	   for (int s = 0; s < 2; ++s) {
+		  _seen[s] = new int[n];
+		  _depth[s] = new int[n];
+		  _queue[s] = new int[n];
+	   }
+	   _search = 1;
+	}
+
+	// per side: queue[from, to) is the current level
+	int[] from = { 0, 0 };
+	int[] to = { 1, 1 };
+	int[] level = { 0, 0 };
+	int[] ends = { ia, ib };
+	for (int s = 0; s < 2; ++s) {
+	   _queue[s][0] = ends[s];
+	   _seen[s][ends[s]] = _search;
+	   _depth[s][ends[s]] = 0;
+	}
+	_lastVisited = 2;
+
+	while (level[0] + level[1] < maxDepth && from[0] < to[0] && from[1] < to[1]) {
+	   int side = cost(offsets, 0, from[0], to[0]) <= cost(offsets, 1, from[1], to[1]) ? 0 : 1;
+	   int[] queue = _queue[side];
+	   int[] seen = _seen[side];
+	   int[] depth = _depth[side];
+	   int[] otherSeen = _seen[1 - side];
+	   int[] otherDepth = _depth[1 - side];
+	   int best = -1;
+	   int tail = to[side];
+	   for (int q = from[side]; q < to[side]; ++q) {
+		  int u = queue[q];
+		  for (int e = offsets[u]; e < offsets[u + 1]; ++e) {
+			 int v = targets[e];
+			 if (seen[v] == _search)
+				continue;
+			 seen[v] = _search;
+			 depth[v] = level[side] + 1;
+			 queue[tail++] = v;
+			 _lastVisited++;
+			 if (otherSeen[v] == _search) {
+				int length = depth[v] + otherDepth[v];
+				if (best < 0 || length < best)
+				   best = length;
+			 }
+		  }
+	   }
+	   if (best >= 0)
+		  return best;
+	   from[side] = to[side];
+	   to[side] = tail;
+	   level[side]++;
+	}
+	return -1;
+   }
+
+   /**
+	* @return the users reached by the last degreesOfSeparation call
+	*/
+   synchronized int lastVisited() {
+	return _lastVisited;
+   }
+
+   // edges that expanding queue[from, to) of a side would follow
+   private int cost(int[] offsets, int side, int from, int to) {
+	long edges = 0;
+	for (int q = from; q < to; ++q) {
+	   int u = _queue[side][q];
+	   edges += offsets[u + 1] - offsets[u];
+	}
+	return (int) Math.min(Integer.MAX_VALUE, edges);
+   }
+
+   /**
+	* @return how many accepted friends two users share
+	*/
+   public synchronized int mutualFriendCount(String a, String b) {
+	int ia = idOf(a);
+	int ib = idOf(b);
+	if (ia < 0 || ib < 0)
+	   return 0;
+	buildIndex();
+	int[] offsets = _offsets[0];
+	return intersect(_targets[0], offsets[ia], offsets[ia + 1], offsets[ib], offsets[ib + 1], null);
+   }
+
+   /**
+	* @return the accepted friends two users share, sorted by dense id
+	*/
+   public synchronized List<String> mutualFriends(String a, String b) {
+	List<String> names = new ArrayList<String>();
+	int ia = idOf(a);
+	int ib = idOf(b);
+	if (ia < 0 || ib < 0)
+	   return names;
+	buildIndex();
+	int[] offsets = _offsets[0];
+	int[] common = new int[Math.min(offsets[ia + 1] - offsets[ia], offsets[ib + 1] - offsets[ib])];
+	int n = intersect(_targets[0], offsets[ia], offsets[ia + 1], offsets[ib], offsets[ib + 1], common);
+	for (int i = 0; i < n; ++i)
+	   names.add(_names.get(common[i]));
+	return names;
+   }
+
+   /**
+	* Intersects two sorted runs of values. Runs of similar length are
+	* merged in one pass; when one is much shorter each of its values is
+	* found in the longer one by galloping (doubling steps, then a binary
+	* search), which costs O(m log(n / m)) instead of O(m + n).
+	*
+	* @param out receives the common values, or null to only count them
+	* @return the number of common values
+	*/
+   static int intersect(int[] values, int aFrom, int aTo, int bFrom, int bTo, int[] out) {
+	if (aTo - aFrom > bTo - bFrom)
+	   return intersect(values, bFrom, bTo, aFrom, aTo, out);
+	int n = 0;
+	int a = aFrom, b = bFrom;
+	if ((long) (aTo - aFrom) * GALLOP_RATIO < bTo - bFrom) {
+	   for (; a < aTo && b < bTo; ++a) {
+		  int v = values[a];
+		  int step = 1;
+		  int lo = b;
+		  while (lo + step < bTo && values[lo + step] < v) {
+			 lo += step;
+			 step <<= 1;
+		  }
+		  int at = Arrays.binarySearch(values, lo, Math.min(bTo, lo + step + 1), v);
+		  if (at >= 0) {
+			 if (out != null)
+				out[n] = v;
+			 n++;
+			 b = at + 1;
+		  } else
+			 b = -at - 1;
+	   }
+	   return n;
+	}
+	while (a < aTo && b < bTo) {
+	   int va = values[a], vb = values[b];
+	   if (va < vb)
+		  a++;
+	   else if (va > vb)
+		  b++;
+	   else {
+		  if (out != null)
+			 out[n] = va;
+		  n++;
+		  a++;
+		  b++;
+	   }
+	}
+	return n;
+   }
+
+   /**
+	* Ranks the users 2 to maxHops accepted connections away from a user:
+	* most mutual friends first, then the nearest, then by userId.
+	*
+	* @param user the userId to start from
+	* @param maxHops the number of connection levels to follow
+	* @return the ranked users, without user and its friends
+	*/
+   public synchronized List<Suggestion> suggestions(String user, int maxHops) {
+	List<Suggestion> ranked = new ArrayList<Suggestion>();
+	int start = idOf(user);
+	if (start < 0)
+	   return ranked;
+	buildIndex();
+	int[] offsets = _offsets[0];
+	int[] targets = _targets[0];
+
+	int[] dist = new int[_names.size()];
+	Arrays.fill(dist, -1);
+	int[] mutual = new int[_names.size()];
+	int[] queue = new int[_names.size()];
+	int head = 0, tail = 0;
+	dist[start] = 0;
+	queue[tail++] = start;
+	while (head < tail) {
+	   int u = queue[head++];
+	   if (dist[u] == maxHops)
+		  break;
+	   for (int e = offsets[u]; e < offsets[u + 1]; ++e) {
+		  int v = targets[e];
+		  // every path start - friend - v is a mutual friend of v
+		  if (dist[u] == 1 && dist[v] != 1 && v != start)
+			 mutual[v]++;
+		  if (dist[v] < 0) {
+			 dist[v] = dist[u] + 1;
+			 queue[tail++] = v;
+		  }
+	   }
+	}
+	for (int i = 0; i < tail; ++i) {
+	   int v = queue[i];
+	   if (dist[v] >= 2)
+		  ranked.add(new Suggestion(_names.get(v), dist[v], mutual[v]));
+	}
+	Collections.sort(ranked, new Comparator<Suggestion>() {
+	   public int compare(Suggestion a, Suggestion b) {
+		  if (a.mutualFriends != b.mutualFriends)
+			 return b.mutualFriends - a.mutualFriends;
+		  if (a.hops != b.hops)
+			 return a.hops - b.hops;
+		  return a.userId.compareTo(b.userId);
+	   }
+	});
+	return ranked;
+   }
+
+   private int intern(String user) {
+	user = user.trim();
+	Integer id = _ids.get(user);
+	if (id == null) {
+	   id = _names.size();
+	   _ids.put(user, id);
+	   _names.add(user);
+	}
+	return id;
+   }
+
+   private static int statusIndex(String status) {
+	status = status.trim();
+	for (int i = 0; i < STATUSES.length; ++i)
+	   if (STATUSES[i].equals(status))
+		  return i;
+	return -1;
+   }
+
+   private static long key(int src, int dst) {
+	return ((long) src << 32) | (dst & 0xffffffffL);
+   }
+
+   // inserts a row, or overwrites the status of an existing (src, dst) row;
+   // returns the previous status index, -1 for a new row
+   private int put(String user, String connection, String status) {
+	int src = intern(user);
+	int dst = intern(connection);
+	byte s = (byte) statusIndex(status);
+	Integer e = _edgeIndex.get(key(src, dst));
+	if (e != null) {
+	   int previous = _status[e];
+	   _status[e] = s;
+	   return previous;
+	}
+	if (_edgeCount == _src.length) {
+	   _src = Arrays.copyOf(_src, _edgeCount * 2);
+	   _dst = Arrays.copyOf(_dst, _edgeCount * 2);
+	   _status = Arrays.copyOf(_status, _edgeCount * 2);
+	}
+	_src[_edgeCount] = src;
+	_dst[_edgeCount] = dst;
+	_status[_edgeCount] = s;
+	_edgeIndex.put(key(src, dst), _edgeCount);
+	_edgeCount++;
+	return -1;
+   }
+
+   // changes the status of an existing row, like an UPDATE matching no row does nothing;
+   // returns the previous status index, -1 if there is no such row
+   private int setStatus(String user, String connection, String status) {
+	Integer src = _ids.get(user.trim());
+	Integer dst = _ids.get(connection.trim());
+	if (src == null || dst == null)
+	   return -1;
+	Integer e = _edgeIndex.get(key(src, dst));
+	if (e == null)
+	   return -1;
+	int previous = _status[e];
+	_status[e] = (byte) statusIndex(status);
+	return previous;
+   }
+
+   // tells the listeners when a row moved into or out of Accept
+   private void changed(String user, String connection, int previous, String status) {
+	boolean before = previous == 0;
+	boolean after = statusIndex(status) == 0;
+	if (before == after)
+	   return;
+	for (Listener listener : _listeners)
+	   listener.acceptChanged(user.trim(), connection.trim());
+   }
+
+   // rebuilds the CSR arrays if a write happened since the last build
+   private void buildIndex() {
+	if (_offsets != null)
+	   return;
+	int n = _names.size();
+	_offsets = new int[STATUSES.length][];
+	_targets = new int[STATUSES.length][];
+	for (int s = 0; s < STATUSES.length; ++s) {
+	   int[] offsets = new int[n + 1];
+	   for (int e = 0; e < _edgeCount; ++e) {
+		  if (_status[e] != s)
+			 continue;
+		  offsets[_src[e] + 1]++;
+		  offsets[_dst[e] + 1]++;
+	   }
+	   for (int i = 0; i < n; ++i)
+		  offsets[i + 1] += offsets[i];
+
+	   int[] targets = new int[offsets[n]];
+	   int[] fill = Arrays.copyOf(offsets, n);
+	   for (int e = 0; e < _edgeCount; ++e) {
+		  if (_status[e] != s)
+			 continue;
+		  targets[fill[_src[e]]++] = _dst[e];
+		  targets[fill[_dst[e]]++] = _src[e];
+	   }
+
+	   // sort every row and squeeze out edges stored in both directions
+	   int out = 0;
+	   int[] compact = new int[n + 1];
+	   for (int i = 0; i < n; ++i) {
+		  Arrays.sort(targets, offsets[i], offsets[i + 1]);
+		  compact[i] = out;
+		  for (int e = offsets[i]; e < offsets[i + 1]; ++e)
+			 if (out == compact[i] || targets[e] != targets[out - 1])
+				targets[out++] = targets[e];
+	   }
+	   compact[n] = out;
+	   _offsets[s] = compact;
+	   _targets[s] = out == targets.length ? targets : Arrays.copyOf(targets, out);
+	}
+   }
+}//end ConnectionGraph
@@ -0,0 +1,459 @@
+/*
+ * Connection pool
+ * ===============
+ *
+ * Bounded pool of physical connections to the DBMS. Every connection
+ * keeps its own prepared statement cache. Idle connections are validated
+ * before they are handed out again and closed once they sit idle for too
+ * long.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * This class hands out connections to one database. A thread can pin a
+ * connection so that several statements (a transaction, currval after
+ * nextval) run on the same physical connection.
+ *
+ * The pool state is guarded by a ReentrantLock rather than the monitor,
+ * so sessions waiting for a connection on virtual threads do not pin
+ * their carrier threads. Nothing that talks to the DBMS (opening,
+ * validating or closing a connection) runs while the lock is held.
+ *
+ */
+public class ConnectionPool {
+
+   public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+   public static final long DEFAULT_MAX_IDLE_MILLIS = 5 * 60 * 1000;
+
+   // connections idle for less than this are handed out without validation
+   private static final long VALIDATE_AFTER_MILLIS = 10000;
+
+   /**
+	* A physical connection and its statement cache.
+	*/
+   public static class PooledConnection {
+	private final Connection _connection;
+	private final StatementCache _statements;
+	private long _lastUsed;
+	private int _pins = 0;
+
+	PooledConnection(Connection connection) {
+	   this._connection = connection;
+	   this._statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+	   this._lastUsed = System.currentTimeMillis();
+	}
+
+	public Connection connection() {
+	   return _connection;
+	}
+
+	public StatementCache statements() {
+	   return _statements;
+	}
+
+	public PreparedStatement prepare(String sql, Object... params) throws SQLException {
+	   return _statements.prepare(sql, params);
+	}
+
+	public Statement execute(String sql, Object... params) throws SQLException {
+	   return _statements.execute(sql, params);
+	}
+
+	void close() {
+	   _statements.close();
+	   try {
+		  _connection.close();
+	   } catch (SQLException e) {
+		  // ignored.
+	   }
+	}
+   }//end PooledConnection
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _maxSize;
+   private final long _timeoutMillis;
+   private final long _maxIdleMillis;
+
+   private final ReentrantLock _lock = new ReentrantLock();
+   // signalled when a connection is released or a slot frees up
+   private final Condition _available = _lock.newCondition();
+   private final LinkedList<PooledConnection> _idle = new LinkedList<PooledConnection>();
+   private final ThreadLocal<PooledConnection> _pinned = new ThreadLocal<PooledConnection>();
+   private int _open = 0;
+   private boolean _closed = false;
+
+   // statements of connections that were closed, kept for the totals
+   private long _closedHits = 0;
+   private long _closedMisses = 0;
+
+   // metrics
+   private long _borrows = 0;
+   private long _waits = 0;
+   private long _timeouts = 0;
+   private long _totalWaitNanos = 0;
+   private long _maxWaitNanos = 0;
+   private long _created = 0;
+   private long _evicted = 0;
+   private long _invalid = 0;
+
+   /**
+	* Creates a pool and opens its first connection, so a bad URL or login
+	* fails here rather than on the first query.
+	*
+	* @param url the JDBC connection URL
+	* @param user the user name used to login to the database
+	* @param passwd the user login password
+	* @param maxSize the maximum number of open connections
+	* @throws java.sql.SQLException when failed to make a connection
+	*/
+   public ConnectionPool(String url, String user, String passwd, int maxSize) throws SQLException {
+	this(url, user, passwd, maxSize, DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_IDLE_MILLIS);
+   }
+
+   public ConnectionPool(String url, String user, String passwd, int maxSize, long timeoutMillis, long maxIdleMillis) throws SQLException {
+	this._url = url;
+	this._user = user;
+	this._passwd = passwd;
+	this._maxSize = Math.max(1, maxSize);
+	this._timeoutMillis = timeoutMillis;
+	this._maxIdleMillis = maxIdleMillis;
+	this._open = 1;
+	release(open());
+   }
+
+   /**
+	* @return the largest number of connections the pool opens
+	*/
+   public int maxSize() {
+	return _maxSize;
+   }
+
+   /**
+	* Borrows a connection, waiting up to the pool timeout when all of them
+	* are in use. A connection pinned by the calling thread is returned as is.
+	*
+	* @return the connection, to be given back with release
+	* @throws java.sql.SQLException when no connection became available
+	*/
+   public PooledConnection acquire() throws SQLException {
+	PooledConnection pinned = _pinned.get();
+	if (pinned != null)
+	   return pinned;
+
+	long start = System.nanoTime();
+	long deadline = start + _timeoutMillis * 1000000L;
+	boolean waited = false;
+	while (true) {
+	   PooledConnection conn = null;
+	   List<PooledConnection> evicted = new ArrayList<PooledConnection>();
+	   _lock.lock();
+	   try {
+		  while (true) {
+			 if (_closed)
+				throw new SQLException("Connection pool is closed");
+			 evictIdle(evicted);
+			 conn = _idle.pollFirst();
+			 if (conn != null)
+				break;
+			 if (_open < _maxSize) {
+				_open++;
+				break;
+			 }
+			 long left = deadline - System.nanoTime();
+			 if (left <= 0) {
+				_timeouts++;
+				throw new SQLException("Timed out after " + _timeoutMillis + " ms waiting for a database connection");
+			 }
+			 waited = true;
+			 try {
+				_available.awaitNanos(left);
+			 } catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a database connection");
+			 }
+		  }
+	   } finally {
+		  _lock.unlock();
+		  closeAll(evicted);
+	   }
+
+	   if (conn == null) {
+		  // a slot was reserved above, open the connection outside the lock
+		  try {
+			 conn = open();
+		  } catch (SQLException e) {
+			 _lock.lock();
+			 try {
+				_open--;
+				_available.signalAll();
+			 } finally {
+				_lock.unlock();
+			 }
+			 throw e;
+		  }
+	   } else if (!validate(conn)) {
+		  _lock.lock();
+		  try {
+			 _invalid++;
+			 discard(conn);
+		  } finally {
+			 _lock.unlock();
+		  }
+		  conn.close();
+		  continue;
+	   }
+
+	   _lock.lock();
+	   try {
+		  recordBorrow(start, waited);
+	   } finally {
+		  _lock.unlock();
+	   }
+	   return conn;
+	}
+   }
+
+   /**
+	* Gives a borrowed connection back to the pool. Connections pinned by
+	* the calling thread stay with the thread until unpin.
+	*/
+   public void release(PooledConnection conn) {
+	if (conn == null || conn._pins > 0)
+	   return;
+	_lock.lock();
+	try {
+	   if (!_closed) {
+		  conn._lastUsed = System.currentTimeMillis();
+		  _idle.addFirst(conn);
+		  _available.signalAll();
+		  return;
+	   }
+	   discard(conn);
+	} finally {
+	   _lock.unlock();
+	}
+	conn.close();
+   }
+
+   /**
+	* Binds a connection to the calling thread until the matching unpin,
+	* so every statement in between runs on the same physical connection.
+	* Pins nest.
+	*
+	* @return the pinned connection
+	*/
+   public PooledConnection pin() throws SQLException {
+	PooledConnection conn = acquire();
+	conn._pins++;
+	_pinned.set(conn);
+	return conn;
+   }
+
+   /**
+	* Undoes one pin; the connection goes back to the pool with the last one.
+	*/
+   public void unpin() {
+	PooledConnection conn = _pinned.get();
+	if (conn == null)
+	   return;
+	if (--conn._pins == 0) {
+	   _pinned.remove();
+	   release(conn);
+	}
+   }
+
+   /**
+	* Closes every idle connection; connections in use are closed when
+	* they are released.
+	*/
+   public void close() {
+	List<PooledConnection> idle = new ArrayList<PooledConnection>();
+	_lock.lock();
+	try {
+	   _closed = true;
+	   while (!_idle.isEmpty()) {
+		  PooledConnection conn = _idle.removeFirst();
+		  discard(conn);
+		  idle.add(conn);
+	   }
+	   _available.signalAll();
+	} finally {
+	   _lock.unlock();
+	}
+	closeAll(idle);
+   }
+
+   public int openConnections() {
+	_lock.lock();
+	try {
+	   return _open;
+	} finally {
+	   _lock.unlock();
+	}
+   }
+
+   public int idleConnections() {
+	_lock.lock();
+	try {
+	   return _idle.size();
+	} finally {
+	   _lock.unlock();
+	}
+   }
+
+   public long statementHits() {
+	_lock.lock();
+	try {
+	   long hits = _closedHits;
+	   for (PooledConnection conn : _idle)
+		  hits += conn._statements.hits();
+	   return hits;
+	} finally {
+	   _lock.unlock();
+	}
+   }
+
+   public long statementMisses() {
+	_lock.lock();
+	try {
+	   long misses = _closedMisses;
+	   for (PooledConnection conn : _idle)
+		  misses += conn._statements.misses();
+	   return misses;
+	} finally {
+	   _lock.unlock();
+	}
+   }
+
+   /**
+	* @return average time in ms a borrow had to wait for a connection
+	*/
+   public double averageWaitMillis() {
+	_lock.lock();
+	try {
+	   return _borrows == 0 ? 0 : _totalWaitNanos / 1000000.0 / _borrows;
+	} finally {
+	   _lock.unlock();
+	}
+   }
+
+   /**
+	* @return longest time in ms a borrow had to wait for a connection
+	*/
+   public double maxWaitMillis() {
+	_lock.lock();
+	try {
+	   return _maxWaitNanos / 1000000.0;
+	} finally {
+	   _lock.unlock();
+	}
+   }
+
+   public String toString() {
+	_lock.lock();
+	try {
+	   return String.format("connection pool: %d open, %d idle, %d max; %d borrows, %d waited, %d timeouts, " +
+		   "avg wait %.2f ms, max wait %.2f ms; %d created, %d evicted idle, %d failed validation; " +
+		   "statements (idle connections) %d hits, %d misses",
+		   _open, _idle.size(), _maxSize, _borrows, _waits, _timeouts,
+		   averageWaitMillis(), maxWaitMillis(), _created, _evicted, _invalid,
+		   statementHits(), statementMisses());
+	} finally {
+	   _lock.unlock();
+	}
+   }
+
+   private PooledConnection open() throws SQLException {
+	Connection connection = DriverManager.getConnection(_url, _user, _passwd);
+	// the bundled driver escapes quotes in parameters with a backslash,
+	// which servers since 9.1 only honor with standard_conforming_strings
+	// off; older servers do not know the setting and always honor it
+	try {
+	   Statement stmt = connection.createStatement();
+	   try {
+		  stmt.execute("SET standard_conforming_strings = off");
+	   } finally {
+		  stmt.close();
+	   }
+	} catch (SQLException e) {
+	   // ignored.
+	}
+	_lock.lock();
+	try {
+	   _created++;
+	} finally {
+	   _lock.unlock();
+	}
+	return new PooledConnection(connection);
+   }
+
+   // checks a connection that sat idle for a while with a trivial query
+   private boolean validate(PooledConnection conn) {
+	if (System.currentTimeMillis() - conn._lastUsed < VALIDATE_AFTER_MILLIS)
+	   return true;
+	try {
+	   Statement stmt = conn._connection.createStatement();
+	   try {
+		  stmt.executeQuery("SELECT 1").close();
+	   } finally {
+		  stmt.close();
+	   }
+	   return true;
+	} catch (SQLException e) {
+	   return false;
+	}
+   }
+
+   // moves the connections idle for too long to evicted, to be closed
+   // once the lock is released
+   private void evictIdle(List<PooledConnection> evicted) {
+	long now = System.currentTimeMillis();
+	for (Iterator<PooledConnection> it = _idle.iterator(); it.hasNext(); ) {
+	   PooledConnection conn = it.next();
+	   if (now - conn._lastUsed > _maxIdleMillis) {
+		  it.remove();
+		  _evicted++;
+		  discard(conn);
+		  evicted.add(conn);
+	   }
+	}
+   }
+
+   // stops counting a connection as open; the caller closes it after
+   // releasing the lock
+   private void discard(PooledConnection conn) {
+	_closedHits += conn._statements.hits();
+	_closedMisses += conn._statements.misses();
+	_open--;
+	_available.signalAll();
+   }
+
+   private static void closeAll(List<PooledConnection> conns) {
+	for (PooledConnection conn : conns)
+	   conn.close();
+   }
+
+   private void recordBorrow(long start, boolean waited) {
+	long waitNanos = System.nanoTime() - start;
+	_borrows++;
+	if (waited)
+	   _waits++;
+	_totalWaitNanos += waitNanos;
+	_maxWaitNanos = Math.max(_maxWaitNanos, waitNanos);
+   }
+}//end ConnectionPool
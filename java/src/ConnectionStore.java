@@ -0,0 +1,256 @@
+/*
+ * Connection store
+ * ================
+ *
+ * The SQL side of connections. CONNECTION_USR keeps one row per pair, in
+ * the direction the request was sent, so every read by user has to look
+ * at both columns (a UNION of two scans, or an OR). After migrate() the
+ * connections live in CONNECTION_EDGE instead, which holds both
+ * directions of every pair keyed by (userId, connectionId): everything
+ * about one user is a single range scan of the primary key.
+ *
+ * Usage: ConnectionStore <dbname> <port> <user> --migrate
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class sends every read and write of connections to whichever
+ * table is in use, and keeps the ConnectionGraph in sync either way.
+ *
+ * In CONNECTION_EDGE a pair (a, b) is the rows (a, b) and (b, a) with the
+ * same status; requester holds the userId of the CONNECTION_USR row the
+ * pair came from, i.e. who sent the request. The row (b, a) with
+ * requester a therefore stands for the CONNECTION_USR row (a, b), which
+ * is how the graph and the pending requests are read back.
+ *
+ * The migration copies CONNECTION_USR and leaves it as it was; from then
+ * on only CONNECTION_EDGE is written, so load data/ with BulkLoader
+ * first. Stop the other processes using the database while migrating: a
+ * running process looks for the new table at most every RECHECK_MILLIS,
+ * and its writes until then still land in CONNECTION_USR.
+ *
+ */
+public class ConnectionStore {
+
+   public static final String EDGE_TABLE = "CONNECTION_EDGE";
+
+   private static final String LEGACY_INSERT =
+	"INSERT INTO CONNECTION_USR (userId, connectionId, status) VALUES (?, ?, ?)";
+   private static final String LEGACY_UPDATE =
+	"UPDATE CONNECTION_USR SET status=? WHERE (userId=? AND connectionId=?) OR (userId=? AND connectionId=?)";
+
+   private static final String EDGE_INSERT =
+	"INSERT INTO CONNECTION_EDGE (userId, connectionId, status, requester) VALUES (?, ?, ?, ?), (?, ?, ?, ?)";
+   private static final String EDGE_UPDATE =
+	"UPDATE CONNECTION_EDGE SET status=? WHERE (userId=? AND connectionId=?) OR (userId=? AND connectionId=?)";
+
+   private static final String CREATE_EDGE =
+	"CREATE TABLE CONNECTION_EDGE(" +
+	"userId char(10) NOT NULL, " +
+	"connectionId char(10) NOT NULL, " +
+	"status char(30) NOT NULL, " +
+	"requester char(10) NOT NULL, " +
+	"PRIMARY KEY(userId,connectionId))";
+
+   // one CONNECTION_USR row per pair, whichever direction it was sent in:
+   // Accept wins over Request, which wins over Reject, and a tie goes to
+   // the smaller requester; the row is written in both directions
+   private static final String MIGRATE =
+	"INSERT INTO CONNECTION_EDGE (userId, connectionId, status, requester) " +
+	"WITH P AS (" +
+	"SELECT DISTINCT ON (least(userId, connectionId), greatest(userId, connectionId)) userId, connectionId, status " +
+	"FROM CONNECTION_USR " +
+	"ORDER BY least(userId, connectionId), greatest(userId, connectionId), " +
+	"CASE status WHEN 'Accept' THEN 0 WHEN 'Request' THEN 1 ELSE 2 END, userId) " +
+	"SELECT userId, connectionId, status, userId FROM P " +
+	"UNION " +
+	"SELECT connectionId, userId, status, userId FROM P";
+
+   // how long the store trusts that the connections are still in CONNECTION_USR
+   private static final long RECHECK_MILLIS = 5000;
+
+   private final ProfNetwork _esql;
+   // the table never goes back to CONNECTION_USR, so only false is asked again
+   private volatile boolean _symmetric = false;
+   private volatile long _checkedAt = 0;
+
+   public ConnectionStore(ProfNetwork esql) {
+	this._esql = esql;
+   }
+
+   /**
+	* @return true when the connections live in CONNECTION_EDGE
+	* @throws java.sql.SQLException when failed to look the table up
+	*/
+   public boolean symmetric() throws SQLException {
+	if (!_symmetric && System.currentTimeMillis() - _checkedAt >= RECHECK_MILLIS)
+	   return check();
+	return _symmetric;
+   }
+
+   // asks the database; not under a lock, as two sessions racing here
+   // only ask twice
+   private boolean check() throws SQLException {
+	boolean symmetric = _esql.exists("SELECT 1 FROM pg_class WHERE relkind = 'r' AND relname = ?",
+		EDGE_TABLE.toLowerCase());
+	_checkedAt = System.currentTimeMillis();
+	if (symmetric)
+	   _symmetric = true;
+	return symmetric;
+   }
+
+   /**
+	* @return a query of one (userId, connectionId, status) row per
+	*         connection, in the direction of the request, for loading the
+	*         ConnectionGraph
+	*/
+   public String scanQuery() throws SQLException {
+	if (symmetric())
+	   return "SELECT connectionId, userId, status FROM CONNECTION_EDGE WHERE connectionId = requester";
+	return "SELECT userId, connectionId, status FROM CONNECTION_USR";
+   }
+
+   /**
+	* Only used by ProfNetwork.connectionsWithinHops, the baseline of
+	* TierExpansionBench.
+	*
+	* @return the recursive step of a walk over accepted connections: the
+	*         neighbor of R.uid as uid, from C
+	*/
+   String reachStep() throws SQLException {
+	if (symmetric())
+	   return "SELECT CAST(trim(C.connectionId) AS text), R.hops + 1 " +
+		  "FROM reach R, CONNECTION_EDGE C " +
+		  "WHERE C.userId = R.uid AND C.status = 'Accept' AND R.hops < ?";
+	return "SELECT CAST(trim(CASE WHEN C.userId = R.uid THEN C.connectionId ELSE C.userId END) AS text), R.hops + 1 " +
+	   "FROM reach R, CONNECTION_USR C " +
+	   "WHERE (C.userId = R.uid OR C.connectionId = R.uid) AND C.status = 'Accept' AND R.hops < ?";
+   }
+
+   /**
+	* Records a new friend request.
+	*
+	* @param requester the userId sending the request
+	* @param target the userId it is sent to
+	* @throws java.sql.SQLException when the pair already has a row
+	*/
+   public void request(String requester, String target) throws SQLException {
+	requester = requester.trim();
+	target = target.trim();
+	if (symmetric()) {
+	   _esql.executeUpdate(EDGE_INSERT, requester, target, ConnectionGraph.REQUEST, requester,
+		   target, requester, ConnectionGraph.REQUEST, requester);
+	   _esql.applyToGraph(LEGACY_INSERT, requester, target, ConnectionGraph.REQUEST);
+	} else
+	   _esql.executeUpdate(LEGACY_INSERT, requester, target, ConnectionGraph.REQUEST);
+   }
+
+   /**
+	* Sets the status of the connection between two users, whoever sent
+	* the request; does nothing if there is none.
+	*
+	* @return the number of rows updated
+	*/
+   public int setStatus(String user, String connection, String status) throws SQLException {
+	user = user.trim();
+	connection = connection.trim();
+	if (symmetric()) {
+	   int rows = _esql.executeUpdate(EDGE_UPDATE, status, user, connection, connection, user);
+	   _esql.applyToGraph(LEGACY_UPDATE, status, user, connection, connection, user);
+	   return rows;
+	}
+	return _esql.executeUpdate(LEGACY_UPDATE, status, user, connection, connection, user);
+   }
+
+   /**
+	* @return the userIds that sent user a request still waiting for an answer
+	*/
+   public List<String> pendingRequests(String user) throws SQLException {
+	final List<String> requesters = new ArrayList<String>();
+	_esql.executeQueryForEach(pendingQuery(), 0, new Row.Handler() {
+	   public boolean row(Row row) throws SQLException {
+		  requesters.add(row.getTrimmed(1));
+		  return true;
+	   }
+	}, user.trim());
+	return requesters;
+   }
+
+   // the requesters of the pending requests sent to the user bound to '?'
+   String pendingQuery() throws SQLException {
+	if (symmetric())
+	   return "SELECT connectionId FROM CONNECTION_EDGE WHERE userId=? AND status='Request' AND requester=connectionId";
+	return "SELECT userId FROM CONNECTION_USR WHERE connectionId=? AND status='Request'";
+   }
+
+   /**
+	* Creates CONNECTION_EDGE from CONNECTION_USR in one transaction and
+	* switches to it. Where CONNECTION_USR has rows in both directions of a
+	* pair, only one of them is kept, written to both rows: an Accept in
+	* either direction makes the pair accepted, then a pending Request
+	* wins over a Reject.
+	*
+	* @return the number of CONNECTION_USR rows migrated
+	* @throws java.sql.SQLException when the migration failed; nothing was changed then
+	*/
+   public int migrate() throws SQLException {
+	if (check())
+	   throw new SQLException(EDGE_TABLE + " already exists");
+	int rows = _esql.count("SELECT userId FROM CONNECTION_USR");
+	ConnectionPool pool = _esql.pool();
+	Connection connection = pool.pin().connection();
+	// false when the caller's transaction is open on the pinned connection
+	boolean own = connection.getAutoCommit();
+	try {
+	   if (own)
+		  connection.setAutoCommit(false);
+	   try {
+		  // PostgreSQL cannot prepare CREATE TABLE, and the copy runs once,
+		  // so neither goes through the statement cache
+		  _esql.executeCommand(CREATE_EDGE);
+		  _esql.executeCommand(MIGRATE);
+		  if (own)
+			 connection.commit();
+	   } catch (SQLException e) {
+		  if (own)
+			 connection.rollback();
+		  throw e;
+	   } finally {
+		  if (own)
+			 connection.setAutoCommit(true);
+	   }
+	} finally {
+	   pool.unpin();
+	}
+	_symmetric = true;
+	// the graph may hold both directions of a pair with different
+	// statuses; a write it cannot apply makes it load CONNECTION_EDGE
+	_esql.applyToGraph(MIGRATE);
+	return rows;
+   }
+
+   public static void main(String[] args) {
+	if (args.length != 4 || !args[3].equals("--migrate")) {
+	   System.err.println("Usage: java " + ConnectionStore.class.getName() + " <dbname> <port> <user> --migrate");
+	   return;
+	}
+	ProfNetwork esql = null;
+	try {
+	   Class.forName("org.postgresql.Driver").newInstance();
+	   esql = new ProfNetwork(args[0], args[1], args[2], "");
+	   int rows = esql.connections().migrate();
+	   System.out.println("Migrated " + rows + " connections to " + EDGE_TABLE);
+	} catch (Exception e) {
+	   System.err.println(e.getMessage());
+	} finally {
+	   if (esql != null)
+		  esql.cleanup();
+	}
+   }
+}//end ConnectionStore
@@ -0,0 +1,167 @@
+/*
+ * Mailbox
+ * =======
+ *
+ * Pages through the inbox and the sent messages of a user, newest first.
+ * Pages are found by keyset (the sendTime and msgId of the last message
+ * shown), so every page costs one bounded query however deep the user has
+ * paged, and nothing beyond the page is ever read. Messages without a
+ * sendTime sort as if sent at -infinity, after every dated one.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * This class reads one page of messages at a time.
+ *
+ */
+public class Mailbox {
+
+   public static final int DEFAULT_PAGE_SIZE = 20;
+
+   // rows per round trip; 0 reads a page at once, which LIMIT already bounds
+   public static final int DEFAULT_FETCH_SIZE = 0;
+
+   private static final String COLUMNS =
+	"SELECT msgId, senderId, receiverId, contents, CAST(sendTime AS text), status FROM MESSAGE ";
+
+   static final String INBOX = COLUMNS +
+	"WHERE receiverId = ? AND status != 'Failed to Deliver' AND status != 'Draft' " +
+	"AND deleteStatus != 2 AND deleteStatus != 3 ";
+
+   static final String SENT = COLUMNS +
+	"WHERE senderId = ? AND status != 'Failed to Deliver' AND status != 'Draft' " +
+	"AND deleteStatus != 1 AND deleteStatus != 3 ";
+
+   // the sort key of a message; a bare sendTime in ORDER BY would name the
+   // text column of COLUMNS, and a NULL would never match the keyset of AFTER
+   static final String SEND_TIME = "COALESCE(MESSAGE.sendTime, '-infinity')";
+
+   // stands in for the sendTime of a message that has none
+   private static final String NO_SEND_TIME = "-infinity";
+
+   // a row comparison, which the index can seek to, unlike the equivalent OR
+   private static final String AFTER =
+	"AND (" + SEND_TIME + ", msgId) < (CAST(? AS timestamp), ?) ";
+
+   static final String ORDER = "ORDER BY " + SEND_TIME + " DESC, msgId DESC LIMIT ?";
+
+   /**
+	* One MESSAGE row.
+	*/
+   public static class Message {
+	public final int msgId;
+	public final String senderId;
+	public final String receiverId;
+	public final String contents;
+	public final String sendTime;
+	public final String status;
+
+	Message(int msgId, String senderId, String receiverId, String contents, String sendTime, String status) {
+	   this.msgId = msgId;
+	   this.senderId = senderId;
+	   this.receiverId = receiverId;
+	   this.contents = contents;
+	   this.sendTime = sendTime;
+	   this.status = status;
+	}
+   }//end Message
+
+   /**
+	* The messages of one page and whether another page follows.
+	*/
+   public static class Page {
+	public final List<Message> messages;
+	public final boolean hasMore;
+
+	Page(List<Message> messages, boolean hasMore) {
+	   this.messages = Collections.unmodifiableList(messages);
+	   this.hasMore = hasMore;
+	}
+
+	/**
+	 * @return the message to pass as after to get the next page
+	 */
+	public Message last() {
+	   return messages.isEmpty() ? null : messages.get(messages.size() - 1);
+	}
+   }//end Page
+
+   /**
+	* Reads a page of the messages received by a user.
+	*
+	* @param esql the database connection
+	* @param userId the receiver
+	* @param after the last message of the previous page, or null for the first page
+	* @param pageSize the largest number of messages on the page
+	* @return the page
+	* @throws java.sql.SQLException when failed to execute the query
+	*/
+   public static Page inbox(ProfNetwork esql, String userId, Message after, int pageSize) throws SQLException {
+	return inbox(esql, userId, after, pageSize, DEFAULT_FETCH_SIZE);
+   }
+
+   /**
+	* Reads a page of the messages received by a user, fetchSize rows per
+	* round trip, e.g. to keep the rows of a large page off the heap.
+	*
+	* @param fetchSize rows per fetch, or 0 to read the page at once
+	* @see #inbox(ProfNetwork, String, Message, int)
+	*/
+   public static Page inbox(ProfNetwork esql, String userId, Message after, int pageSize, int fetchSize) throws SQLException {
+	return page(esql, INBOX, userId, after, pageSize, fetchSize);
+   }
+
+   /**
+	* Reads a page of the messages sent by a user.
+	*
+	* @see #inbox(ProfNetwork, String, Message, int)
+	*/
+   public static Page sent(ProfNetwork esql, String userId, Message after, int pageSize) throws SQLException {
+	return sent(esql, userId, after, pageSize, DEFAULT_FETCH_SIZE);
+   }
+
+   /**
+	* Reads a page of the messages sent by a user, fetchSize rows per round
+	* trip.
+	*
+	* @see #inbox(ProfNetwork, String, Message, int, int)
+	*/
+   public static Page sent(ProfNetwork esql, String userId, Message after, int pageSize, int fetchSize) throws SQLException {
+	return page(esql, SENT, userId, after, pageSize, fetchSize);
+   }
+
+   private static Page page(ProfNetwork esql, String box, String userId, Message after, int pageSize, int fetchSize)
+	  throws SQLException {
+	String query;
+	Object[] params;
+	// one row more than the page tells whether there is a next page
+	if (after == null) {
+	   query = box + ORDER;
+	   params = new Object[] { userId, pageSize + 1 };
+	} else {
+	   query = box + AFTER + ORDER;
+	   String sendTime = after.sendTime == null ? NO_SEND_TIME : after.sendTime;
+	   params = new Object[] { userId, sendTime, after.msgId, pageSize + 1 };
+	}
+
+	final int limit = pageSize;
+	final List<Message> messages = new ArrayList<Message>();
+	int rows = esql.executeQueryForEach(query, fetchSize, new Row.Handler() {
+	   public boolean row(Row row) throws SQLException {
+		  if (messages.size() == limit)
+			 return false;
+		  messages.add(new Message(row.getInt(1), row.getTrimmed(2), row.getTrimmed(3),
+			  row.getTrimmed(4), row.getString(5), row.getTrimmed(6)));
+		  return true;
+	   }
+	}, params);
+	boolean hasMore = rows > pageSize;
+	return new Page(messages, hasMore);
+   }
+}//end Mailbox
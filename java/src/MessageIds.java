@@ -0,0 +1,120 @@
+/*
+ * Message ids
+ * ===========
+ *
+ * Allocates MESSAGE.msgId values from a sequence instead of reading
+ * max(msgId), which scanned the table on every send and handed the same
+ * id to concurrent senders.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.List;
+
+
+/**
+ * This class owns the msg_id_seq sequence. The sequence is created and
+ * moved past the largest existing msgId the first time an id is needed.
+ * With a block size above one, ids are reserved a block at a time with a
+ * single round trip and handed out from memory, which suits bulk senders.
+ *
+ */
+public class MessageIds {
+
+   public static final String SEQUENCE = "msg_id_seq";
+
+   private static final String INSERT =
+	"INSERT INTO MESSAGE (msgId, senderId, receiverId, contents, sendTime, deleteStatus, status) " +
+	"VALUES (%s, ?, ?, ?, current_timestamp, 0, 'Sent')";
+
+   private final ProfNetwork _esql;
+   private final LinkedList<Integer> _reserved = new LinkedList<Integer>();
+   private int _blockSize = 1;
+   private boolean _provisioned = false;
+
+   public MessageIds(ProfNetwork esql) {
+	this._esql = esql;
+   }
+
+   /**
+	* Sets how many ids are reserved per round trip; 1 turns the block
+	* allocator off. Reserved ids that are never used leave gaps, which is
+	* harmless for a key.
+	*/
+   public synchronized void setBlockSize(int blockSize) {
+	this._blockSize = Math.max(1, blockSize);
+   }
+
+   public synchronized int blockSize() {
+	return _blockSize;
+   }
+
+   /**
+	* Creates the sequence if it does not exist yet and makes sure it is
+	* past every msgId already in MESSAGE.
+	*
+	* @throws java.sql.SQLException when failed to create the sequence
+	*/
+   public synchronized void provision() throws SQLException {
+	if (_provisioned)
+	   return;
+	if (!_esql.exists("SELECT 1 FROM pg_class WHERE relkind = 'S' AND relname = ?", SEQUENCE)) {
+	   try {
+		  _esql.executeCommand("CREATE SEQUENCE " + SEQUENCE);
+	   } catch (SQLException e) {
+		  // another process created it first
+		  if (!_esql.exists("SELECT 1 FROM pg_class WHERE relkind = 'S' AND relname = ?", SEQUENCE))
+			 throw e;
+	   }
+	}
+	// only moves the sequence when MESSAGE holds ids it did not hand out,
+	// e.g. after loading data, so running it again is safe
+	_esql.executeQueryAndReturnResult(
+		"SELECT setval('" + SEQUENCE + "', M.maxId + 1, false) " +
+		"FROM (SELECT max(msgId) AS maxId FROM MESSAGE) M, " + SEQUENCE + " S " +
+		"WHERE M.maxId >= S.last_value");
+	_provisioned = true;
+   }
+
+   /**
+	* @return a msgId no other sender will get
+	* @throws java.sql.SQLException when failed to reach the sequence
+	*/
+   public synchronized int next() throws SQLException {
+	provision();
+	if (_reserved.isEmpty()) {
+	   List<List<String>> rows = _esql.executeQueryAndReturnResult(
+		   "SELECT nextval('" + SEQUENCE + "') FROM generate_series(1, ?)", _blockSize);
+	   for (List<String> row : rows)
+		  _reserved.add(Integer.parseInt(row.get(0).trim()));
+	}
+	return _reserved.removeFirst();
+   }
+
+   /**
+	* Inserts a message with a fresh msgId. Without the block allocator the
+	* id is drawn by the INSERT itself and read back with currval on the
+	* same connection.
+	*
+	* @return the msgId of the new message
+	* @throws java.sql.SQLException when failed to insert the message
+	*/
+   public int insert(String sender, String receiver, String contents) throws SQLException {
+	if (blockSize() > 1) {
+	   int msgId = next();
+	   _esql.executeUpdate(String.format(INSERT, "?"), msgId, sender, receiver, contents);
+	   return msgId;
+	}
+
+	provision();
+	ConnectionPool pool = _esql.pool();
+	pool.pin();
+	try {
+	   _esql.executeUpdate(String.format(INSERT, "nextval('" + SEQUENCE + "')"), sender, receiver, contents);
+	   return _esql.getCurrSeqVal(SEQUENCE);
+	} finally {
+	   pool.unpin();
+	}
+   }
+}//end MessageIds
@@ -0,0 +1,401 @@
+/*
+ * Metrics
+ * =======
+ *
+ * Counts what every menu action costs in the database. Each statement
+ * ProfNetwork sends is recorded under its SQL template (the SQL with '?'
+ * placeholders) and under the menu action running on the calling thread,
+ * with its round trips, rows and latency. The result can be read as a
+ * text report, as a Prometheus text dump, or over JMX (MetricsMXBean).
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.management.ObjectName;
+
+
+/**
+ * This class keeps one Stats per SQL template and one per operation. An
+ * operation is a menu action between begin and Operation.end; operations
+ * begun inside another one are counted in both, so the outer action shows
+ * everything it cost. Statements sent outside any operation, e.g. while
+ * starting up, are counted under NO_OPERATION.
+ *
+ * The latency of an operation is the time its statements spent in the
+ * database, not the time the user took to answer its prompts.
+ *
+ */
+public class Metrics implements MetricsMXBean {
+
+   public static final String OBJECT_NAME = "ProfNetwork:type=Metrics";
+   public static final String NO_OPERATION = "(none)";
+
+   // templates beyond this many are counted together under OTHER, so SQL
+   // built with values in it cannot grow the maps without bound
+   static final int MAX_TEMPLATES = 500;
+   static final String OTHER = "(other)";
+
+   // templates listed under each operation in the report
+   static final int TOP_TEMPLATES = 5;
+
+   /**
+	* A latency histogram in the manner of HdrHistogram: every power of two
+	* is split into SUB_BUCKETS linear buckets, so a value is kept to within
+	* 1 / SUB_BUCKETS of itself whatever its magnitude, in a fixed array.
+	*/
+   public static class Histogram {
+	static final int SUB_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final long[] _counts = new long[(64 - SUB_BITS) * SUB_BUCKETS];
+	private long _count = 0;
+	private long _sum = 0;
+	private long _max = 0;
+
+	public void record(long value) {
+	   value = Math.max(0, value);
+	   _counts[index(value)]++;
+	   _count++;
+	   _sum += value;
+	   _max = Math.max(_max, value);
+	}
+
+	static int index(long value) {
+	   if (value < SUB_BUCKETS)
+		  return (int) value;
+	   int exponent = 63 - Long.numberOfLeadingZeros(value);
+	   int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+	   return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	// the largest value that falls into bucket i
+	static long highest(int i) {
+	   if (i < SUB_BUCKETS)
+		  return i;
+	   int exponent = i / SUB_BUCKETS + SUB_BITS - 1;
+	   long lowest = (long) (SUB_BUCKETS + i % SUB_BUCKETS) << (exponent - SUB_BITS);
+	   return lowest + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+	public long count() {
+	   return _count;
+	}
+
+	public long sum() {
+	   return _sum;
+	}
+
+	public long max() {
+	   return _max;
+	}
+
+	/**
+	 * @param quantile between 0 and 1, e.g. 0.99
+	 * @return a value at least as large as that share of the recorded values
+	 */
+	public long percentile(double quantile) {
+	   long rank = (long) Math.ceil(quantile * _count);
+	   long seen = 0;
+	   for (int i = 0; i < _counts.length; ++i) {
+		  seen += _counts[i];
+		  if (seen >= rank && seen > 0)
+			 return Math.min(highest(i), _max);
+	   }
+	   return _max;
+	}
+   }//end Histogram
+
+   /**
+	* What the statements of one template, or the runs of one operation,
+	* cost so far.
+	*/
+   public static class Stats {
+	// executions of a template, invocations of an operation
+	public long calls = 0;
+	public long roundTrips = 0;
+	public long rows = 0;
+	public long errors = 0;
+	// nanoseconds per execution, or per invocation
+	public final Histogram latency = new Histogram();
+   }//end Stats
+
+   /**
+	* A menu action in progress on one thread.
+	*/
+   public class Operation {
+	public final String name;
+	private final Operation _parent;
+	private final Map<String, Long> _templates = new HashMap<String, Long>();
+	private long _roundTrips = 0;
+	private long _rows = 0;
+	private long _errors = 0;
+	private long _nanos = 0;
+	private boolean _ended = false;
+
+	Operation(String name, Operation parent) {
+	   this.name = name;
+	   this._parent = parent;
+	}
+
+	void add(String template, int roundTrips, long rows, long nanos, boolean failed) {
+	   Long count = _templates.get(template);
+	   _templates.put(template, (count == null ? 0 : count) + roundTrips);
+	   _roundTrips += roundTrips;
+	   _rows += rows;
+	   _nanos += nanos;
+	   if (failed)
+		  _errors++;
+	   if (_parent != null)
+		  _parent.add(template, roundTrips, rows, nanos, failed);
+	}
+
+	/**
+	 * Records the operation and makes its parent the current one again.
+	 */
+	public void end() {
+	   if (_ended)
+		  return;
+	   _ended = true;
+	   if (_current.get() == this) {
+		  if (_parent == null)
+			 _current.remove();
+		  else
+			 _current.set(_parent);
+	   }
+	   synchronized (Metrics.this) {
+		  Stats stats = stats(_operations, name);
+		  stats.calls++;
+		  stats.roundTrips += _roundTrips;
+		  stats.rows += _rows;
+		  stats.errors += _errors;
+		  stats.latency.record(_nanos);
+		  Map<String, Long> byTemplate = _operationTemplates.get(name);
+		  if (byTemplate == null) {
+			 byTemplate = new HashMap<String, Long>();
+			 _operationTemplates.put(name, byTemplate);
+		  }
+		  for (Map.Entry<String, Long> e : _templates.entrySet()) {
+			 Long count = byTemplate.get(e.getKey());
+			 byTemplate.put(e.getKey(), (count == null ? 0 : count) + e.getValue());
+		  }
+	   }
+	}
+   }//end Operation
+
+   private final ThreadLocal<Operation> _current = new ThreadLocal<Operation>();
+   private final Map<String, Stats> _templates = new HashMap<String, Stats>();
+   private final Map<String, Stats> _operations = new TreeMap<String, Stats>();
+   private final Map<String, Map<String, Long>> _operationTemplates = new HashMap<String, Map<String, Long>>();
+   private long _queries = 0;
+   private long _errors = 0;
+
+   /**
+	* Starts an operation on the calling thread; end it in a finally block.
+	*
+	* @param name the menu action, e.g. SendRequest
+	* @return the operation
+	*/
+   public Operation begin(String name) {
+	Operation operation = new Operation(name, _current.get());
+	_current.set(operation);
+	return operation;
+   }
+
+   /**
+	* @return the name of the operation running on the calling thread, or NO_OPERATION
+	*/
+   public String currentOperation() {
+	Operation operation = _current.get();
+	return operation == null ? NO_OPERATION : operation.name;
+   }
+
+   /**
+	* Records statements sent to the database.
+	*
+	* @param sql the SQL template
+	* @param roundTrips the number of round trips, e.g. one per write of a batch
+	* @param rows the rows fetched or changed
+	* @param nanos the time spent
+	* @param failed true if the statement threw
+	*/
+   public void record(String sql, int roundTrips, long rows, long nanos, boolean failed) {
+	String template;
+	synchronized (this) {
+	   template = _templates.containsKey(sql) || _templates.size() < MAX_TEMPLATES ? sql : OTHER;
+	   Stats stats = stats(_templates, template);
+	   stats.calls++;
+	   stats.roundTrips += roundTrips;
+	   stats.rows += rows;
+	   stats.latency.record(nanos);
+	   _queries += roundTrips;
+	   if (failed) {
+		  stats.errors++;
+		  _errors++;
+	   }
+	   if (_current.get() == null) {
+		  Stats none = stats(_operations, NO_OPERATION);
+		  none.roundTrips += roundTrips;
+		  none.rows += rows;
+		  if (failed)
+			 none.errors++;
+		  return;
+	   }
+	}
+	_current.get().add(template, roundTrips, rows, nanos, failed);
+   }
+
+   private static Stats stats(Map<String, Stats> map, String key) {
+	Stats stats = map.get(key);
+	if (stats == null) {
+	   stats = new Stats();
+	   map.put(key, stats);
+	}
+	return stats;
+   }
+
+   public synchronized long getQueries() {
+	return _queries;
+   }
+
+   public synchronized long getErrors() {
+	return _errors;
+   }
+
+   public String getReport() {
+	return report();
+   }
+
+   public String getPrometheus() {
+	return prometheus();
+   }
+
+   public synchronized void reset() {
+	_templates.clear();
+	_operations.clear();
+	_operationTemplates.clear();
+	_queries = 0;
+	_errors = 0;
+   }
+
+   /**
+	* Registers this object with the platform MBean server under
+	* OBJECT_NAME, unless another one is registered there already.
+	*
+	* @return true if it was registered
+	*/
+   public boolean register() {
+	try {
+	   ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+	   return true;
+	} catch (Exception e) {
+	   return false;
+	}
+   }
+
+   /**
+	* @return one line per operation, with its most frequent templates below
+	*         it, then one line per template, most round trips first
+	*/
+   public synchronized String report() {
+	StringBuilder report = new StringBuilder();
+	report.append(String.format("%-32s %8s %12s %10s %7s %10s %10s %10s%n",
+		"operation", "calls", "queries/call", "rows/call", "errors", "db ms p50", "p99", "max"));
+	for (Map.Entry<String, Stats> e : _operations.entrySet()) {
+	   Stats s = e.getValue();
+	   long calls = Math.max(1, s.calls);
+	   report.append(String.format("%-32s %8d %12.1f %10.1f %7d %10s %10s %10s%n", e.getKey(), s.calls,
+		   s.roundTrips / (double) calls, s.rows / (double) calls, s.errors,
+		   millis(s.latency, 0.5), millis(s.latency, 0.99), millis(s.latency, 1)));
+	   Map<String, Long> byTemplate = _operationTemplates.get(e.getKey());
+	   if (byTemplate == null)
+		  continue;
+	   List<Map.Entry<String, Long>> top = new ArrayList<Map.Entry<String, Long>>(byTemplate.entrySet());
+	   Collections.sort(top, new Comparator<Map.Entry<String, Long>>() {
+		  public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+			 return b.getValue().compareTo(a.getValue());
+		  }
+	   });
+	   for (Map.Entry<String, Long> t : top.subList(0, Math.min(TOP_TEMPLATES, top.size())))
+		  report.append(String.format("   %12.1f/call  %s%n", t.getValue() / (double) calls, shorten(t.getKey())));
+	}
+
+	report.append(String.format("%n%8s %10s %10s %7s %10s %10s %10s  %s%n",
+		"calls", "trips", "rows", "errors", "ms p50", "p99", "max", "template"));
+	for (Map.Entry<String, Stats> e : byRoundTrips()) {
+	   Stats s = e.getValue();
+	   report.append(String.format("%8d %10d %10d %7d %10s %10s %10s  %s%n", s.calls, s.roundTrips, s.rows,
+		   s.errors, millis(s.latency, 0.5), millis(s.latency, 0.99), millis(s.latency, 1), shorten(e.getKey())));
+	}
+	report.append(String.format("%n%d queries, %d errors%n", _queries, _errors));
+	return report.toString();
+   }
+
+   /**
+	* @return the counters and latencies in the Prometheus text format; the
+	*         latencies are summaries with the 0.5, 0.9 and 0.99 quantiles
+	*/
+   public synchronized String prometheus() {
+	StringBuilder dump = new StringBuilder();
+	dump(dump, "profnetwork_operation", "operation", _operations, "operation invocations");
+	dump(dump, "profnetwork_query", "template", _templates, "statement executions");
+	return dump.toString();
+   }
+
+   private static void dump(StringBuilder dump, String prefix, String label, Map<String, Stats> map, String what) {
+	String[] counters = { "calls", "round_trips", "rows", "errors" };
+	for (int c = 0; c < counters.length; ++c) {
+	   String metric = prefix + "_" + counters[c] + "_total";
+	   dump.append("# HELP ").append(metric).append(' ').append(c == 0 ? what : counters[c].replace('_', ' ')).append('\n');
+	   dump.append("# TYPE ").append(metric).append(" counter\n");
+	   for (Map.Entry<String, Stats> e : map.entrySet()) {
+		  Stats s = e.getValue();
+		  long value = c == 0 ? s.calls : c == 1 ? s.roundTrips : c == 2 ? s.rows : s.errors;
+		  dump.append(metric).append(labels(label, e.getKey(), null)).append(' ').append(value).append('\n');
+	   }
+	}
+	String metric = prefix + "_seconds";
+	dump.append("# HELP ").append(metric).append(" time spent in the database\n");
+	dump.append("# TYPE ").append(metric).append(" summary\n");
+	for (Map.Entry<String, Stats> e : map.entrySet()) {
+	   Histogram h = e.getValue().latency;
+	   for (String quantile : new String[] { "0.5", "0.9", "0.99" })
+		  dump.append(metric).append(labels(label, e.getKey(), quantile)).append(' ')
+			 .append(h.percentile(Double.parseDouble(quantile)) / 1e9).append('\n');
+	   dump.append(metric).append("_sum").append(labels(label, e.getKey(), null)).append(' ').append(h.sum() / 1e9).append('\n');
+	   dump.append(metric).append("_count").append(labels(label, e.getKey(), null)).append(' ').append(h.count()).append('\n');
+	}
+   }
+
+   private static String labels(String label, String value, String quantile) {
+	String escaped = value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	return "{" + label + "=\"" + escaped + "\"" + (quantile == null ? "" : ",quantile=\"" + quantile + "\"") + "}";
+   }
+
+   private List<Map.Entry<String, Stats>> byRoundTrips() {
+	List<Map.Entry<String, Stats>> entries = new ArrayList<Map.Entry<String, Stats>>(_templates.entrySet());
+	Collections.sort(entries, new Comparator<Map.Entry<String, Stats>>() {
+	   public int compare(Map.Entry<String, Stats> a, Map.Entry<String, Stats> b) {
+		  long x = a.getValue().roundTrips;
+		  long y = b.getValue().roundTrips;
+		  return x > y ? -1 : x < y ? 1 : 0;
+	   }
+	});
+	return entries;
+   }
+
+   private static String millis(Histogram h, double quantile) {
+	return h.count() == 0 ? "-" : String.format("%.2f", h.percentile(quantile) / 1e6);
+   }
+
+   private static String shorten(String sql) {
+	sql = sql.replaceAll("\\s+", " ").trim();
+	return sql.length() <= 100 ? sql : sql.substring(0, 97) + "...";
+   }
+}//end Metrics
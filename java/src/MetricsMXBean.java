@@ -0,0 +1,36 @@
+/*
+ * Metrics MXBean
+ * ==============
+ *
+ * The JMX view of Metrics, registered as ProfNetwork:type=Metrics so a
+ * running program can be read with jconsole or any JMX client.
+ *
+ */
+
+public interface MetricsMXBean {
+
+   /**
+	* @return the number of statements sent to the database so far
+	*/
+   long getQueries();
+
+   /**
+	* @return the number of statements that failed
+	*/
+   long getErrors();
+
+   /**
+	* @return the report of Metrics.report
+	*/
+   String getReport();
+
+   /**
+	* @return the dump of Metrics.prometheus
+	*/
+   String getPrometheus();
+
+   /**
+	* Forgets everything recorded so far.
+	*/
+   void reset();
+}//end MetricsMXBean
@@ -19,13 +19,16 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
 import java.sql.Date;
@@ -40,13 +43,64 @@ import java.util.*;
  */
 public class ProfNetwork {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // most keys bound into one IN list by executeUpdateIn
+   static final int IN_LIST_CHUNK = 256;
+
+   // executeQueryForEach names each cursor CURSOR plus a number of its own,
+   // so a handler can stream another query on the same pinned connection
+   private static final String CURSOR = "for_each_cursor_";
+   private static final java.util.concurrent.atomic.AtomicLong _cursors =
+	  new java.util.concurrent.atomic.AtomicLong ();
+
+   // physical database connections, each with its cache of prepared statements
+   private ConnectionPool _pool = null;
+
+   // in-memory copy of CONNECTION_USR, loaded on first use and replaced
+   // as a whole when it goes stale
+   private volatile ConnectionGraph _graph = null;
+
+   // held by the one session loading a new graph; a ReentrantLock rather
+   // than a monitor so a virtual thread waiting on it does not pin its carrier
+   private final java.util.concurrent.locks.ReentrantLock _graphLoad =
+	  new java.util.concurrent.locks.ReentrantLock ();
+
+   // the writes applied while a new graph loads, replayed onto it so none
+   // is lost between the snapshot of the scan and the swap
+   private volatile java.util.concurrent.ConcurrentLinkedQueue<Object[]> _graphWrites = null;
+
+   // reads and writes of connections, in CONNECTION_USR or CONNECTION_EDGE
+   private ConnectionStore _connections = new ConnectionStore(this);
+
+   // ranked friend-of-friend suggestions, kept up to date from the graph
+   private SuggestionIndex _suggestions = new SuggestionIndex(this);
+
+   // userId existence checks
+   private UserDirectory _users = new UserDirectory(this);
+
+   // lookUpUser by name, company or school, built on first search
+   private UserSearch _search = new UserSearch(this);
+
+   // completions for the userId prompts, built on first use
+   private Typeahead _typeahead = new Typeahead();
+
+   // msgId allocation for NewMessage
+   private MessageIds _messageIds = new MessageIds(this);
+
+   // statements sent, by SQL template and by menu action
+   private Metrics _metrics = new Metrics();
+
+   // profiles read by displayProfile, invalidated by the profile writers
+   private ProfileCache _profiles = new ProfileCache(new ProfileCache.Loader() {
+	  public Profile load(String userId) throws SQLException {
+		 return Profile.load(ProfNetwork.this, userId);
+	  }
+   }, ProfileCache.DEFAULT_CAPACITY, ProfileCache.DEFAULT_TTL_MILLIS);
 
    // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-								new InputStreamReader(System.in));
+   // Both variables forward to the Session of the calling thread, which is
+   // the keyboard and screen unless the menu runs for a remote client.
+   static BufferedReader in = Session.IN;
+   static PrintStream out = Session.OUT;
 
    /**
 	* Creates a new instance of ProfNetwork
@@ -58,82 +112,239 @@ public class ProfNetwork {
 	* @throws java.sql.SQLException when failed to make a connection.
 	*/
    public ProfNetwork (String dbname, String dbport, String user, String passwd) throws SQLException {
+	  this(dbname, dbport, user, passwd, 1);
+   }//end ProfNetwork
 
-	  System.out.print("Connecting to database...");
+   /**
+	* Creates a new instance of ProfNetwork that shares up to poolSize
+	* physical connections between the threads using it.
+	*
+	* @param poolSize the maximum number of open connections
+	* @throws java.sql.SQLException when failed to make a connection.
+	*/
+   public ProfNetwork (String dbname, String dbport, String user, String passwd, int poolSize) throws SQLException {
+
+	  out.print("Connecting to database...");
 	  try{
 		 // constructs the connection URL
 		 String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-		 System.out.println ("Connection URL: " + url + "\n");
+		 out.println ("Connection URL: " + url + "\n");
 
-		 // obtain a physical connection
-		 this._connection = DriverManager.getConnection(url, user, passwd);
-		 System.out.println("Done");
+		 // obtain the physical connections
+		 this._pool = new ConnectionPool(url, user, passwd, poolSize);
+		 out.println("Done");
 	  }catch (Exception e){
 		 System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
-		 System.out.println("Make sure you started postgres on this machine");
+		 out.println("Make sure you started postgres on this machine");
 		 System.exit(-1);
 	  }//end catch
    }//end ProfNetwork
 
    /**
 	* Method to execute an update SQL statement.  Update SQL instructions
-	* includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+	* includes INSERT, UPDATE and DELETE; CREATE, DROP and the other
+	* statements PostgreSQL cannot prepare go through executeCommand.
 	*
-	* @param sql the input SQL string
+	* @param sql the input SQL string, with '?' for every parameter
+	* @param params the values of the '?' placeholders, in order
+	* @return the number of rows inserted, updated or deleted
 	* @throws java.sql.SQLException when update failed
 	*/
-   public void executeUpdate (String sql) throws SQLException {
-	  // creates a statement object
-	  Statement stmt = this._connection.createStatement ();
-
-	  // issues the update instruction
-	  stmt.executeUpdate (sql);
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+	  int rowCount = -1;
+	  long start = System.nanoTime ();
+	  // borrows a connection and gets its cached statement object
+	  ConnectionPool.PooledConnection conn = this._pool.acquire ();
+	  try {
+		 PreparedStatement stmt = conn.prepare (sql, params);
+
+		 // issues the update instruction
+		 rowCount = stmt.executeUpdate ();
+	  } finally {
+		 this._pool.release (conn);
+		 record (sql, start, rowCount);
+	  }
 
-	  // close the instruction
-	  stmt.close ();
+	  applyToGraph(sql, params);
+	  return rowCount;
    }//end executeUpdate
 
+   /**
+	* Method to execute a SQL statement PostgreSQL cannot prepare: CREATE,
+	* DROP, ANALYZE and the like. It is sent on a statement of its own,
+	* outside the statement cache.
+	*
+	* @param sql the input SQL string, with '?' for every parameter
+	* @param params the values of the '?' placeholders, in order
+	* @return the number of rows changed, or 0 for DDL
+	* @throws java.sql.SQLException when the statement failed
+	*/
+   public int executeCommand (String sql, Object... params) throws SQLException {
+	  int rowCount = -1;
+	  long start = System.nanoTime ();
+	  ConnectionPool.PooledConnection conn = this._pool.acquire ();
+	  try {
+		 Statement stmt = conn.execute (sql, params);
+		 try {
+			rowCount = Math.max (stmt.getUpdateCount (), 0);
+		 } finally {
+			stmt.close ();
+		 }
+	  } finally {
+		 this._pool.release (conn);
+		 record (sql, start, rowCount);
+	  }
+	  return rowCount;
+   }//end executeCommand
+
+   /**
+	* Method to run a SQL statement PostgreSQL cannot prepare that returns
+	* rows, e.g. EXPLAIN, outside the statement cache.
+	*
+	* @param sql the input SQL string, with '?' for every parameter
+	* @param params the values of the '?' placeholders, in order
+	* @return the result as a list of records
+	* @throws java.sql.SQLException when the statement failed
+	*/
+   public List<List<String>> executeCommandAndReturnResult (String sql, Object... params) throws SQLException {
+	  int rowCount = -1;
+	  long start = System.nanoTime ();
+	  ConnectionPool.PooledConnection conn = this._pool.acquire ();
+	  try {
+		 Statement stmt = conn.execute (sql, params);
+		 try {
+			ResultSet rs = stmt.getResultSet ();
+			int numCol = rs.getMetaData ().getColumnCount ();
+			List<List<String>> result = new ArrayList<List<String>>();
+			while (rs.next ()) {
+			   List<String> record = new ArrayList<String>();
+			   for (int i = 1; i <= numCol; ++i)
+				  record.add (rs.getString (i));
+			   result.add (record);
+			}//end while
+			rs.close ();
+			rowCount = result.size ();
+			return result;
+		 } finally {
+			stmt.close ();
+		 }
+	  } finally {
+		 this._pool.release (conn);
+		 record (sql, start, rowCount);
+	  }
+   }//end executeCommandAndReturnResult
+
+   // counts a statement in the metrics; rows is -1 when it failed
+   private void record (String sql, long start, long rows) {
+	  this._metrics.record (sql, 1, Math.max (rows, 0), System.nanoTime () - start, rows < 0);
+   }
+
+   // keeps the connection graph in sync with CONNECTION_USR after a write
+   void applyToGraph (String sql, Object... params) {
+	  java.util.concurrent.ConcurrentLinkedQueue<Object[]> writes = this._graphWrites;
+	  if (writes != null)
+		 writes.add (new Object[] { sql, params });
+	  ConnectionGraph graph = this._graph;
+	  if (graph != null)
+		 graph.applyUpdate(sql, params);
+   }
+
+   /**
+	* Method to run a set-based update over a list of keys, e.g. to mark
+	* many messages read at once. The '%s' in sql is replaced by the IN
+	* list placeholders; the keys are bound after params. Long lists are
+	* sent in chunks of IN_LIST_CHUNK keys, and every list is padded to a
+	* power of two so only a handful of statements get prepared.
+	*
+	* @param sql the update, with "IN (%s)" where the keys go
+	* @param keys the keys to update
+	* @param params the values of the other '?' placeholders, in order
+	* @return the number of round trips used
+	* @throws java.sql.SQLException when update failed
+	*/
+   public int executeUpdateIn (String sql, List<?> keys, Object... params) throws SQLException {
+	  int roundTrips = 0;
+	  for (int from = 0; from < keys.size(); from += IN_LIST_CHUNK) {
+		 List<?> chunk = keys.subList(from, Math.min(keys.size(), from + IN_LIST_CHUNK));
+		 int width = Integer.highestOneBit(chunk.size());
+		 if (width < chunk.size())
+			width *= 2;
+
+		 StringBuilder marks = new StringBuilder("?");
+		 Object[] values = Arrays.copyOf(params, params.length + width);
+		 for (int i = 0; i < width; ++i) {
+			if (i > 0)
+			   marks.append(", ?");
+			// repeats the last key to fill the padding
+			values[params.length + i] = chunk.get(Math.min(i, chunk.size() - 1));
+		 }
+		 executeUpdate(String.format(sql, marks), values);
+		 roundTrips++;
+	  }
+	  return roundTrips;
+   }//end executeUpdateIn
+
+   /**
+	* Method to start collecting writes that are sent together later, see
+	* WriteBatch.
+	*
+	* @return an empty batch of writes
+	*/
+   public WriteBatch batch () {
+	  return new WriteBatch(this);
+   }//end batch
+
    /**
 	* Method to execute an input query SQL instruction (i.e. SELECT).  This
 	* method issues the query to the DBMS and outputs the results to
 	* standard out.
 	*
-	* @param query the input query string
+	* @param query the input query string, with '?' for every parameter
+	* @param params the values of the '?' placeholders, in order
 	* @return the number of rows returned
 	* @throws java.sql.SQLException when failed to execute the query
 	*/
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-	  // creates a statement object
-	  Statement stmt = this._connection.createStatement ();
-
-	  // issues the query instruction
-	  ResultSet rs = stmt.executeQuery (query);
-
-	  /*
-	   ** obtains the metadata object for the returned result set.  The metadata
-	   ** contains row and column info.
-	   */
-	  ResultSetMetaData rsmd = rs.getMetaData ();
-	  int numCol = rsmd.getColumnCount ();
-	  int rowCount = 0;
-
-	  // iterates through the result set and output them to standard out.
-	  boolean outputHeader = true;
-	  while (rs.next()){
-	 if(outputHeader){
-		for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
-		}
-		System.out.println();
-		outputHeader = false;
-	 }
-		 for (int i=1; i<=numCol; ++i)
-			System.out.print (rs.getString (i) + "\t");
-		 System.out.println ();
-		 ++rowCount;
-	  }//end while
-	  stmt.close ();
-	  return rowCount;
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+	  int rowCount = -1;
+	  long start = System.nanoTime ();
+	  // borrows a connection and gets its cached statement object
+	  ConnectionPool.PooledConnection conn = this._pool.acquire ();
+	  try {
+		  PreparedStatement stmt = conn.prepare (query, params);
+
+		  // issues the query instruction
+		  ResultSet rs = stmt.executeQuery ();
+
+		  /*
+		   ** obtains the metadata object for the returned result set.  The metadata
+		   ** contains row and column info.
+		   */
+		  ResultSetMetaData rsmd = rs.getMetaData ();
+		  int numCol = rsmd.getColumnCount ();
+		  int printed = 0;
+
+		  // iterates through the result set and output them to standard out.
+		  boolean outputHeader = true;
+		  while (rs.next()){
+		 if(outputHeader){
+			for(int i = 1; i <= numCol; i++){
+			out.print(rsmd.getColumnName(i) + "\t");
+			}
+			out.println();
+			outputHeader = false;
+		 }
+			 for (int i=1; i<=numCol; ++i)
+				out.print (rs.getString (i) + "\t");
+			 out.println ();
+			 ++printed;
+		  }//end while
+		  rs.close ();
+		  rowCount = printed;
+		  return rowCount;
+	  } finally {
+		  this._pool.release (conn);
+		  record (query, start, rowCount);
+	  }
    }//end executeQuery
 
    /**
@@ -141,61 +352,201 @@ public class ProfNetwork {
 	* method issues the query to the DBMS and returns the results as
 	* a list of records. Each record in turn is a list of attribute values
 	*
-	* @param query the input query string
+	* @param query the input query string, with '?' for every parameter
+	* @param params the values of the '?' placeholders, in order
 	* @return the query result as a list of records
 	* @throws java.sql.SQLException when failed to execute the query
 	*/
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-	  // creates a statement object
-	  Statement stmt = this._connection.createStatement ();
-
-	  // issues the query instruction
-	  ResultSet rs = stmt.executeQuery (query);
-
-	  /*
-	   ** obtains the metadata object for the returned result set.  The metadata
-	   ** contains row and column info.
-	   */
-	  ResultSetMetaData rsmd = rs.getMetaData ();
-	  int numCol = rsmd.getColumnCount ();
-	  int rowCount = 0;
-
-	  // iterates through the result set and saves the data returned by the query.
-	  boolean outputHeader = false;
-	  List<List<String>> result  = new ArrayList<List<String>>();
-	  while (rs.next()){
-		  List<String> record = new ArrayList<String>();
-		 for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-		 result.add(record);
-	  }//end while
-	  stmt.close ();
-	  return result;
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+	  int rowCount = -1;
+	  long start = System.nanoTime ();
+	  // borrows a connection and gets its cached statement object
+	  ConnectionPool.PooledConnection conn = this._pool.acquire ();
+	  try {
+		  PreparedStatement stmt = conn.prepare (query, params);
+
+		  // issues the query instruction
+		  ResultSet rs = stmt.executeQuery ();
+
+		  /*
+		   ** obtains the metadata object for the returned result set.  The metadata
+		   ** contains row and column info.
+		   */
+		  ResultSetMetaData rsmd = rs.getMetaData ();
+		  int numCol = rsmd.getColumnCount ();
+
+		  // iterates through the result set and saves the data returned by the query.
+		  boolean outputHeader = false;
+		  List<List<String>> result  = new ArrayList<List<String>>();
+		  while (rs.next()){
+			  List<String> record = new ArrayList<String>();
+			 for (int i=1; i<=numCol; ++i)
+				record.add(rs.getString (i));
+			 result.add(record);
+		  }//end while
+		  rs.close ();
+		  rowCount = result.size ();
+		  return result;
+	  } finally {
+		  this._pool.release (conn);
+		  record (query, start, rowCount);
+	  }
    }//end executeQueryAndReturnResult
 
+   /**
+	* Method to stream the rows of an input query SQL instruction (i.e.
+	* SELECT) to a handler, one row at a time. With a fetch size the query
+	* runs as a cursor, DECLAREd in SQL and read with FETCH, fetchSize rows
+	* per round trip, instead of being loaded all at once (the bundled
+	* driver has no setFetchSize). A cursor only lives inside a
+	* transaction, so auto-commit is turned off for the duration of the
+	* query and back on afterwards. Every cursor gets a name of its own, so
+	* the handler may stream another query on the same connection.
+	*
+	* @param query the input query string, with '?' for every parameter
+	* @param fetchSize rows per fetch, or 0 to read them all at once
+	* @param handler called for every row until it returns false
+	* @param params the values of the '?' placeholders, in order
+	* @return the number of rows passed to the handler
+	* @throws java.sql.SQLException when failed to execute the query
+	*/
+   public int executeQueryForEach (String query, int fetchSize, Row.Handler handler, Object... params) throws SQLException {
+	  int rows = -1;
+	  int roundTrips = 1;
+	  long start = System.nanoTime ();
+	  // borrows a connection and gets its cached statement object
+	  ConnectionPool.PooledConnection conn = this._pool.acquire ();
+	  Connection connection = conn.connection ();
+	  // a connection already inside a transaction is left as it is
+	  boolean transaction = fetchSize > 0 && connection.getAutoCommit ();
+	  String cursor = CURSOR + _cursors.incrementAndGet ();
+	  boolean declared = false;
+	  try {
+		  if (fetchSize <= 0) {
+			 // issues the query instruction
+			 ResultSet rs = conn.prepare (query, params).executeQuery ();
+			 Row row = new Row (rs);
+			 try {
+				while (row.next ()) {
+				   if (!handler.row (row))
+					  break;
+				}//end while
+			 } finally {
+				rs.close ();
+			 }
+			 rows = row.number ();
+			 return rows;
+		  }
+
+		  if (transaction)
+			 connection.setAutoCommit (false);
+		  // cursor statements cannot be prepared, so none of them is cached
+		  conn.execute ("DECLARE " + cursor + " CURSOR FOR " + query, params).close ();
+		  declared = true;
+		  Statement fetch = connection.createStatement ();
+		  try {
+			 Row row = null;
+			 boolean more = true;
+			 while (more) {
+				 ResultSet rs = fetch.executeQuery ("FETCH FORWARD " + fetchSize + " FROM " + cursor);
+				 roundTrips++;
+				 int fetched = 0;
+				 try {
+					if (row == null)
+					   row = new Row (rs);
+					else
+					   row.moveTo (rs);
+					while (more && row.next ()) {
+					   fetched++;
+					   more = handler.row (row);
+					}//end while
+				 } finally {
+					rs.close ();
+				 }
+				 // a short fetch was the last one
+				 more = more && fetched == fetchSize;
+			 }//end while
+			 rows = row.number ();
+			 return rows;
+		  } finally {
+			 fetch.close ();
+		  }
+	  } finally {
+		  this._metrics.record (query, roundTrips, Math.max (rows, 0), System.nanoTime () - start, rows < 0);
+		  try {
+			 if (transaction) {
+				// ends the read-only transaction, which also drops the cursor
+				connection.rollback ();
+				connection.setAutoCommit (true);
+			 } else if (declared)
+				conn.execute ("CLOSE " + cursor).close ();
+		  } finally {
+			 this._pool.release (conn);
+		  }
+	  }
+   }//end executeQueryForEach
+
    /**
 	* Method to execute an input query SQL instruction (i.e. SELECT).  This
-	* method issues the query to the DBMS and returns the number of results
+	* method issues the query to the DBMS and returns the number of results.
+	* The rows are counted by the DBMS, none of them is sent back.
 	*
-	* @param query the input query string
+	* @param query the input query string, with '?' for every parameter
+	* @param params the values of the '?' placeholders, in order
 	* @return the number of rows returned
 	* @throws java.sql.SQLException when failed to execute the query
 	*/
-   public int executeQuery (String query) throws SQLException {
-	   // creates a statement object
-	   Statement stmt = this._connection.createStatement ();
-
-	   // issues the query instruction
-	   ResultSet rs = stmt.executeQuery (query);
+   public int executeQuery (String query, Object... params) throws SQLException {
+	   return count (query, params);
+   }//end executeQuery
 
-	   int rowCount = 0;
+   /**
+	* Method to count the rows of an input query SQL instruction (i.e.
+	* SELECT) without fetching them.
+	*
+	* @param query the input query string, with '?' for every parameter
+	* @param params the values of the '?' placeholders, in order
+	* @return the number of rows the query returns
+	* @throws java.sql.SQLException when failed to execute the query
+	*/
+   public int count (String query, Object... params) throws SQLException {
+	   return (int) scalarLong ("SELECT count(*) FROM (" + query + ") AS counted", params);
+   }//end count
 
-	   // iterates through the result set and count nuber of results.
-	   if(rs.next()){
-		  rowCount++;
-	   }//end while
-	   stmt.close ();
-	   return rowCount;
+   /**
+	* Method to check whether an input query SQL instruction (i.e. SELECT)
+	* returns any row. The DBMS stops at the first row and sends back a
+	* single boolean, so the columns selected do not matter.
+	*
+	* @param query the input query string, with '?' for every parameter
+	* @param params the values of the '?' placeholders, in order
+	* @return true if the query returns at least one row
+	* @throws java.sql.SQLException when failed to execute the query
+	*/
+   public boolean exists (String query, Object... params) throws SQLException {
+	   return scalarLong ("SELECT CASE WHEN EXISTS (" + query + ") THEN 1 ELSE 0 END", params) > 0;
+   }//end exists
+
+   // runs a query returning a single number
+   private long scalarLong (String query, Object... params) throws SQLException {
+	   int rows = -1;
+	   long start = System.nanoTime ();
+	   // borrows a connection and gets its cached statement object
+	   ConnectionPool.PooledConnection conn = this._pool.acquire ();
+	   try {
+		   PreparedStatement stmt = conn.prepare (query, params);
+		   ResultSet rs = stmt.executeQuery ();
+		   try {
+			  long value = rs.next () ? rs.getLong (1) : 0;
+			  rows = 1;
+			  return value;
+		   } finally {
+			  rs.close ();
+		   }
+	   } finally {
+		   this._pool.release (conn);
+		   record (query, start, rows);
+	   }
    }
 
    /**
@@ -203,45 +554,296 @@ public class ProfNetwork {
 	* method issues the query to the DBMS and returns the current
 	* value of sequence used for autogenerated keys
 	*
+	* With more than one pooled connection, pin the connection that ran
+	* nextval first (see ConnectionPool.pin).
+	*
 	* @param sequence name of the DB sequence
 	* @return current value of a sequence
 	* @throws java.sql.SQLException when failed to execute the query
 	*/
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+	int rows = -1;
+	long start = System.nanoTime ();
+	// borrows a connection and gets its cached statement object
+	ConnectionPool.PooledConnection conn = this._pool.acquire ();
+	try {
+		PreparedStatement stmt = conn.prepare ("Select currval(?)", sequence);
+
+		ResultSet rs = stmt.executeQuery ();
+		int value = -1;
+		if (rs.next())
+			value = rs.getInt(1);
+		rs.close ();
+		rows = 1;
+		return value;
+	} finally {
+		this._pool.release (conn);
+		record ("Select currval(?)", start, rows);
+	}
+   }
+
+   /**
+	* Method to expand the accepted connections of a user up to maxHops
+	* levels away. The whole neighborhood is computed by the DBMS with a
+	* single recursive query, so the cost is one round trip no matter how
+	* many friends each tier has.
+	*
+	* The menu does not use it: the in-memory ConnectionGraph replaced it
+	* on the SendRequest path, since walking the graph needs no round trip
+	* at all. It is kept only as the SQL baseline of TierExpansionBench,
+	* and is counted in the metrics like every other statement.
+	*
+	* @param user the userId to start from
+	* @param maxHops the number of connection levels to follow
+	* @return every reachable userId (excluding user) mapped to its hop
+	*         distance, ordered by distance
+	* @throws java.sql.SQLException when failed to execute the query
+	*/
+   public Map<String, Integer> connectionsWithinHops(String user, int maxHops) throws SQLException {
+	String query =
+		"WITH RECURSIVE reach(uid, hops) AS ( " +
+		"SELECT CAST(? AS text), 0 " +
+		"UNION " +
+		this._connections.reachStep() + " ) " +
+		"SELECT uid, min(hops) AS hops FROM reach GROUP BY uid ORDER BY hops, uid";
+
+	int rows = -1;
+	long start = System.nanoTime ();
+	// borrows a connection and gets its cached statement object
+	ConnectionPool.PooledConnection conn = this._pool.acquire ();
+	try {
+		PreparedStatement stmt = conn.prepare (query, user.trim(), maxHops);
+
+		ResultSet rs = stmt.executeQuery ();
+
+		Map<String, Integer> reached = new LinkedHashMap<String, Integer>();
+		while (rs.next()){
+		   int hops = rs.getInt(2);
+		   if (hops > 0)
+			  reached.put(rs.getString(1).trim(), hops);
+		}//end while
+		rs.close ();
+		rows = reached.size ();
+		return reached;
+	} finally {
+		this._pool.release (conn);
+		record (query, start, rows);
+	}
+   }//end connectionsWithinHops
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+   /**
+	* Method to get the in-memory connection graph. The graph is loaded
+	* from CONNECTION_USR the first time it is needed and loaded again if an
+	* update could not be applied to it. A new graph is streamed in without
+	* holding any monitor and then swapped in; sessions that need the graph
+	* meanwhile wait on _graphLoad.
+	*
+	* @return the connection graph
+	* @throws java.sql.SQLException when failed to load CONNECTION_USR
+	*/
+   public ConnectionGraph graph() throws SQLException {
+	ConnectionGraph graph = this._graph;
+	if (graph != null && !graph.isStale())
+	   return graph;
+	this._graphLoad.lock ();
+	try {
+	   graph = this._graph;
+	   if (graph != null && !graph.isStale())
+		  return graph;
+	   java.util.concurrent.ConcurrentLinkedQueue<Object[]> writes =
+		  new java.util.concurrent.ConcurrentLinkedQueue<Object[]> ();
+	   this._graphWrites = writes;
+	   ConnectionGraph loaded;
+	   try {
+		  loaded = ConnectionGraph.load(this);
+		  replayWrites (loaded, writes);
+		  loaded.addListener(this._suggestions);
+		  this._graph = loaded;
+	   } finally {
+		  this._graphWrites = null;
+	   }
+	   // writes queued after the first replay may have gone to the old graph
+	   replayWrites (loaded, writes);
+	   if (graph != null)
+		  this._suggestions.reloaded();
+	   return loaded;
+	} finally {
+	   this._graphLoad.unlock ();
+	}
+   }//end graph
+
+   // applies the writes queued while a graph loaded, in the order they ran
+   private static void replayWrites (ConnectionGraph graph, Queue<Object[]> writes) {
+	  Object[] write;
+	  while ((write = writes.poll ()) != null)
+		 graph.applyUpdate((String) write[0], (Object[]) write[1]);
    }
 
    /**
-	* Method to close the physical connection if it is open.
+	* Method to get the "people you may know" index that SendRequest
+	* offers valid users from.
+	*
+	* @return the suggestion index
+	*/
+   public SuggestionIndex suggestions() {
+	return this._suggestions;
+   }//end suggestions
+
+   /**
+	* Method to get the user directory used to check that a userId exists.
+	*
+	* @return the user directory
+	*/
+   public UserDirectory users() {
+	return this._users;
+   }//end users
+
+   /**
+	* Method to get the cache of profiles shown by displayProfile. Every
+	* write to USR, WORK_EXPR or EDUCATIONAL_DETAILS must invalidate the
+	* user it changed.
+	*
+	* @return the profile cache
+	*/
+   public ProfileCache profiles() {
+	return this._profiles;
+   }//end profiles
+
+   /**
+	* Method to get the connection store, which sends connection reads and
+	* writes to CONNECTION_USR, or to CONNECTION_EDGE once it was migrated.
+	*
+	* @return the connection store
+	*/
+   public ConnectionStore connections() {
+	return this._connections;
+   }//end connections
+
+   /**
+	* Method to get the user search index. It is empty until built; once
+	* built, Signup and updateField keep it up to date.
+	*
+	* @return the user search index
+	*/
+   public UserSearch search() {
+	return this._search;
+   }//end search
+
+   /**
+	* Method to get the userId completions. They are empty until built;
+	* once built, Signup adds new users to them.
+	*
+	* @return the userId completions
+	*/
+   public Typeahead typeahead() {
+	return this._typeahead;
+   }//end typeahead
+
+   /**
+	* Method to get the msgId allocator. Bulk senders can turn on its block
+	* allocator with setBlockSize.
+	*
+	* @return the msgId allocator
+	*/
+   public MessageIds messageIds() {
+	return this._messageIds;
+   }//end messageIds
+
+   /**
+	* Method to get the counters of the statements sent so far, by SQL
+	* template and by menu action.
+	*
+	* @return the metrics
+	*/
+   public Metrics metrics() {
+	return this._metrics;
+   }//end metrics
+
+   /**
+	* Method to get the connection pool, e.g. to pin a connection or to
+	* report its wait time and statement cache counters.
+	*
+	* @return the connection pool
+	*/
+   public ConnectionPool pool() {
+	return this._pool;
+   }//end pool
+
+   /**
+	* Method to close the physical connections if they are open.
 	*/
    public void cleanup(){
-	  try{
-		 if (this._connection != null){
-			this._connection.close ();
-		 }//end if
-	  }catch (SQLException e){
-		 // ignored.
-	  }//end try
+	  if (this._pool != null){
+		 this._pool.close ();
+	  }//end if
    }//end cleanup
 
 
+   /**
+	* Creates the indexes the queries need and warns about every query
+	* template that still scans a table. Failing here does not stop the
+	* program, which works without the indexes, only slower.
+	*/
+   private static void prepareSchema(ProfNetwork esql) {
+	   try {
+		  Schema.provision(esql);
+		  for (String warning : Schema.check(esql))
+			 System.err.println("Warning: " + warning);
+	   } catch (SQLException e) {
+		  System.err.println("Warning: could not check the indexes: " + e.getMessage());
+	   }
+   }//end prepareSchema
+
+   /**
+	* Loads the Bloom filter of the known userIds when started with
+	* -Dbloomfilter=true, so the friend request and message flows answer
+	* most unknown userIds without a round trip. Only safe when every
+	* CreateUser goes through this process. Failing here leaves every
+	* check to the DBMS.
+	*/
+   private static void loadUserFilter(ProfNetwork esql) {
+	   if (!Boolean.getBoolean("bloomfilter"))
+		  return;
+	   try {
+		  esql.users().loadBloomFilter();
+	   } catch (SQLException e) {
+		  System.err.println("Warning: could not load the userIds: " + e.getMessage());
+	   }
+   }//end loadUserFilter
+
+   /**
+	* Writes the metrics to the file given with -Dmetrics=<file>, if any:
+	* the Prometheus dump for a name ending in .prom, else the text report.
+	*/
+   private static void dumpMetrics(ProfNetwork esql) {
+	   String file = System.getProperty("metrics");
+	   if (file == null)
+		  return;
+	   try {
+		  PrintStream dump = new PrintStream(new FileOutputStream(file));
+		  try {
+			 dump.print(file.endsWith(".prom") ? esql.metrics().prometheus() : esql.metrics().report());
+		  } finally {
+			 dump.close();
+		  }
+	   } catch (Exception e) {
+		  System.err.println("Warning: could not write the metrics: " + e.getMessage());
+	   }
+   }//end dumpMetrics
+
    /**
 	* The main execution method
 	*
 	* @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+	*        and optionally a port to serve sessions on and the connection pool size
 	*/
    public static void main (String[] args) {
-	  if (args.length != 3) {
+	  if (args.length < 3 || args.length > 5) {
 		 System.err.println (
 			"Usage: " +
 			"java [-classpath <classpath>] " +
 			ProfNetwork.class.getName () +
-			" <dbname> <port> <user>");
+			" <dbname> <port> <user> [<listen port> [<pool size>]]");
 		 return;
 	  }//end if
 
@@ -255,66 +857,36 @@ public class ProfNetwork {
 		 String dbname = args[0];
 		 String dbport = args[1];
 		 String user = args[2];
-		 esql = new ProfNetwork (dbname, dbport, user, "");
 
+		 if (args.length > 3) {
+			// serves the menu to many clients over a local socket
+			int listenPort = Integer.parseInt(args[3]);
+			int poolSize = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+			esql = new ProfNetwork (dbname, dbport, user, "", poolSize);
+			esql.metrics().register();
+			prepareSchema(esql);
+			loadUserFilter(esql);
+			new SessionServer(esql, listenPort).serve();
+			return;
+		 }//end if
 
-		 boolean keepon = true;
-		 while(keepon) {
-			// These are sample SQL statements
-			System.out.println("MAIN MENU");
-			System.out.println("---------");
-			System.out.println("1. Create user");
-			System.out.println("2. Log in");
-			System.out.println("9. < EXIT");
-			String authorisedUser = null;
-			switch (readChoice()){
-			   case 1: CreateUser(esql); break;
-			   case 2: authorisedUser = LogIn(esql); break;
-			   case 9: keepon = false; break;
-			   default : System.out.println("Unrecognized choice!"); break;
-			}//end switch
-			if (authorisedUser != null) {
-			  boolean usermenu = true;
-			  while(usermenu) {
-				System.out.println("MAIN MENU");
-				System.out.println("---------");
-				System.out.println("0. View Profile");
-				System.out.println("1. Accept/Reject Connection Requests");
-				System.out.println("2. Update Profile");
-				System.out.println("3. Write a new message");
-				System.out.println("4. Send Friend Request");
-				System.out.println("5. Search Users");
-				System.out.println("6. View all Friends");
-				System.out.println("7. View All Messages");
-				System.out.println("8 Log out");
-
-
-				switch (readChoice()){
-				   case 0: displayProfile(esql, authorisedUser);   break;                
-				   case 1: AcceptRejectConnectionRequests(esql, authorisedUser); break;
-				   case 2: UpdateProfile(esql, authorisedUser); break;
-				   case 3: SendMsg(esql, authorisedUser); break;
-				   case 4: SendRequest(esql, authorisedUser); break;
-				   case 5: lookUpUser(esql, authorisedUser); break;
-				   case 6: ViewFriends(esql, authorisedUser); break;
-				   case 7: viewMessages(esql, authorisedUser); break;
-				   case 8: usermenu = false; break;
-				   default : System.out.println("Unrecognized choice!"); break;
-				}
-			  }
-			}
+		 esql = new ProfNetwork (dbname, dbport, user, "");
+		 esql.metrics().register();
+		 prepareSchema(esql);
+		 loadUserFilter(esql);
 
-		   
-		 }//end while
+		 // runs the menu on the keyboard and screen
+		 Session.console(esql).run();
 	  }catch(Exception e) {
 		 System.err.println (e.getMessage ());
 	  }finally{
 		 // make sure to cleanup the created table and close the connection.
 		 try{
 			if(esql != null) {
-			   System.out.print("Disconnecting from database...");
+			   dumpMetrics(esql);
+			   out.print("Disconnecting from database...");
 			   esql.cleanup ();
-			   System.out.println("Done\n\nBye !");
+			   out.println("Done\n\nBye !");
 			}//end if
 		 }catch (Exception e) {
 			// ignored.
@@ -322,8 +894,99 @@ public class ProfNetwork {
 	  }//end try
    }//end main
 
+   // the names of the menu actions in the metrics, by menu choice
+   private static final String[] MAIN_ACTIONS = { null, "CreateUser", "LogIn" };
+   private static final String[] USER_ACTIONS = { "displayProfile", "AcceptRejectConnectionRequests",
+	  "UpdateProfile", "SendMsg", "SendRequest", "lookUpUser", "ViewFriends", "viewMessages" };
+   private static final String[] MESSAGE_ACTIONS = { null, "seeInbox", "printSentMsg" };
+
+   /**
+	* Runs the main menu until the user exits. Reads and writes go through
+	* the Session bound to the calling thread.
+	*
+	* @param esql the database connection shared by all sessions
+	*/
+   public static void runMenu (ProfNetwork esql) {
+	 boolean keepon = true;
+	 while(keepon) {
+		// These are sample SQL statements
+		out.println("MAIN MENU");
+		out.println("---------");
+		out.println("1. Create user");
+		out.println("2. Log in");
+		out.println("9. < EXIT");
+		String authorisedUser = null;
+		int choice = readChoice();
+		Metrics.Operation operation = beginAction(esql, MAIN_ACTIONS, choice);
+		try {
+		switch (choice){
+		   case 1: CreateUser(esql); break;
+		   case 2: authorisedUser = LogIn(esql); break;
+		   case 9: keepon = false; break;
+		   default : out.println("Unrecognized choice!"); break;
+		}//end switch
+		} finally {
+		   if (operation != null)
+			  operation.end();
+		}
+		if (authorisedUser != null) {
+		  Session.current().setUser(authorisedUser);
+		  boolean usermenu = true;
+		  while(usermenu) {
+			out.println("MAIN MENU");
+			out.println("---------");
+			out.println("0. View Profile");
+			out.println("1. Accept/Reject Connection Requests");
+			out.println("2. Update Profile");
+			out.println("3. Write a new message");
+			out.println("4. Send Friend Request");
+			out.println("5. Search Users");
+			out.println("6. View all Friends");
+			out.println("7. View All Messages");
+			out.println("8 Log out");
+
+
+			choice = readChoice();
+			operation = beginAction(esql, USER_ACTIONS, choice);
+			try {
+			switch (choice){
+			   case 0: displayProfile(esql, authorisedUser);   break;                
+			   case 1: AcceptRejectConnectionRequests(esql, authorisedUser); break;
+			   case 2: UpdateProfile(esql, authorisedUser); break;
+			   case 3: SendMsg(esql, authorisedUser); break;
+			   case 4: SendRequest(esql, authorisedUser); break;
+			   case 5: lookUpUser(esql, authorisedUser); break;
+			   case 6: ViewFriends(esql, authorisedUser); break;
+			   case 7: viewMessages(esql, authorisedUser); break;
+			   case 8: usermenu = false; Session.current().setUser(null); break;
+			   default : out.println("Unrecognized choice!"); break;
+			}
+			} finally {
+			   if (operation != null)
+				  operation.end();
+			}
+		  }
+		}
+
+	   
+	 }//end while
+   }//end runMenu
+
+   /**
+	* Starts counting the statements of a menu action in the metrics.
+	*
+	* @param actions the names of the actions of a menu, by choice
+	* @param choice the choice read from the user
+	* @return the operation to end after the action, or null if the choice runs no action
+	*/
+   private static Metrics.Operation beginAction (ProfNetwork esql, String[] actions, int choice) {
+	 if (choice < 0 || choice >= actions.length || actions[choice] == null)
+		return null;
+	 return esql.metrics().begin(actions[choice]);
+   }//end beginAction
+
    public static void Greeting(){
-	  System.out.println(
+	  out.println(
 		 "\n\n*******************************************************\n" +
 		 "              User Interface      	               \n" +
 		 "*******************************************************\n");
@@ -339,12 +1002,12 @@ public class ProfNetwork {
 	int input;
 	// returns only if a correcdateOfBirtht value is given.
 	do {
-	 System.out.print("Please make your choice: ");
+	 out.print("Please make your choice: ");
 	 try { // read the integer, parse it and break.
 	  input = Integer.parseInt(in.readLine());
 	  break;
 	 }catch (Exception e) {
-	  System.out.println("Your input is invalid!");
+	  out.println("Your input is invalid!");
 	  continue;
 	 }//end try
 	}while (true);
@@ -363,12 +1026,12 @@ public class ProfNetwork {
 		  try{
 			input = in.readLine();
 		 }catch (Exception e) {
-		  System.out.println("Your input is invalid!");
+		  out.println("Your input is invalid!");
 		  continue;
 		 }
 
 		 if(input.equals("")){
-			System.out.print("Do not leave this field blank: ");
+			out.print("Do not leave this field blank: ");
 		 } 
 		 
 	   }while(input.equals(""));
@@ -384,12 +1047,12 @@ public class ProfNetwork {
 		  try{
 			input = in.readLine();
 		 }catch (Exception e) {
-		  System.out.println("Your input is invalid!");
+		  out.println("Your input is invalid!");
 		  continue;
 		 }
 
 		 if(!input.matches("([0-9]{2})/([0-9]{2})/([0-9]{4})")){
-			System.out.print("\tInvalid date entered: ");
+			out.print("\tInvalid date entered: ");
 		 } 
 		 
 	   }while(!input.matches("([0-9]{2})/([0-9]{2})/([0-9]{4})"));
@@ -399,54 +1062,49 @@ public class ProfNetwork {
 
    public static void CreateUser(ProfNetwork esql){
 	  try{
-		 System.out.print("\tEnter user login: ");
+		 out.print("\tEnter user login: ");
 		 String login = inputNoNull();
-		 System.out.print("\tEnter user password: ");
+		 out.print("\tEnter user password: ");
 		 String password = inputNoNull();
-		 System.out.print("\tEnter user email: ");
+		 out.print("\tEnter user email: ");
 		 String email = inputNoNull();
-		 System.out.print("\tEnter your full name: ");
+		 out.print("\tEnter your full name: ");
 		 String name = inputNoNull();
-		 System.out.print("\tEnter your birthday in MM/DD/YYYY format with slashes: ");
+		 out.print("\tEnter your birthday in MM/DD/YYYY format with slashes: ");
 		 String bday = enterDate();
 
-		 System.out.print("\tEnter your current company: ");
+		 out.print("\tEnter your current company: ");
 		 String company = inputNoNull();
-		 System.out.print("\tEnter your current role: ");
+		 out.print("\tEnter your current role: ");
 		 String role = inputNoNull();
 
-		 System.out.print("\tEnter your current location: ");
+		 out.print("\tEnter your current location: ");
 		 String location = inputNoNull();
-		 System.out.print("\tEnter your current jobs start date : ");
+		 out.print("\tEnter your current jobs start date : ");
 		 String startdate = enterDate();
-		 System.out.print("\tEnter your current job's end date (Type 12/30/9999 if unkown) : ");
+		 out.print("\tEnter your current job's end date (Type 12/30/9999 if unkown) : ");
 		 String enddate = enterDate();
 
-		 System.out.print("\tEnter the name of institution you attended: ");
+		 out.print("\tEnter the name of institution you attended: ");
 		 String institue = inputNoNull();
-		 System.out.print("\tEnter your major taken: ");
+		 out.print("\tEnter your major taken: ");
 		 String major = inputNoNull();
-		 System.out.print("\tEnter your current degree:");
+		 out.print("\tEnter your current degree:");
 		 String degree = inputNoNull();
-		 System.out.print("\tEnter your college entrance date:  ");
+		 out.print("\tEnter your college entrance date:  ");
 		 String startdateCollege = enterDate();
-		 System.out.print("\tEnter your graduation date: ");
+		 out.print("\tEnter your graduation date: ");
 		 String enddateGrad = enterDate();
 
 
 
 
-		 //Creating empty contact\block lists for a user
-		 String query = String.format("INSERT INTO USR (userId, password, email, name, dateOfBirth) VALUES ('%s','%s','%s','%s', '%s')", login, password, email, name, bday);
-		 esql.executeUpdate(query);
-
-		 query = String.format("INSERT INTO WORK_EXPR (userId, company, role, location, startDate, endDate) VALUES ('%s','%s','%s','%s', '%s' , '%s')", login, company, role,  location, startdate, enddate);
-		 esql.executeUpdate(query);
+		 // the USR, WORK_EXPR and EDUCATIONAL_DETAILS rows go in one transaction
+		 Signup.create(esql, new Signup.Account(login, password, email, name, bday,
+			company, role, location, startdate, enddate,
+			institue, major, degree, startdateCollege, enddateGrad));
 
-		 query = String.format("INSERT INTO EDUCATIONAL_DETAILS (userId , instituitionName, major, degree, startdate, enddate) VALUES ('%s','%s','%s','%s', '%s', '%s' )",login, institue, major, degree ,startdateCollege, enddateGrad);
-		 esql.executeUpdate(query);
-
-		 System.out.println ("User successfully created!");
+		 out.println ("User successfully created!");
 	  }catch(Exception e){
 		 System.err.println (e.getMessage ());
 	  }
@@ -458,14 +1116,13 @@ public class ProfNetwork {
 	**/
    public static String LogIn(ProfNetwork esql){
 	  try{
-		 System.out.print("\tEnter user login: ");
+		 out.print("\tEnter user login: ");
 		 String login = in.readLine();
-		 System.out.print("\tEnter user password: ");
+		 out.print("\tEnter user password: ");
 		 String password = in.readLine();
 
-		 String query = String.format("SELECT * FROM USR WHERE userId = '%s' AND password = '%s'", login, password);
-		 int userNum = esql.executeQuery(query);
-	 if (userNum > 0)
+		 String query = "SELECT 1 FROM USR WHERE userId = ? AND password = ?";
+	 if (esql.exists(query, login, password))
 		return login;
 		 return null;
 	  }catch(Exception e){
@@ -486,11 +1143,11 @@ public class ProfNetwork {
 	*/
 	public static List<List<String> > FriendList(ProfNetwork esql, String authorisedUser) {
 
-	String query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Accept' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Accept'", authorisedUser, authorisedUser);
 		List<List<String>> fList=new ArrayList<List<String> >();
 		try{
 
-		fList = esql.executeQueryAndReturnResult(query);
+		for (String friend : esql.graph().friends(authorisedUser, ConnectionGraph.ACCEPT))
+		    fList.add(Arrays.asList(friend));
 
 		} catch (Exception e) {
 		System.err.println (e.getMessage ());
@@ -507,48 +1164,48 @@ public class ProfNetwork {
 	*/
 	  public static List<List<String> > ViewFriends(ProfNetwork esql, String authorisedUser){
 		//Accepted Friends
-			System.out.println("\n\tAccepted Friends");
-			System.out.println("\t=========================");
+			out.println("\n\tAccepted Friends");
+			out.println("\t=========================");
 		
 			List<List<String> > fl = new ArrayList<List<String> >();
 			fl = FriendList(esql, authorisedUser );
 			for ( int i = 0; i < fl.size(); ++i){
-			    System.out.print("\t");
-			  System.out.println(fl.get(i).get(0));
+			    out.print("\t");
+			  out.println(fl.get(i).get(0));
 			}
-			System.out.println("");
+			out.println("");
 
 		//Pending Friends
-		System.out.println("\tPending Friends");
-		System.out.println("\t=========================");
+		out.println("\tPending Friends");
+		out.println("\t=========================");
 		List<List<String> > pfl = new ArrayList<List<String> >();
-		String query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Request' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Request'", authorisedUser, authorisedUser);
 		try {
-		    pfl = esql.executeQueryAndReturnResult(query);
+		    for (String friend : esql.graph().friends(authorisedUser, ConnectionGraph.REQUEST))
+			pfl.add(Arrays.asList(friend));
 		} catch (Exception e) {
 		    System.err.println (e.getMessage());
 		}
 		for ( int i = 0; i < pfl.size(); ++i){
-		    System.out.print("\t");
-		    System.out.println(pfl.get(i).get(0));
+		    out.print("\t");
+		    out.println(pfl.get(i).get(0));
 		}
-		System.out.println("");
+		out.println("");
 
 		//Rejected Friends
-		System.out.println("\tRejected Friends");
-		System.out.println("\t=========================");
+		out.println("\tRejected Friends");
+		out.println("\t=========================");
 		List<List<String> > rfl = new ArrayList<List<String> >();
-		query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Reject' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Reject'", authorisedUser, authorisedUser);
 		try {
-		    rfl = esql.executeQueryAndReturnResult(query);
+		    for (String friend : esql.graph().friends(authorisedUser, ConnectionGraph.REJECT))
+			rfl.add(Arrays.asList(friend));
 		} catch (Exception e) {
 		    System.err.println (e.getMessage());
 		}
 		for ( int i = 0; i < rfl.size(); ++i){
-		    System.out.print("\t");
-		    System.out.println(rfl.get(i).get(0));
+		    out.print("\t");
+		    out.println(rfl.get(i).get(0));
 		}
-		System.out.println("");
+		out.println("");
 		
 		
 		return fl;
@@ -561,15 +1218,15 @@ public class ProfNetwork {
 
 	public static List<List<String> > ViewFriendsSimple( ProfNetwork esql, String authorisedUser){
 
-		System.out.println("\nCurrent Friends");
-		System.out.println("=========================");
+		out.println("\nCurrent Friends");
+		out.println("=========================");
 	
 		List<List<String> > fl = new ArrayList<List<String> >();
 		fl = FriendList(esql, authorisedUser );
 		for ( int i = 0; i < fl.size(); ++i){
-		  System.out.println(fl.get(i).get(0));
+		  out.println(fl.get(i).get(0));
 		}
-		System.out.println("");
+		out.println("");
 
 		return fl;
 
@@ -582,20 +1239,27 @@ public class ProfNetwork {
 
 	  try{
 
-		System.out.println("Enter your new " + field + ": ");
+		out.println("Enter your new " + field + ": ");
 		String newMail = in.readLine();
 
 
-		//System.out.println( "UPDATE USR SET " + field + " = '%s' WHERE userId = '%s'");
-		String query = String.format("UPDATE " + tableName + " SET " + field + " = '%s' WHERE userId = '%s'", newMail, authorisedUser);
-		int userNum = esql.executeQuery(query);
+		// date columns are bound as text and cast by the DBMS
+		String value = field.toLowerCase().endsWith("date") || field.equals("dateOfBirth") ? "CAST(? AS date)" : "?";
+		String query = "UPDATE " + tableName + " SET " + field + " = " + value + " WHERE userId = ?";
+		int userNum;
+		try {
+		   userNum = esql.executeUpdate(query, newMail, authorisedUser);
+		} finally {
+		   esql.profiles().invalidate(authorisedUser);
+		}
 
 		if( userNum  > 0){
-		  System.out.println("Your new " + field +  " is: " + newMail);
+		  esql.search().reindex(authorisedUser);
+		  out.println("Your new " + field +  " is: " + newMail);
 		}
 
 		else{
-		  System.out.println("Something went wrong!");          
+		  out.println("Something went wrong!");          
 		}
 
 		return;
@@ -607,24 +1271,24 @@ public class ProfNetwork {
 	private static void updateGeneralUser(ProfNetwork esql, String authorisedUser ){
 
 		try {
-		System.out.println("What would you like to change?");
-		System.out.println("---------");
-		System.out.println("1. Email");
-		System.out.println("2. Full Name");
-		System.out.println("3. Date of Birth");
-		System.out.println("4. Menu");
-		System.out.println("5. Password");
+		out.println("What would you like to change?");
+		out.println("---------");
+		out.println("1. Email");
+		out.println("2. Full Name");
+		out.println("3. Date of Birth");
+		out.println("4. Menu");
+		out.println("5. Password");
 
 	   
 
 	  switch (readChoice()){                   
 		 case 1: updateField(esql, authorisedUser, "email" , "USR"); break;
 		 case 2: updateField(esql, authorisedUser, "name", "USR"); break;
-		 case 3: updateField(esql, authorisedUser, "birthday", "USR"); break;
+		 case 3: updateField(esql, authorisedUser, "dateOfBirth", "USR"); break;
 		 case 4: return;
 		 case 5: changePass(esql, authorisedUser);
 
-		 default : System.out.println("Unrecognized choice!"); break;
+		 default : out.println("Unrecognized choice!"); break;
 		 }
 	   }catch (Exception e) {
 		System.err.println (e.getMessage ());
@@ -635,14 +1299,14 @@ public class ProfNetwork {
 	private static void updateWork(ProfNetwork esql, String authorisedUser ){
 
 		try {
-		System.out.println("\nWhat would you like to change?");
-		System.out.println("---------");
-		System.out.println("1. Company");
-		System.out.println("2. Role");
-		System.out.println("3. Location");
-		System.out.println("4. Start Date");
-		System.out.println("5. End Date");
-		System.out.println("6. Menu");
+		out.println("\nWhat would you like to change?");
+		out.println("---------");
+		out.println("1. Company");
+		out.println("2. Role");
+		out.println("3. Location");
+		out.println("4. Start Date");
+		out.println("5. End Date");
+		out.println("6. Menu");
 
 		
 
@@ -654,7 +1318,7 @@ public class ProfNetwork {
 		 case 5: updateField(esql, authorisedUser, "endDate", "WORK_EXPR"); break;
 		 case 6: return;
 
-		 default : System.out.println("Unrecognized choice!"); break;
+		 default : out.println("Unrecognized choice!"); break;
 		 }
 	   }catch (Exception e) {
 		System.err.println (e.getMessage ());
@@ -665,14 +1329,14 @@ public class ProfNetwork {
 	private static void updateEdu(ProfNetwork esql, String authorisedUser ){
 
 		 try {
-		System.out.println("\nWhat would you like to change?");
-		System.out.println("---------");
-		System.out.println("1. institution");
-		System.out.println("2. major");
-		System.out.println("3. degree");
-		System.out.println("4. Start Date");
-		System.out.println("5. End Date");
-		System.out.println("6. Menu");
+		out.println("\nWhat would you like to change?");
+		out.println("---------");
+		out.println("1. institution");
+		out.println("2. major");
+		out.println("3. degree");
+		out.println("4. Start Date");
+		out.println("5. End Date");
+		out.println("6. Menu");
 
 		
 
@@ -684,7 +1348,7 @@ public class ProfNetwork {
 		 case 5: updateField(esql, authorisedUser, "enddate","EDUCATIONAL_DETAILS"); break;
 		 case 6: return;
 
-		 default : System.out.println("Unrecognized choice!"); break;
+		 default : out.println("Unrecognized choice!"); break;
 		 }
 	   }catch (Exception e) {
 		System.err.println (e.getMessage ());
@@ -698,19 +1362,19 @@ public class ProfNetwork {
 		try{
 		while(true){
 
-		  System.out.println("\nWhat would you like to change?");
-		  System.out.println("---------");
-		  System.out.println("1. User Information");
-		  System.out.println("2. Work Experience");
-		  System.out.println("3. Educational Details");
-		  System.out.println("4. Menu");
+		  out.println("\nWhat would you like to change?");
+		  out.println("---------");
+		  out.println("1. User Information");
+		  out.println("2. Work Experience");
+		  out.println("3. Educational Details");
+		  out.println("4. Menu");
 		  
 			switch (readChoice()){                   
 			   case 1: updateGeneralUser(esql, authorisedUser); break;
 			   case 2: updateWork(esql, authorisedUser); break;
 			   case 3: updateEdu(esql, authorisedUser); break;
 			   case 4: return;
-			   default : System.out.println("Unrecognized choice!"); break;
+			   default : out.println("Unrecognized choice!"); break;
 			 }
 		 }
 		}catch (Exception e) {
@@ -725,7 +1389,7 @@ public class ProfNetwork {
 	  String newPwd;
 	  String newPwd2;
 	  try{
-		  System.out.println("Enter 'y' to change your password. Enter any other key to return to menu: ");
+		  out.println("Enter 'y' to change your password. Enter any other key to return to menu: ");
 		  String confirm = in.readLine();
 
 
@@ -734,31 +1398,35 @@ public class ProfNetwork {
 		  }
 		  else{
 			
-			  System.out.println("Enter your current password: ");
+			  out.println("Enter your current password: ");
 			  pwd = in.readLine();
 
-			  String query = String.format("SELECT * FROM USR WHERE userId = '%s' AND password = '%s'", authorisedUser, pwd);
-			  int userNum = esql.executeQuery(query);
+			  String query = "SELECT 1 FROM USR WHERE userId = ? AND password = ?";
+			  int userNum;
 
-			  if( userNum <= 0){
-				System.out.println("\tIncorrect password!");
+			  if( !esql.exists(query, authorisedUser, pwd)){
+				out.println("\tIncorrect password!");
 				return;
 			  }
 
 			  else{
 
-				  System.out.println("Enter your new password ");
+				  out.println("Enter your new password ");
 				  newPwd = in.readLine();
-				  System.out.println("ReEnter your new password: ");
+				  out.println("ReEnter your new password: ");
 				  newPwd2 = in.readLine();
 
 				  if( newPwd.equals(newPwd2)){
-					  query = String.format("UPDATE USR SET password = '%s' WHERE userId='%s' ", newPwd, authorisedUser);
-					  userNum = esql.executeQuery(query);
-					  System.out.println(userNum);
+					  query = "UPDATE USR SET password = ? WHERE userId = ?";
+					  try {
+						 userNum = esql.executeUpdate(query, newPwd, authorisedUser);
+					  } finally {
+						 esql.profiles().invalidate(authorisedUser);
+					  }
+					  out.println(userNum);
 
 					  if(userNum > 0){
-						System.out.println("\tpassword changed!");
+						out.println("\tpassword changed!");
 					  }
 				  }
 			  }
@@ -772,150 +1440,80 @@ public class ProfNetwork {
 	public static void SendRequest(ProfNetwork esql, String authorisedUser){
 	    try {
 		String requester = authorisedUser.trim();
-		String query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Accept' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Accept'", requester, requester);
-		List<List<String>> result = esql.executeQueryAndReturnResult(query);
-		
-		List<String> tier1_friends = new ArrayList<String>();
-		List<String> tier2_friends = new ArrayList<String>();
-		List<String> tier3_friends = new ArrayList<String>();
-		List<String> all_users = new ArrayList<String>();
-		//System.out.println("1st connection friends: ");
-		//Add Tier1 Friends
-		for (int i=0; i<result.size(); i++) {
-		    tier1_friends.add(result.get(i).get(0).trim());
-		    //System.out.println(result.get(i).get(0));
-		}
-		//Add Tier2 Friends
-		//System.out.println("2nd connection friends: ");
-		for (int i=0; i<tier1_friends.size(); i++) {
-		    requester = tier1_friends.get(i);
-		    query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Accept' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Accept'", requester, requester);
-		    result = esql.executeQueryAndReturnResult(query);
-		    for (int j=0; j<result.size(); j++) {
-			tier2_friends.add(result.get(j).get(0).trim());
-			//System.out.println(result.get(j).get(0));
-		    }
-		}
-		//Add Tier3 Friends
-		//System.out.println("3rd connection friends: ");
-		for (int i=0; i<tier2_friends.size(); i++) {
-		    requester = tier2_friends.get(i);
-		    query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Accept' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Accept'", requester, requester);
-		    result = esql.executeQueryAndReturnResult(query);
-		    for (int j=0; j<result.size(); j++) {
-			tier3_friends.add(result.get(j).get(0).trim());
-			//System.out.println(result.get(j).get(0));
-		    }
-		}
-		requester = authorisedUser.trim();
-		//Make all users list
-		//System.out.println("All users list: ");
-		query = String.format("Select userId FROM USR");
-		result = esql.executeQueryAndReturnResult(query);
-		for (int i=0; i<result.size(); i++) {
-		    all_users.add(result.get(i).get(0).trim());
-		    //System.out.println(result.get(i).get(0));
-		}
+		Set<String> tier1_friends = new HashSet<String>(esql.graph().friends(requester, ConnectionGraph.ACCEPT));
 		
 		
 		//Make valid connections list
 		boolean addanyoneflag = false;
-		List<String> valid_connections = new ArrayList<String>();
+		Set<String> valid_connections = new LinkedHashSet<String>();
 		if (tier1_friends.size() < 5) { // up to 5 connections, can do anyone
 		    addanyoneflag = true;
-		    System.out.println("You only have " + tier1_friends.size() + " friends.");
-		    System.out.println("You have less than 5 friends. Add anyone you want!");
+		    out.println("You only have " + tier1_friends.size() + " friends.");
+		    out.println("You have less than 5 friends. Add anyone you want!");
 		}
 		else {
-		    System.out.println("Valid users to add");
-		    //System.out.println("CUR AUTHROISED USER IS: " + authorisedUser);
-		    for (int i=0; i<tier2_friends.size(); i++) {
-			String tmpfriend = tier2_friends.get(i).trim();
-			if (!tier1_friends.contains(tmpfriend) && !valid_connections.contains(tmpfriend) && !tmpfriend.trim().equals(requester)) {
-			    valid_connections.add(tmpfriend);
-			    System.out.println(tmpfriend);
-			}
-		    }
-		    for (int i=0; i<tier3_friends.size(); i++) {
-			String tmpfriend = tier3_friends.get(i).trim();
-			if (!tier1_friends.contains(tmpfriend) && !valid_connections.contains(tmpfriend) && !tmpfriend.trim().equals(requester)) {
-			    valid_connections.add(tmpfriend);
-			    System.out.println(tmpfriend);
-			}
+		    out.println("Valid users to add");
+		    //out.println("CUR AUTHROISED USER IS: " + authorisedUser);
+		    //Tier2/Tier3 Friends, most mutual friends first
+		    for (ConnectionGraph.Suggestion suggestion : esql.suggestions().get(requester)) {
+			valid_connections.add(suggestion.userId);
+			out.println(suggestion.userId + (suggestion.mutualFriends > 0 ? "\t(" + suggestion.mutualFriends + " mutual)" : ""));
 		    }
 		}
 		
 		//Pending Friends
-		List<List<String> > pfl_2d = new ArrayList<List<String> >();
-		List<String> pfl = new ArrayList<String>();
-		query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Request' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Request'", requester, requester);
-		pfl_2d = esql.executeQueryAndReturnResult(query);
-		for ( int i = 0; i < pfl_2d.size(); ++i){
-		    pfl.add((pfl_2d.get(i).get(0)).trim());
-		    //System.out.println(pfl_2d.get(i).get(0));
-		}
+		Set<String> pfl = new HashSet<String>(esql.graph().friends(requester, ConnectionGraph.REQUEST));
 				
 		//Rejected Friends
-		List<List<String> > rfl_2d = new ArrayList<List<String> >();
-		List<String> rfl = new ArrayList<String>();
-		query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Reject' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Reject'", authorisedUser, authorisedUser);
-		rfl_2d = esql.executeQueryAndReturnResult(query);
-		for ( int i = 0; i < rfl_2d.size(); ++i){
-		    rfl.add(rfl_2d.get(i).get(0).trim());
-		    //System.out.println(rfl_2d.get(i).get(0));
-		}
+		Set<String> rfl = new HashSet<String>(esql.graph().friends(requester, ConnectionGraph.REJECT));
 	      
 		
 		//Adding the connection
-		System.out.println("Type in a user to add: ");
+		out.println("Type in a user to add: ");
 		String input = in.readLine();
-		input = input.trim();
-		//System.out.println("Your input was: " + input);
-		//System.out.println("Requester was: " + requester);
+		input = completeUserId(esql, input.trim(), addanyoneflag ? null : valid_connections);
+		//out.println("Your input was: " + input);
+		//out.println("Requester was: " + requester);
 		
 		if (addanyoneflag==false) {
-		    //System.out.println("Can only add from up to 3 levels of connections");
+		    //out.println("Can only add from up to 3 levels of connections");
 		    if (valid_connections.contains(input)) {
 			if (pfl.contains(input)) {
-			    query = String.format("UPDATE CONNECTION_USR SET status='Request' WHERE (userId='%s' AND connectionId='%s') OR (userId='%s' AND connectionId='%s')", input, requester, requester, input);
-			    System.out.println("There is already a pending friend request");
+			    esql.connections().setStatus(input, requester, ConnectionGraph.REQUEST);
+			    out.println("There is already a pending friend request");
 			}
 			else if (rfl.contains(input)) {
-			    query = String.format("UPDATE CONNECTION_USR SET status='Request' WHERE (userId='%s' AND connectionId='%s') OR (userId='%s' AND connectionId='%s')", input, requester, requester, input);
-			    System.out.println("The friend request was previously rejected");
+			    esql.connections().setStatus(input, requester, ConnectionGraph.REQUEST);
+			    out.println("The friend request was previously rejected");
 			}
 			else {
-			    query = String.format("INSERT INTO CONNECTION_USR (userId, connectionId, status) VALUES ('%s','%s','Request')", requester, input);
+			    esql.connections().request(requester, input);
 			}
-			//System.out.println("Query will be " + query);
-			esql.executeUpdate(query);
-			System.out.println("You have sent a friend request to " +  input);
+			out.println("You have sent a friend request to " +  input);
 		    }
 		    else {
-			System.out.println("Invalid input");
+			out.println("Invalid input");
 			return;
 		    }
 		}
 		else {
-		    //System.out.println("Add anyone not yourself or already friends");
-		    if (!input.equals(requester) && !tier1_friends.contains(input) && all_users.contains(input)) {
+		    //out.println("Add anyone not yourself or already friends");
+		    if (!input.equals(requester) && !tier1_friends.contains(input) && esql.users().exists(input)) {
 			if (pfl.contains(input)) {
-			    query = String.format("UPDATE CONNECTION_USR SET status='Request' WHERE (userId='%s' AND connectionId='%s') OR (userId='%s' AND connectionId='%s')", input, requester, requester, input);
-			    System.out.println("There is already a pending friend request");
+			    esql.connections().setStatus(input, requester, ConnectionGraph.REQUEST);
+			    out.println("There is already a pending friend request");
 			}
 			else if (rfl.contains(input)) {
-			    query = String.format("UPDATE CONNECTION_USR SET status='Request' WHERE (userId='%s' AND connectionId='%s') OR (userId='%s' AND connectionId='%s')", input, requester, requester, input);
-			    System.out.println("The friend request was previously rejected");
+			    esql.connections().setStatus(input, requester, ConnectionGraph.REQUEST);
+			    out.println("The friend request was previously rejected");
 			}
 			else {
-			    query = String.format("INSERT INTO CONNECTION_USR (userId, connectionId, status) VALUES ('%s','%s','Request')", requester, input);
+			    esql.connections().request(requester, input);
 			}
-			//System.out.println("Query will be " + query);
-			esql.executeUpdate(query);
-			System.out.println("You have sent a friend request to " +  input);
+			out.println("You have sent a friend request to " +  input);
 		    }
 		    else {
-			System.out.println("Invalid input");
+			out.println("Invalid input");
 			return;
 		    }
 		}
@@ -929,147 +1527,69 @@ public class ProfNetwork {
     public static void SendRequestToSpecificUser(ProfNetwork esql, String authorisedUser, String requestedUser){
 	try {
 	    String requester = authorisedUser.trim();
-	    String query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Accept' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Accept'", requester, requester);
-	    List<List<String>> result = esql.executeQueryAndReturnResult(query);
-	    
-	    List<String> tier1_friends = new ArrayList<String>();
-	    List<String> tier2_friends = new ArrayList<String>();
-	    List<String> tier3_friends = new ArrayList<String>();
-	    List<String> all_users = new ArrayList<String>();
-	    //System.out.println("1st connection friends: ");
-	    //Add Tier1 Friends
-	    for (int i=0; i<result.size(); i++) {
-		tier1_friends.add(result.get(i).get(0).trim());
-		//System.out.println(result.get(i).get(0));
-	    }
-	    //Add Tier2 Friends
-	    //System.out.println("2nd connection friends: ");
-	    for (int i=0; i<tier1_friends.size(); i++) {
-		requester = tier1_friends.get(i);
-		query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Accept' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Accept'", requester, requester);
-		result = esql.executeQueryAndReturnResult(query);
-		for (int j=0; j<result.size(); j++) {
-		    tier2_friends.add(result.get(j).get(0).trim());
-		    //System.out.println(result.get(j).get(0));
-		}
-	    }
-	    //Add Tier3 Friends
-	    //System.out.println("3rd connection friends: ");
-	    for (int i=0; i<tier2_friends.size(); i++) {
-		requester = tier2_friends.get(i);
-		query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Accept' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Accept'", requester, requester);
-		result = esql.executeQueryAndReturnResult(query);
-		for (int j=0; j<result.size(); j++) {
-		    tier3_friends.add(result.get(j).get(0).trim());
-		    //System.out.println(result.get(j).get(0));
-		}
-	    }
-	    requester = authorisedUser.trim();
-	    //Make all users list
-	    //System.out.println("All users list: ");
-	    query = String.format("Select userId FROM USR");
-	    result = esql.executeQueryAndReturnResult(query);
-	    for (int i=0; i<result.size(); i++) {
-		all_users.add(result.get(i).get(0).trim());
-		//System.out.println(result.get(i).get(0));
-	    }
-	    
-	    
-	    //Make valid connections list
+
+	    //Tier1 Friends
+	    Set<String> tier1_friends = new HashSet<String>(esql.graph().friends(requester, ConnectionGraph.ACCEPT));
+
 	    boolean addanyoneflag = false;
-	    List<String> valid_connections = new ArrayList<String>();
 	    if (tier1_friends.size() < 5) { // up to 5 connections, can do anyone
 		addanyoneflag = true;
-		//System.out.println("You only have " + tier1_friends.size() + " friends.");
-		//System.out.println("You have less than 5 friends. Add anyone you want!");
-	    }
-	    else {
-		System.out.println("Valid users to add");
-		//System.out.println("CUR AUTHROISED USER IS: " + authorisedUser);
-		for (int i=0; i<tier2_friends.size(); i++) {
-		    String tmpfriend = tier2_friends.get(i).trim();
-		    if (!tier1_friends.contains(tmpfriend) && !valid_connections.contains(tmpfriend) && !tmpfriend.trim().equals(requester)) {
-			valid_connections.add(tmpfriend);
-			//System.out.println(tmpfriend);
-		    }
-		}
-		for (int i=0; i<tier3_friends.size(); i++) {
-		    String tmpfriend = tier3_friends.get(i).trim();
-		    if (!tier1_friends.contains(tmpfriend) && !valid_connections.contains(tmpfriend) && !tmpfriend.trim().equals(requester)) {
-			valid_connections.add(tmpfriend);
-			//System.out.println(tmpfriend);
-		    }
-		}
+		//out.println("You only have " + tier1_friends.size() + " friends.");
+		//out.println("You have less than 5 friends. Add anyone you want!");
 	    }
 	    
 	    //Pending Friends
-	    List<List<String> > pfl_2d = new ArrayList<List<String> >();
-	    List<String> pfl = new ArrayList<String>();
-	    query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Request' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Request'", requester, requester);
-	    pfl_2d = esql.executeQueryAndReturnResult(query);
-	    for ( int i = 0; i < pfl_2d.size(); ++i){
-		pfl.add((pfl_2d.get(i).get(0)).trim());
-		//System.out.println(pfl_2d.get(i).get(0));
-	    }
+	    Set<String> pfl = new HashSet<String>(esql.graph().friends(requester, ConnectionGraph.REQUEST));
 	    
 	    //Rejected Friends
-	    List<List<String> > rfl_2d = new ArrayList<List<String> >();
-	    List<String> rfl = new ArrayList<String>();
-	    query = String.format("Select C.connectionId FROM CONNECTION_USR C WHERE C.userId='%s' AND C.status='Reject' UNION Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Reject'", authorisedUser, authorisedUser);
-	    rfl_2d = esql.executeQueryAndReturnResult(query);
-	    for ( int i = 0; i < rfl_2d.size(); ++i){
-		rfl.add(rfl_2d.get(i).get(0).trim());
-		//System.out.println(rfl_2d.get(i).get(0));
-	    }
+	    Set<String> rfl = new HashSet<String>(esql.graph().friends(requester, ConnectionGraph.REJECT));
 	    
 	    
 	    //Adding the connection
-	    System.out.println("Type in a user to add: ");
+	    out.println("Type in a user to add: ");
 	    String input = requestedUser.trim();
 	    
 	    if (addanyoneflag==false) {
-		//System.out.println("Can only add from up to 3 levels of connections");
-		if (valid_connections.contains(input)) {
+		//out.println("Can only add from up to 3 levels of connections");
+		//Tier2/Tier3 Friends are 2 or 3 accepted connections away
+		int degrees = esql.graph().degreesOfSeparation(requester, input, 3);
+		if (degrees >= 2) {
 		    if (pfl.contains(input)) {
-			query = String.format("UPDATE CONNECTION_USR SET status='Request' WHERE (userId='%s' AND connectionId='%s') OR (userId='%s' AND connectionId='%s')", input, requester, requester, input);
-			System.out.println("There is already a pending friend request");
+			esql.connections().setStatus(input, requester, ConnectionGraph.REQUEST);
+			out.println("There is already a pending friend request");
 		    }
 		    else if (rfl.contains(input)) {
-			    query = String.format("UPDATE CONNECTION_USR SET status='Request' WHERE (userId='%s' AND connectionId='%s') OR (userId='%s' AND connectionId='%s')", input, requester, requester, input);
-			    System.out.println("The friend request was previously rejected");
+			    esql.connections().setStatus(input, requester, ConnectionGraph.REQUEST);
+			    out.println("The friend request was previously rejected");
 			}
 			else {
-			    query = String.format("INSERT INTO CONNECTION_USR (userId, connectionId, status) VALUES ('%s','%s','Request')", requester, input);
+			    esql.connections().request(requester, input);
 			}
-			//System.out.println("Query will be " + query);
-			esql.executeUpdate(query);
-			System.out.println("You have sent a friend request to " +  input);
+			out.println("You have sent a friend request to " +  input);
 		    }
 		    else {
-			System.out.println("You are not able to send a friend request to this user");
+			out.println("You are not able to send a friend request to this user");
 			return;
 		    }
 		}
 		else {
-		    //System.out.println("Add anyone not yourself or already friends");
-		    if (!input.equals(requester) && !tier1_friends.contains(input) && all_users.contains(input)) {
+		    //out.println("Add anyone not yourself or already friends");
+		    if (!input.equals(requester) && !tier1_friends.contains(input) && esql.users().exists(input)) {
 			if (pfl.contains(input)) {
-			    query = String.format("UPDATE CONNECTION_USR SET status='Request' WHERE (userId='%s' AND connectionId='%s') OR (userId='%s' AND connectionId='%s')", input, requester, requester, input);
-			    System.out.println("There is already a pending friend request");
+			    esql.connections().setStatus(input, requester, ConnectionGraph.REQUEST);
+			    out.println("There is already a pending friend request");
 			}
 			else if (rfl.contains(input)) {
-			    query = String.format("UPDATE CONNECTION_USR SET status='Request' WHERE (userId='%s' AND connectionId='%s') OR (userId='%s' AND connectionId='%s')", input, requester, requester, input);
-			    System.out.println("The friend request was previously rejected");
+			    esql.connections().setStatus(input, requester, ConnectionGraph.REQUEST);
+			    out.println("The friend request was previously rejected");
 			}
 			else {
-			    query = String.format("INSERT INTO CONNECTION_USR (userId, connectionId, status) VALUES ('%s','%s','Request')", requester, input);
+			    esql.connections().request(requester, input);
 			}
-			//System.out.println("Query will be " + query);
-			esql.executeUpdate(query);
-			System.out.println("You have sent a friend request to " +  input);
+			out.println("You have sent a friend request to " +  input);
 		    }
 		    else {
-			System.out.println("You are not able to send a friend request to this user");
+			out.println("You are not able to send a friend request to this user");
 			return;
 		    }
 		}
@@ -1083,20 +1603,23 @@ public class ProfNetwork {
 	  try{
 
 		List<List<String>> friendsFriends = FriendList(esql, authorisedUser);
-		System.out.println("Enter the name of the user you would like to look at: ");
-		String requestedUser = in.readLine().trim();
+		out.println("Enter the name of the user you would like to look at: ");
+		List<String> friendIds = new ArrayList<String>();
+		for (List<String> friend : friendsFriends)
+			friendIds.add(friend.get(0).trim());
+		String requestedUser = completeUserId(esql, in.readLine().trim(), friendIds);
 
 		for ( int i=0 ; i < friendsFriends.size() ; ++i){
 
 			if(friendsFriends.get(i).get(0).trim().equals(requestedUser)){
 				displayProfile(esql, requestedUser);
 
-				System.out.println("\nSelect an option: ");
-				System.out.println("---------");
-				System.out.println("1. Lookup a Profile on the friends list");
-				System.out.println("2. Send this person a message");
-				System.out.println("3. Send a connection request");
-				System.out.println("4. Menu");
+				out.println("\nSelect an option: ");
+				out.println("---------");
+				out.println("1. Lookup a Profile on the friends list");
+				out.println("2. Send this person a message");
+				out.println("3. Send a connection request");
+				out.println("4. Menu");
 
 
 			  switch (readChoice()){                   
@@ -1104,13 +1627,13 @@ public class ProfNetwork {
 				 case 2: NewMessage(esql, authorisedUser, requestedUser); return;
 			  case 3: SendRequestToSpecificUser(esql, authorisedUser, requestedUser);return;
 				 case 4: return; 
-				 default : System.out.println("Unrecognized choice!"); break;
+				 default : out.println("Unrecognized choice!"); break;
 				}
 				return;
 			}
 		}
 
-		System.out.println("\n Requested User not found");
+		out.println("\n Requested User not found");
 		return;
 	}catch (Exception e) {
 	    System.err.println(e.getMessage());}
@@ -1121,19 +1644,18 @@ public class ProfNetwork {
 	  String requestedUser;
 
 	  try{
-		System.out.println("Enter the name of the user you would like to find: ");
-		requestedUser = in.readLine();
-		System.out.println("Searching....\n");
+		out.println("Enter the userId, name, company or school of the user you would like to find: ");
+		requestedUser = in.readLine().trim();
+		out.println("Searching....\n");
 
-		String query = String.format("SELECT * FROM USR WHERE userId = '%s'", requestedUser);
-		int userNum = esql.executeQuery(query);
-
-		if (userNum > 0) {
-		  displayProfile(esql, requestedUser);
+		if (!esql.users().exists(requestedUser)) {
+		  requestedUser = searchUser(esql, requestedUser);
+		  if (requestedUser == null) {
+			return;
+		  }
 		}
-
-		else{
-		  System.out.println("User does not exist.\n");
+		if (!displayProfile(esql, requestedUser)) {
+		  out.println("User does not exist.\n");
 		  return;
 		}
 
@@ -1143,12 +1665,12 @@ public class ProfNetwork {
 	  }
 
 
-	System.out.println("\nSelect an option: ");
-	System.out.println("---------");
-	System.out.println("1. Lookup a Profile on the friends list");
-	System.out.println("2. Send this person a message");
-	System.out.println("3. Send a connection request");
-	System.out.println("4. Menu");
+	out.println("\nSelect an option: ");
+	out.println("---------");
+	out.println("1. Lookup a Profile on the friends list");
+	out.println("2. Send this person a message");
+	out.println("3. Send a connection request");
+	out.println("4. Menu");
 
 
   switch (readChoice()){                   
@@ -1156,47 +1678,109 @@ public class ProfNetwork {
 	 case 2: NewMessage(esql, authorisedUser, requestedUser); return;
   case 3: SendRequestToSpecificUser(esql, authorisedUser, requestedUser);return;
 	 case 4: return; 
-    default : System.out.println("Unrecognized choice!"); break;
+    default : out.println("Unrecognized choice!"); break;
 
 
 	}
 }
 
+	/**
+	   Lists the users matching a search a page at a time
+	   @return the userId picked, or null if none was
+	*/
+	private static String searchUser(ProfNetwork esql, String words) throws Exception {
+	  UserSearch search = esql.search();
+	  if (!search.isBuilt()) {
+		search.build();
+	  }
+	  int offset = 0;
+	  while (true) {
+		UserSearch.Result result = search.search(words, offset, UserSearch.DEFAULT_PAGE_SIZE);
+		if (result.total == 0) {
+		  out.println("No user matches \"" + words + "\".\n");
+		  return null;
+		}
+		out.println(result.total + " users found, showing " + (offset + 1) + "-" + (offset + result.hits.size()) + ":");
+		for (UserSearch.Hit hit : result.hits) {
+		  out.println("\t" + hit.userId + "\t" + (hit.name == null ? "" : hit.name));
+		}
+		out.println("\nType a userId to view" + (result.hasMore() ? ", n for the next page" : "") + ", or press enter to go back: ");
+		String input = in.readLine().trim();
+		if (input.equals("")) {
+		  return null;
+		}
+		if (input.equals("n") && result.hasMore()) {
+		  offset += result.hits.size();
+		  continue;
+		}
+		return input;
+	  }
+	}
+
+	/**
+	   Offers completions when the input is not a userId that can be picked
+	   @param scope the userIds that may be picked, or null for any user
+	   @return the userId picked from the completions, or input unchanged
+	*/
+	private static String completeUserId(ProfNetwork esql, String input, Collection<String> scope) throws Exception {
+	  if (input.equals("") || (scope != null ? scope.contains(input) : esql.users().exists(input))) {
+		return input;
+	  }
+	  Typeahead typeahead = esql.typeahead();
+	  if (!typeahead.isBuilt()) {
+		typeahead.build(esql);
+	  }
+	  List<String> matches = typeahead.complete(input, Typeahead.DEFAULT_K, scope);
+	  if (matches.isEmpty()) {
+		return input;
+	  }
+	  out.println("No user " + input + ", did you mean:");
+	  for (int i = 0; i < matches.size(); ++i) {
+		String name = typeahead.nameOf(matches.get(i));
+		out.println("\t" + (i + 1) + ". " + matches.get(i) + (name == null ? "" : "\t" + name));
+	  }
+	  out.println("Type the number of the user, or press enter to keep " + input + ": ");
+	  String choice = in.readLine().trim();
+	  for (int i = 0; i < matches.size(); ++i) {
+		if (choice.equals(String.valueOf(i + 1))) {
+		  return matches.get(i);
+		}
+	  }
+	  return input;
+	}
+
     public static void AcceptRejectConnectionRequests(ProfNetwork esql, String authorisedUser) {
 	try {
 	    String requester = authorisedUser.trim();
 	    
-	    System.out.println("You have pending requests from: ");
+	    out.println("You have pending requests from: ");
 	    //Pending Friends
-	    List<List<String> > pfl_2d = new ArrayList<List<String> >();
-	    List<String> pfl = new ArrayList<String>();
-	    String query = String.format("Select C2.userId FROM CONNECTION_USR C2 WHERE C2.connectionId='%s' AND C2.status='Request'", requester);
-	    pfl_2d = esql.executeQueryAndReturnResult(query);
-	    for ( int i = 0; i < pfl_2d.size(); ++i){
-		//System.out.print(i + ". ");
-		System.out.print("\t");
-		pfl.add((pfl_2d.get(i).get(0)).trim());
-		System.out.println(pfl_2d.get(i).get(0));
+	    List<String> pfl = esql.connections().pendingRequests(requester);
+	    for ( int i = 0; i < pfl.size(); ++i){
+		//out.print(i + ". ");
+		out.print("\t");
+		out.println(pfl.get(i));
 	    }
 	    
-	    System.out.println("Input the user to Accept/Reject: ");
+	    out.println("Input the user to Accept/Reject: ");
 	    String user = in.readLine();
 	    user = user.trim();
 	    if (pfl.contains(user)) {
-		System.out.println("Accept (y)\nReject (n)");
+		out.println("Accept (y)\nReject (n)");
 		String input = in.readLine();
 		input = input.trim();
-		if (input.equals("y")) { query = String.format("UPDATE CONNECTION_USR SET status='Accept' WHERE (userId='%s' AND connectionId='%s') OR (userId='%s' AND connectionId='%s')", user, requester, requester, user); }
-		else if (input.equals("n")) { query = String.format("UPDATE CONNECTION_USR SET status='Reject' WHERE (userId='%s' AND connectionId='%s') OR (userId='%s' AND connectionId='%s')", user, requester, requester, user); }
+		String status;
+		if (input.equals("y")) { status = ConnectionGraph.ACCEPT; }
+		else if (input.equals("n")) { status = ConnectionGraph.REJECT; }
 		else { 
-		    System.out.println("Invalid input"); 
+		    out.println("Invalid input"); 
 		    return;
 		}
-		esql.executeUpdate(query);
-		System.out.println("Connection has been updated");
+		esql.connections().setStatus(user, requester, status);
+		out.println("Connection has been updated");
 	    }
 	    else {
-		System.out.println("Invalid input of userId");
+		out.println("Invalid input of userId");
 		return;
 	    }
 	} catch (Exception e) {
@@ -1205,90 +1789,90 @@ public class ProfNetwork {
     }
    
 
-	public static void displayProfile(ProfNetwork esql, String authorisedUser){
+	/**
+	   Prints the profile of a user
+	   @return false if the user does not exist
+	*/
+	public static boolean displayProfile(ProfNetwork esql, String authorisedUser){
 	try{
-		String query = String.format("SELECT email, name , dateOfBirth FROM USR WHERE userId='%s'", authorisedUser );  
-		List<List<String> > usrArray = new ArrayList<List<String> >();
-		usrArray = esql.executeQueryAndReturnResult(query);
-		//replaceNulls(usrArray);
-		String email = usrArray.get(0).get(0).trim();
-		String usr = usrArray.get(0).get(1);
-		String date = usrArray.get(0).get(2);
-
-
-		System.out.println( usr.trim() + "'s profie:");
-		System.out.println("========================="  + "\n");
-
-		System.out.println("Email: " + email + "\n");
-		System.out.println("Birthday: " + date + "\n");
-
-
-		System.out.println("Work Info:");
-		System.out.println("========================="  + "\n");
-
-		query = String.format("SELECT * FROM WORK_EXPR WHERE userId='%s'", authorisedUser );  
-		usrArray = esql.executeQueryAndReturnResult(query);
+		Profile profile = Profile.fetch(esql, authorisedUser);
+		if (profile == null) {
+		    return false;
+		}
 
+		out.println( profile.name + "'s profie:");
+		out.println("========================="  + "\n");
 
-		String company  = usrArray.get(0).get(1);
-		String role = usrArray.get(0).get(2);
-		String location = usrArray.get(0).get(3);
-		String start = usrArray.get(0).get(4);
-		String end = usrArray.get(0).get(5);
+		out.println("Email: " + profile.email + "\n");
+		out.println("Birthday: " + profile.dateOfBirth + "\n");
 
-		System.out.println( "Current company: " + company);
-		System.out.println("Role: " + role);
-		System.out.println("Location: " + location);
-		System.out.println("Start Date: " + start);
-		System.out.println("End Date: " + end + "\n");
 
-		query = String.format("SELECT * FROM EDUCATIONAL_DETAILS WHERE userId='%s'", authorisedUser );  
-		usrArray = esql.executeQueryAndReturnResult(query);
+		out.println("Work Info:");
+		out.println("========================="  + "\n");
 
+		for (Profile.Work work : profile.work) {
+		    out.println( "Current company: " + work.company);
+		    out.println("Role: " + work.role);
+		    out.println("Location: " + work.location);
+		    out.println("Start Date: " + work.startDate);
+		    out.println("End Date: " + work.endDate + "\n");
+		}
 
-		String institute  = usrArray.get(0).get(1);
-		String major = usrArray.get(0).get(2);
-		String degree = usrArray.get(0).get(3);
-		String startEdu = usrArray.get(0).get(4);
-		String endEdu = usrArray.get(0).get(5);
+		out.println("Educational Details:");
+		out.println("========================="  + "\n");
 
-		System.out.println("Educational Details:");
-		System.out.println("========================="  + "\n");
+		for (Profile.Education edu : profile.education) {
+		    out.println( "Institute: " + edu.institution);
+		    out.println("Major: " + edu.major);
+		    out.println("Degree: " + edu.degree);
+		    out.println("Start Date: " + edu.startDate);
+		    out.println("End Date: " + edu.endDate + "\n");
+		}
 
-		System.out.println( "Institute: " + institute);
-		System.out.println("Major: " + major);
-		System.out.println("Degree: " + degree);
-		System.out.println("Start Date: " + startEdu);
-		System.out.println("End Date: " + endEdu + "\n");
-		ViewFriendsSimple(esql, authorisedUser);
-		return;
+		out.println("\nCurrent Friends");
+		out.println("=========================");
+		for (String friend : profile.friends) {
+		    out.println(friend);
+		}
+		out.println("");
+
+		// someone else's profile: show who the viewer knows in common
+		String viewer = Session.current().user();
+		if (viewer != null && !viewer.trim().equals(profile.userId)) {
+		    List<String> mutual = esql.graph().mutualFriends(viewer, profile.userId);
+		    out.println("Mutual Friends (" + mutual.size() + ")");
+		    out.println("=========================");
+		    for (String friend : mutual) {
+		        out.println(friend);
+		    }
+		    out.println("");
+		}
 
 	}catch(Exception e){
-	//System.err.println (e.getMessage ());
-	//return ;
+		System.err.println (e.getMessage ());
 	}
+	return true;
 	} 
 
 
 	public static void replyInbox(ProfNetwork esql, String authorisedUser){
 	try{
 
-		System.out.println("\nType ID of message you would like to reply to:");
+		out.println("\nType ID of message you would like to reply to:");
 		String replyID= in.readLine().trim();
 		List<List<String> > msgTable = new ArrayList<List<String> >();
 
 
-		String query = String.format("SELECT senderId ,receiverId FROM MESSAGE WHERE receiverId='%s' AND msgId = %s " , authorisedUser, replyID);  
-		int resultNum = esql.executeQuery(query);
+		String query = "SELECT senderId ,receiverId FROM MESSAGE WHERE receiverId=? AND msgId = ?";
+		msgTable = esql.executeQueryAndReturnResult(query, authorisedUser, Integer.parseInt(replyID));
 
-		if(resultNum > 0){
-			msgTable = esql.executeQueryAndReturnResult(query);
+		if(!msgTable.isEmpty()){
 			NewMessage(esql, msgTable.get(0).get(1).trim() , msgTable.get(0).get(0).trim() );
 			return;
 		}
 
 		else{
-			System.out.println("Invalid Message ID\n");
+			out.println("Invalid Message ID\n");
 			return;
 		}
 
@@ -1310,104 +1894,103 @@ public class ProfNetwork {
 
 		boolean oneSideDelted = false;
 
-		System.out.println("\nType ID of message you would like to Delete:");
+		out.println("\nType ID of message you would like to Delete:");
 		String replyID= in.readLine().trim();
 		List<List<String> > msgTable = new ArrayList<List<String> >();
 		String query = "";
 		if( user.equals("reciver") ){
-			 query = String.format("SELECT msgId , deleteStatus FROM MESSAGE WHERE receiverId='%s' AND msgId = %s " , authorisedUser, replyID);  
+			 query = "SELECT msgId , deleteStatus FROM MESSAGE WHERE receiverId=? AND msgId = ?";
 		}
 		else{
-			 query = String.format("SELECT msgId , deleteStatus FROM MESSAGE WHERE senderId='%s' AND msgId = %s " , authorisedUser, replyID);  
+			 query = "SELECT msgId , deleteStatus FROM MESSAGE WHERE senderId=? AND msgId = ?";
 		}
 
 
-		msgTable = esql.executeQueryAndReturnResult(query);
-		int resultNum = esql.executeQuery(query);
+		msgTable = esql.executeQueryAndReturnResult(query, authorisedUser, Integer.parseInt(replyID));
 
-		if(resultNum > 0){
+		if(!msgTable.isEmpty()){
 			if( user.equals("reciver")){
 
 				if(msgTable.get(0).get(1).equals("0")){
-					query = String.format("UPDATE MESSAGE SET deleteStatus = 2  WHERE msgId='%s'  ", msgTable.get(0).get(0) );
+					query = "UPDATE MESSAGE SET deleteStatus = 2 WHERE msgId = ?";
 				}
 
 				else {
-					query = String.format("UPDATE MESSAGE SET deleteStatus = 3  WHERE msgId='%s'  ", msgTable.get(0).get(0) );					
+					query = "UPDATE MESSAGE SET deleteStatus = 3 WHERE msgId = ?";					
 				}
 			}
 			else{
 
 				if(msgTable.get(0).get(1).equals("0") ) {
-					query = String.format("UPDATE MESSAGE SET deleteStatus = 1  WHERE msgId='%s'  ", msgTable.get(0).get(0) );
+					query = "UPDATE MESSAGE SET deleteStatus = 1 WHERE msgId = ?";
 				}
 
 				else{
-					query = String.format("UPDATE MESSAGE SET deleteStatus = 3  WHERE msgId='%s'  ", msgTable.get(0).get(0) );					
+					query = "UPDATE MESSAGE SET deleteStatus = 3 WHERE msgId = ?";					
 				}				
 
 			}
 			
-			msgTable = esql.executeQueryAndReturnResult(query);
-			System.out.println("Message deleted\n");
+			esql.executeUpdate(query, Integer.parseInt(msgTable.get(0).get(0).trim()));
+			out.println("Message deleted\n");
 
 			return;
 		}
 
 		else{
-			System.out.println("Invalid Message ID\n");
+			out.println("Invalid Message ID\n");
 			return;
 		}
 
 	}catch(Exception e){
-			//System.err.println(e.getMessage() );}
+			System.err.println(e.getMessage() );}
 
 		return;
 	}
-}
 
 	public static void seeInbox(ProfNetwork esql, String authorisedUser){
 
-		List<List<String> > msgTable = new ArrayList<List<String> >();
-	
 		try{
 
-			String query = String.format("SELECT * FROM MESSAGE WHERE receiverId='%s' AND status != 'Failed to Deliver' AND status != 'Draft' AND deleteStatus != 2 AND deleteStatus != 3" , authorisedUser );  
-			
-			int numResult = esql.executeQuery(query);
-			if (numResult <= 0){
-				System.out.println("Inbox is empty!\n");
-				return;
-			}
-
-			msgTable = esql.executeQueryAndReturnResult(query);
-
-	    	for(int i = 0; i  < msgTable.size();  i++) {
+			Mailbox.Message after = null;
+			while (true) {
+				Mailbox.Page page = Mailbox.inbox(esql, authorisedUser, after, Mailbox.DEFAULT_PAGE_SIZE);
+				if (after == null && page.messages.isEmpty()){
+					out.println("Inbox is empty!\n");
+					return;
+				}
 
-	    		List<String> msgRow = msgTable.get(i);
-				System.out.println( "From "  + msgRow.get(1).trim() + ":\tMessage ID: " + msgRow.get(0).trim() + "\tSent: " +  msgRow.get(4).trim()  ); 
-				System.out.println("========================================================================="  + "\n");
-				System.out.println(msgRow.get(3).trim()  );
-				
-				//query = String.format("SELECT * FROM MESSAGE WHERE senderId='%s' " , authorisedUser,authorisedUser );  
-			    query = String.format("UPDATE MESSAGE SET status = 'Read' WHERE msgId='%s'  ", msgRow.get(0) );
-			    esql.executeUpdate(query);
-			} 
-
-			System.out.println("\nSelect an option: ");
-			System.out.println("---------");
-			System.out.println("1. Reply to a Message");
-			System.out.println("2. Delete a message");
-			System.out.println("3. Go Back");
-
-
-			switch (readChoice()){  
-				case 1: replyInbox(esql, authorisedUser);                 
-				case 2: delInbox(esql, authorisedUser, "reciver" ); break;
-				case 3: return; 
-				default : System.out.println("Unrecognized choice!"); break;
+				List<Integer> unread = new ArrayList<Integer>();
+				for (Mailbox.Message msg : page.messages) {
+					out.println( "From "  + msg.senderId + ":\tMessage ID: " + msg.msgId + "\tSent: " +  msg.sendTime  ); 
+					out.println("========================================================================="  + "\n");
+					out.println(msg.contents  );
+					if (!msg.status.equals("Read"))
+					   unread.add(msg.msgId);
+				} 
+
+				// marks the page as read with one update after rendering it
+				String query = "UPDATE MESSAGE SET status = 'Read' WHERE receiverId = ? AND msgId IN (%s)";
+				esql.executeUpdateIn(query, unread, authorisedUser);
+
+				out.println("\nSelect an option: ");
+				out.println("---------");
+				out.println("1. Reply to a Message");
+				out.println("2. Delete a message");
+				out.println("3. Go Back");
+				if (page.hasMore)
+					out.println("4. Next page");
+
+
+				switch (readChoice()){  
+					case 1: replyInbox(esql, authorisedUser);                 
+					case 2: delInbox(esql, authorisedUser, "reciver" ); break;
+					case 3: return; 
+					case 4: if (page.hasMore) { after = page.last(); continue; } out.println("Unrecognized choice!"); break;
+					default : out.println("Unrecognized choice!"); break;
+				}
+				return;
 			}
-
 	
 		}catch(Exception e){
 			System.err.println(e.getMessage() );}
@@ -1417,39 +2000,39 @@ public class ProfNetwork {
 	}
 
 	public static void printSentMsg( ProfNetwork esql, String authorisedUser){
-		List<List<String> > msgTable = new ArrayList<List<String> >();
-		System.out.println("");
+		out.println("");
 		try{
 
-		String query = String.format("SELECT * FROM MESSAGE WHERE senderId='%s' AND status != 'Failed to Deliver' AND status != 'Draft' AND deleteStatus != 1 AND deleteStatus != 3" , authorisedUser );  
-		
-		int numResult = esql.executeQuery(query);
-		if (numResult <= 0){
-			System.out.println("Inbox is empty!\n");
-			return;
-		}
-		msgTable = esql.executeQueryAndReturnResult(query);
-
-
-    	for(int i = 0; i  < msgTable.size();  i++) {
+		Mailbox.Message after = null;
+		while (true) {
+			Mailbox.Page page = Mailbox.sent(esql, authorisedUser, after, Mailbox.DEFAULT_PAGE_SIZE);
+			if (after == null && page.messages.isEmpty()){
+				out.println("Inbox is empty!\n");
+				return;
+			}
 
-    		List<String> msgRow = msgTable.get(i);
-			System.out.println( "To "  + msgRow.get(2).trim() + ": \t Status: " + msgRow.get(6).trim() + "\tSent: " + msgRow.get(4).trim() + ":\tMessage ID: " + msgRow.get(0).trim() ); 
-			System.out.println("=========================================================================="  + "\n");
-			System.out.println(msgRow.get(3).trim()  );
-		}
+			for (Mailbox.Message msg : page.messages) {
+				out.println( "To "  + msg.receiverId + ": \t Status: " + msg.status + "\tSent: " + msg.sendTime + ":\tMessage ID: " + msg.msgId ); 
+				out.println("=========================================================================="  + "\n");
+				out.println(msg.contents  );
+			}
 
 
-		System.out.println("\nSelect an option: ");
-		System.out.println("---------");
-		System.out.println("1. Delete a message");
-		System.out.println("2. Go Back");
+			out.println("\nSelect an option: ");
+			out.println("---------");
+			out.println("1. Delete a message");
+			out.println("2. Go Back");
+			if (page.hasMore)
+				out.println("3. Next page");
 
 
-		switch (readChoice()){                   
-			case 1: delInbox(esql, authorisedUser, "sender" ); break;
-			case 2: return; 
-			default : System.out.println("Unrecognized choice!"); break;
+			switch (readChoice()){                   
+				case 1: delInbox(esql, authorisedUser, "sender" ); break;
+				case 2: return; 
+				case 3: if (page.hasMore) { after = page.last(); continue; } out.println("Unrecognized choice!"); break;
+				default : out.println("Unrecognized choice!"); break;
+			}
+			return;
 		}
 
 
@@ -1465,20 +2048,27 @@ public class ProfNetwork {
 
 		while (true){  	
 
-			System.out.println("\nSelect an option: ");
-			System.out.println("---------");
-			System.out.println("1. See your inbox");
-			System.out.println("2. View all sent messages");
-			System.out.println("3. Menu");
+			out.println("\nSelect an option: ");
+			out.println("---------");
+			out.println("1. See your inbox");
+			out.println("2. View all sent messages");
+			out.println("3. Menu");
 
 		
-		  switch (readChoice()){                   
+		  int choice = readChoice();
+		  Metrics.Operation operation = beginAction(esql, MESSAGE_ACTIONS, choice);
+		  try {
+		  switch (choice){                   
 			 case 1: seeInbox(esql, authorisedUser); break;
 			 case 2: printSentMsg(esql, authorisedUser); break;
 			 case 3: return; 
 
-			 default : System.out.println("Unrecognized choice!"); break;
+			 default : out.println("Unrecognized choice!"); break;
 		}
+		  } finally {
+			 if (operation != null)
+				operation.end();
+		  }
 		
     	}
 
@@ -1491,25 +2081,19 @@ public class ProfNetwork {
 	}
 
 	public static String getNextMsgID(ProfNetwork esql){
-	List<List<String> > msgNumStringList = new ArrayList<List<String> >();
-	try{
-
-	   String query = String.format ("SELECT max(msgId) from MESSAGE ");
-	   msgNumStringList = esql.executeQueryAndReturnResult(query);
+	  try{
+		 return "" + esql.messageIds().next();
 	  }catch(Exception e){
 		  System.err.println(e.getMessage() );
 	  }
-
-	  int maxID = Integer.parseInt(msgNumStringList.get(0).get(0));
-	  maxID = maxID+1;
-	  return "" + maxID;
+	  return null;
 	}
 
 	public static void NewMessage(ProfNetwork esql, String authorisedUser, String reciver){
 	  try{
 
-	  System.out.println("Type your msg in"); 
-	  System.out.println("========================="  + "\n");
+	  out.println("Type your msg in"); 
+	  out.println("========================="  + "\n");
 
 	  String msg ="";
 	  String line = "_";
@@ -1518,12 +2102,7 @@ public class ProfNetwork {
 		msg += line;
 	  }
 
-	 String newStatus = "Sent";
-	 String n = getNextMsgID(esql).trim();
-	 
-
-	 String query = String.format("INSERT INTO MESSAGE( msgId, senderId, receiverId, contents, sendTime, deleteStatus, status) VALUES ( %s,'%s','%s','%s', current_timestamp ,0, 'Sent' )", n, authorisedUser, reciver, msg);     
-	 esql.executeUpdate(query);
+	 esql.messageIds().insert(authorisedUser, reciver, msg);
 
 
 	  }catch(Exception e){
@@ -1534,12 +2113,7 @@ public class ProfNetwork {
 	public static boolean userExists( ProfNetwork esql, String requestedUser){
 	    try{
 
-			String query = String.format("SELECT * FROM USR WHERE userId='%s' " , requestedUser);  
-			int numResult = esql.executeQuery(query);
-
-			if( numResult > 0){
-				return true;
-			}
+			return esql.users().exists(requestedUser);
 
 		}catch(Exception e){
 			System.err.println(e.getMessage() );
@@ -1552,14 +2126,15 @@ public class ProfNetwork {
 
 	  try{
 
-		  System.out.println("Type the username of the user you would like to send a message to (Enter 'n' to exit) : ");
+		  out.println("Type the username of the user you would like to send a message to (Enter 'n' to exit) : ");
 		  String requestedUser = in.readLine().trim();
 
 		  if( requestedUser.equals("n")){
 			  return;
 		  }
+		  requestedUser = completeUserId(esql, requestedUser, null);
 
-		  else if( userExists( esql, requestedUser) ){ 
+		  if( userExists( esql, requestedUser) ){ 
 
 		  	NewMessage(esql, authorisedUser.trim(), requestedUser);
 
@@ -1567,7 +2142,7 @@ public class ProfNetwork {
 
 		  else{
 
-		  	System.out.println("User not found in friend list");
+		  	out.println("User not found in friend list");
 			return;   
 		}
 
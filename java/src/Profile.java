@@ -0,0 +1,142 @@
+/*
+ * Profile
+ * =======
+ *
+ * Everything displayProfile shows about a user: the USR row, all work
+ * experience and education entries and the accepted friends.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * This class assembles a profile with a single round trip. USR,
+ * WORK_EXPR and EDUCATIONAL_DETAILS are read by one UNION ALL query whose
+ * rows are tagged with the table they came from, and kept in the profile
+ * cache of ProfNetwork; the friends come from the in-memory connection
+ * graph on every fetch.
+ *
+ */
+public class Profile {
+
+   static final String QUERY =
+	"SELECT 'U', CAST(email AS text), CAST(name AS text), CAST(dateOfBirth AS text), CAST(NULL AS text), CAST(NULL AS text) " +
+	"FROM USR WHERE userId = ? " +
+	"UNION ALL " +
+	"SELECT 'W', CAST(company AS text), CAST(role AS text), CAST(location AS text), CAST(startDate AS text), CAST(endDate AS text) " +
+	"FROM WORK_EXPR WHERE userId = ? " +
+	"UNION ALL " +
+	"SELECT 'E', CAST(instituitionName AS text), CAST(major AS text), CAST(degree AS text), CAST(startdate AS text), CAST(enddate AS text) " +
+	"FROM EDUCATIONAL_DETAILS WHERE userId = ?";
+
+   /**
+	* One WORK_EXPR row.
+	*/
+   public static class Work {
+	public final String company;
+	public final String role;
+	public final String location;
+	public final String startDate;
+	public final String endDate;
+
+	Work(String company, String role, String location, String startDate, String endDate) {
+	   this.company = company;
+	   this.role = role;
+	   this.location = location;
+	   this.startDate = startDate;
+	   this.endDate = endDate;
+	}
+   }//end Work
+
+   /**
+	* One EDUCATIONAL_DETAILS row.
+	*/
+   public static class Education {
+	public final String institution;
+	public final String major;
+	public final String degree;
+	public final String startDate;
+	public final String endDate;
+
+	Education(String institution, String major, String degree, String startDate, String endDate) {
+	   this.institution = institution;
+	   this.major = major;
+	   this.degree = degree;
+	   this.startDate = startDate;
+	   this.endDate = endDate;
+	}
+   }//end Education
+
+   public final String userId;
+   public final String email;
+   public final String name;
+   public final String dateOfBirth;
+   public final List<Work> work;
+   public final List<Education> education;
+   public final List<String> friends;
+
+   Profile(String userId, String email, String name, String dateOfBirth,
+	   List<Work> work, List<Education> education, List<String> friends) {
+	this.userId = userId;
+	this.email = email;
+	this.name = name;
+	this.dateOfBirth = dateOfBirth;
+	this.work = Collections.unmodifiableList(work);
+	this.education = Collections.unmodifiableList(education);
+	this.friends = Collections.unmodifiableList(friends);
+   }
+
+   /**
+	* Gets the profile of a user, from the profile cache when possible.
+	*
+	* @param esql the database connection
+	* @param userId the user to read
+	* @return the profile, or null if the user does not exist
+	* @throws java.sql.SQLException when failed to execute the query
+	*/
+   public static Profile fetch(ProfNetwork esql, String userId) throws SQLException {
+	userId = userId.trim();
+	Profile profile = esql.profiles().get(userId);
+	if (profile == null)
+	   return null;
+	return new Profile(profile.userId, profile.email, profile.name, profile.dateOfBirth,
+		profile.work, profile.education, esql.graph().friends(userId, ConnectionGraph.ACCEPT));
+   }
+
+   /**
+	* Reads the profile of a user from the DBMS, without friends.
+	*
+	* @param esql the database connection
+	* @param userId the user to read
+	* @return the profile, or null if the user does not exist
+	* @throws java.sql.SQLException when failed to execute the query
+	*/
+   public static Profile load(ProfNetwork esql, String userId) throws SQLException {
+	List<List<String>> rows = esql.executeQueryAndReturnResult(QUERY, userId, userId, userId);
+
+	List<String> user = null;
+	List<Work> work = new ArrayList<Work>();
+	List<Education> education = new ArrayList<Education>();
+	for (List<String> row : rows) {
+	   String kind = row.get(0);
+	   if (kind.equals("U"))
+		  user = row;
+	   else if (kind.equals("W"))
+		  work.add(new Work(trim(row.get(1)), trim(row.get(2)), trim(row.get(3)), row.get(4), row.get(5)));
+	   else
+		  education.add(new Education(trim(row.get(1)), trim(row.get(2)), trim(row.get(3)), row.get(4), row.get(5)));
+	}
+	if (user == null)
+	   return null;
+	return new Profile(userId, trim(user.get(1)), trim(user.get(2)), user.get(3),
+		work, education, new ArrayList<String>());
+   }
+
+   private static String trim(String value) {
+	return value == null ? null : value.trim();
+   }
+}//end Profile
@@ -0,0 +1,143 @@
+/*
+ * Profile cache
+ * =============
+ *
+ * Read-through cache of assembled profiles. Profiles are read far more
+ * often than they are written, so displayProfile is served from memory and
+ * the writers (CreateUser, updateField, changePass) invalidate the entry of
+ * the user they changed.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * This class keeps up to capacity profiles in least recently used order.
+ * An entry older than the time to live is reloaded on its next read.
+ *
+ */
+public class ProfileCache {
+
+   public static final int DEFAULT_CAPACITY = 4096;
+   public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+
+   /**
+	* Reads a profile on a cache miss.
+	*/
+   public interface Loader {
+	Profile load(String userId) throws SQLException;
+   }
+
+   private static class Entry {
+	final Profile profile;
+	final long loadedAt;
+
+	Entry(Profile profile, long loadedAt) {
+	   this.profile = profile;
+	   this.loadedAt = loadedAt;
+	}
+   }
+
+   private final Loader _loader;
+   private final int _capacity;
+   private final long _ttlMillis;
+   private final LinkedHashMap<String, Entry> _entries;
+
+   // bumped by every invalidation, so a load that raced with one is not cached
+   private long _generation = 0;
+
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _expired = 0;
+   private long _evictions = 0;
+   private long _invalidations = 0;
+
+   public ProfileCache(Loader loader, int capacity, long ttlMillis) {
+	this._loader = loader;
+	this._capacity = capacity;
+	this._ttlMillis = ttlMillis;
+	this._entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+	   protected boolean removeEldestEntry(Map.Entry<String, ProfileCache.Entry> eldest) {
+		  if (size() <= _capacity)
+			 return false;
+		  _evictions++;
+		  return true;
+	   }
+	};
+   }
+
+   /**
+	* @param userId the user to read
+	* @return the cached or freshly loaded profile, or null if the user does not exist
+	* @throws java.sql.SQLException when failed to load the profile
+	*/
+   public Profile get(String userId) throws SQLException {
+	long generation;
+	synchronized (this) {
+	   Entry entry = _entries.get(userId);
+	   if (entry != null) {
+		  if (System.currentTimeMillis() - entry.loadedAt <= _ttlMillis) {
+			 _hits++;
+			 return entry.profile;
+		  }
+		  _expired++;
+		  _entries.remove(userId);
+	   }
+	   _misses++;
+	   generation = _generation;
+	}
+
+	// load outside the lock so other users are not blocked on the DBMS
+	Profile profile = _loader.load(userId);
+	if (profile != null) {
+	   synchronized (this) {
+		  if (generation == _generation)
+			 _entries.put(userId, new Entry(profile, System.currentTimeMillis()));
+	   }
+	}
+	return profile;
+   }
+
+   /**
+	* Drops the cached profile of a user after it was written.
+	*/
+   public synchronized void invalidate(String userId) {
+	_invalidations++;
+	_generation++;
+	_entries.remove(userId.trim());
+   }
+
+   public synchronized void clear() {
+	_generation++;
+	_entries.clear();
+   }
+
+   public synchronized int size() {
+	return _entries.size();
+   }
+
+   public synchronized long hits() {
+	return _hits;
+   }
+
+   public synchronized long misses() {
+	return _misses;
+   }
+
+   /**
+	* @return the fraction of reads answered from the cache
+	*/
+   public synchronized double hitRatio() {
+	long reads = _hits + _misses;
+	return reads == 0 ? 0 : (double) _hits / reads;
+   }
+
+   public synchronized String toString() {
+	return String.format("profile cache: %d cached of %d, hit ratio %.3f (%d hits, %d misses), " +
+		"%d expired, %d evicted, %d invalidated",
+		_entries.size(), _capacity, hitRatio(), _hits, _misses, _expired, _evictions, _invalidations);
+   }
+}//end ProfileCache
@@ -0,0 +1,109 @@
+/*
+ * Row
+ * ===
+ *
+ * The current row of a query streamed by ProfNetwork.executeQueryForEach.
+ * Unlike executeQueryAndReturnResult nothing is copied: the accessors read
+ * the JDBC result set in place, so a scan holds one row (or one fetch) in
+ * memory however many rows it returns.
+ *
+ */
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+
+/**
+ * This class gives typed access to the columns of the current row. A Row
+ * is only valid inside the Handler call it was passed to.
+ *
+ */
+public class Row {
+
+   /**
+	* Called once per row of a streamed query.
+	*/
+   public interface Handler {
+	/**
+	 * @param row the current row
+	 * @return false to stop reading further rows
+	 * @throws java.sql.SQLException when reading a column failed
+	 */
+	boolean row(Row row) throws SQLException;
+   }
+
+   private ResultSet _rs;
+   private int _number = 0;
+
+   Row(ResultSet rs) {
+	this._rs = rs;
+   }
+
+   // continues with the rows of the next FETCH of the same cursor
+   void moveTo(ResultSet rs) {
+	this._rs = rs;
+   }
+
+   // moves to the next row of the result set
+   boolean next() throws SQLException {
+	if (!_rs.next())
+	   return false;
+	_number++;
+	return true;
+   }
+
+   /**
+	* @return the position of this row in the result, starting at 1
+	*/
+   public int number() {
+	return _number;
+   }
+
+   public int columnCount() throws SQLException {
+	return _rs.getMetaData().getColumnCount();
+   }
+
+   /**
+	* @return the column as text, or null
+	*/
+   public String getString(int column) throws SQLException {
+	return _rs.getString(column);
+   }
+
+   /**
+	* @return the column as text without the padding of char(n) columns, or null
+	*/
+   public String getTrimmed(int column) throws SQLException {
+	String value = _rs.getString(column);
+	return value == null ? null : value.trim();
+   }
+
+   /**
+	* @return the column as an int, 0 when it is null
+	*/
+   public int getInt(int column) throws SQLException {
+	return _rs.getInt(column);
+   }
+
+   /**
+	* @return the column as a long, 0 when it is null
+	*/
+   public long getLong(int column) throws SQLException {
+	return _rs.getLong(column);
+   }
+
+   public java.sql.Date getDate(int column) throws SQLException {
+	return _rs.getDate(column);
+   }
+
+   public java.sql.Timestamp getTimestamp(int column) throws SQLException {
+	return _rs.getTimestamp(column);
+   }
+
+   /**
+	* @return true if the column last read with a getter was null
+	*/
+   public boolean wasNull() throws SQLException {
+	return _rs.wasNull();
+   }
+}//end Row
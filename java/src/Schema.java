@@ -0,0 +1,251 @@
+/*
+ * Schema
+ * ======
+ *
+ * The indexes the application relies on, and a check of the plans of its
+ * hot queries. The tables from create_tables.sql only have their primary
+ * keys, so the inbox, the sent box and the pending requests were read by
+ * scanning MESSAGE and CONNECTION_USR whole. provision() creates an index
+ * for each of them, with the columns and the predicate of the query that
+ * uses it; check() runs EXPLAIN on every query template and warns when
+ * one still scans a table sequentially.
+ *
+ * Usage: Schema <dbname> <port> <user> [--provision | --check]
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * This class keeps the list of indexes and query templates. Provisioning
+ * only creates what is missing, so it runs on every start. The lookups
+ * of WORK_EXPR and EDUCATIONAL_DETAILS by userId, and of MESSAGE by
+ * msgId, already use a primary key and need nothing more.
+ *
+ */
+public class Schema {
+
+   // tables with fewer rows than this are scanned without a warning, since
+   // the planner rightly prefers a scan over an index for them
+   static final int MIN_ROWS = 1000;
+
+   private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+
+   /**
+	* An index provision() creates.
+	*/
+   public static class Index {
+	public final String name;
+	public final String table;
+	public final String definition;
+
+	Index(String name, String table, String definition) {
+	   this.name = name;
+	   this.table = table;
+	   this.definition = definition;
+	}
+
+	public String ddl() {
+	   return "CREATE INDEX " + name + " ON " + table + " " + definition;
+	}
+   }//end Index
+
+   /**
+	* The indexes, each matching the predicate of the query it serves. The
+	* mailbox ones only hold the messages the box shows and are ordered
+	* like its pages, so a page is read straight off the index, newest
+	* first, and stops after LIMIT rows.
+	*/
+   public static final List<Index> INDEXES = Collections.unmodifiableList(Arrays.asList(
+	new Index("message_inbox_key_idx", "MESSAGE",
+		"(receiverId, " + Mailbox.SEND_TIME + ", msgId) " +
+		"WHERE status <> 'Failed to Deliver' AND status <> 'Draft' AND deleteStatus <> 2 AND deleteStatus <> 3"),
+	new Index("message_sent_key_idx", "MESSAGE",
+		"(senderId, " + Mailbox.SEND_TIME + ", msgId) " +
+		"WHERE status <> 'Failed to Deliver' AND status <> 'Draft' AND deleteStatus <> 1 AND deleteStatus <> 3"),
+	// the requests sent to a user, and the other half of the OR of every
+	// walk over CONNECTION_USR; userId is covered by the primary key
+	new Index("connection_usr_connection_idx", "CONNECTION_USR", "(connectionId, status)")));
+
+   // indexes of earlier versions that INDEXES replaced, dropped by provision();
+   // the mailbox ones were keyed on the bare sendTime
+   private static final List<String> RETIRED = Arrays.asList("message_inbox_idx", "message_sent_idx");
+
+   /**
+	* Stands for the sample userId in the parameters of a Template.
+	*/
+   public static final Object USER = new Object();
+
+   /**
+	* A query the application sends, with parameter values to EXPLAIN it.
+	*/
+   public static class Template {
+	public final String name;
+	public final String sql;
+	private final Object[] _params;
+
+	Template(String name, String sql, Object... params) {
+	   this.name = name;
+	   this.sql = sql;
+	   this._params = params;
+	}
+
+	/**
+	 * @return the parameters with USER replaced by userId
+	 */
+	public Object[] params(String userId) {
+	   Object[] params = _params.clone();
+	   for (int i = 0; i < params.length; ++i)
+		  if (params[i] == USER)
+			 params[i] = userId;
+	   return params;
+	}
+   }//end Template
+
+   /**
+	* @return the query templates of the current schema
+	* @throws java.sql.SQLException when failed to look up which connection table is in use
+	*/
+   public static List<Template> templates(ProfNetwork esql) throws SQLException {
+	List<Template> templates = new ArrayList<Template>();
+	templates.add(new Template("seeInbox", Mailbox.INBOX + Mailbox.ORDER, USER, Mailbox.DEFAULT_PAGE_SIZE + 1));
+	templates.add(new Template("seeSent", Mailbox.SENT + Mailbox.ORDER, USER, Mailbox.DEFAULT_PAGE_SIZE + 1));
+	templates.add(new Template("AcceptRejectConnectionRequests", esql.connections().pendingQuery(), USER));
+	templates.add(new Template("displayProfile", Profile.QUERY, USER, USER, USER));
+	templates.add(new Template("LogIn", "SELECT 1 FROM USR WHERE userId = ? AND password = ?", USER, ""));
+	return templates;
+   }
+
+   /**
+	* Creates the indexes that do not exist yet and refreshes the planner
+	* statistics if it created any.
+	*
+	* @return the number of indexes created
+	* @throws java.sql.SQLException when failed to create an index
+	*/
+   public static int provision(ProfNetwork esql) throws SQLException {
+	boolean dropped = false;
+	for (String name : RETIRED) {
+	   if (esql.exists("SELECT 1 FROM pg_class WHERE relkind = 'i' AND relname = ?", name)) {
+		  esql.executeCommand("DROP INDEX " + name);
+		  dropped = true;
+	   }
+	}
+	int created = 0;
+	for (Index index : INDEXES) {
+	   if (exists(esql, index))
+		  continue;
+	   try {
+		  esql.executeCommand(index.ddl());
+		  created++;
+	   } catch (SQLException e) {
+		  // another process created it first
+		  if (!exists(esql, index))
+			 throw e;
+	   }
+	}
+	if (created > 0 || dropped)
+	   analyze(esql);
+	return created;
+   }
+
+   /**
+	* Drops the indexes of INDEXES, e.g. to time the queries without them.
+	*
+	* @throws java.sql.SQLException when failed to drop an index
+	*/
+   public static void drop(ProfNetwork esql) throws SQLException {
+	for (Index index : INDEXES)
+	   if (exists(esql, index))
+		  esql.executeCommand("DROP INDEX " + index.name);
+	analyze(esql);
+   }
+
+   public static boolean exists(ProfNetwork esql, Index index) throws SQLException {
+	return esql.exists("SELECT 1 FROM pg_class WHERE relkind = 'i' AND relname = ?", index.name);
+   }
+
+   static void analyze(ProfNetwork esql) throws SQLException {
+	esql.executeCommand("ANALYZE MESSAGE");
+	esql.executeCommand("ANALYZE CONNECTION_USR");
+   }
+
+   /**
+	* @return the plan of the template for the given userId, one line per row
+	* @throws java.sql.SQLException when failed to run EXPLAIN
+	*/
+   public static List<String> plan(ProfNetwork esql, Template template, String userId) throws SQLException {
+	List<String> lines = new ArrayList<String>();
+	for (List<String> row : esql.executeCommandAndReturnResult("EXPLAIN " + template.sql, template.params(userId)))
+	   lines.add(row.get(0));
+	return lines;
+   }
+
+   /**
+	* Runs EXPLAIN on every template and reports the sequential scans of
+	* tables with MIN_ROWS rows or more.
+	*
+	* @return one warning per template and table scanned, empty when every plan uses an index
+	* @throws java.sql.SQLException when failed to run EXPLAIN
+	*/
+   public static List<String> check(ProfNetwork esql) throws SQLException {
+	List<String> warnings = new ArrayList<String>();
+	List<List<String>> sample = esql.executeQueryAndReturnResult("SELECT userId FROM USR LIMIT 1");
+	String userId = sample.isEmpty() ? "" : sample.get(0).get(0).trim();
+	for (Template template : templates(esql)) {
+	   List<String> scanned = new ArrayList<String>();
+	   for (String line : plan(esql, template, userId)) {
+		  Matcher m = SEQ_SCAN.matcher(line);
+		  while (m.find()) {
+			 String table = m.group(1);
+			 if (!scanned.contains(table) && rows(esql, table) >= MIN_ROWS) {
+				scanned.add(table);
+				warnings.add(template.name + " scans " + table + " sequentially");
+			 }
+		  }
+	   }
+	}
+	return warnings;
+   }
+
+   // the planner's estimate of the rows of a table
+   private static long rows(ProfNetwork esql, String table) throws SQLException {
+	List<List<String>> result = esql.executeQueryAndReturnResult(
+		"SELECT CAST(reltuples AS bigint) FROM pg_class WHERE relkind = 'r' AND relname = ?", table.toLowerCase());
+	return result.isEmpty() ? 0 : Long.parseLong(result.get(0).get(0).trim());
+   }
+
+   public static void main(String[] args) {
+	String mode = args.length == 4 ? args[3] : "";
+	if (args.length < 3 || args.length > 4 || (args.length == 4 && !mode.equals("--provision") && !mode.equals("--check"))) {
+	   System.err.println("Usage: java " + Schema.class.getName() + " <dbname> <port> <user> [--provision | --check]");
+	   return;
+	}
+	ProfNetwork esql = null;
+	try {
+	   Class.forName("org.postgresql.Driver").newInstance();
+	   esql = new ProfNetwork(args[0], args[1], args[2], "");
+	   if (!mode.equals("--check"))
+		  System.out.println("Created " + provision(esql) + " of " + INDEXES.size() + " indexes");
+	   if (!mode.equals("--provision")) {
+		  List<String> warnings = check(esql);
+		  for (String warning : warnings)
+			 System.out.println("Warning: " + warning);
+		  System.out.println(warnings.isEmpty() ? "Every query template uses an index" :
+			 warnings.size() + " sequential scans");
+	   }
+	} catch (Exception e) {
+	   System.err.println(e.getMessage());
+	} finally {
+	   if (esql != null)
+		  esql.cleanup();
+	}
+   }
+}//end Schema
@@ -0,0 +1,184 @@
+/*
+ * Session
+ * =======
+ *
+ * One interactive user of ProfNetwork: the input it reads from, the output
+ * it writes to and the user logged in on it. The menu handlers read the
+ * static ProfNetwork.in and write ProfNetwork.out, which forward to the
+ * session bound to the calling thread, so many sessions can run the same
+ * handlers at once on different threads.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+
+/**
+ * This class runs the ProfNetwork menu for one client.
+ *
+ */
+public class Session implements Runnable {
+
+   private static final ThreadLocal<Session> CURRENT = new ThreadLocal<Session>();
+
+   /**
+	* Thrown when the input of a session ends. It is an Error so that the
+	* catch (Exception) blocks of the menu handlers let it through and the
+	* session ends instead of prompting forever.
+	*/
+   public static class Disconnected extends Error {
+	private static final long serialVersionUID = 1L;
+
+	public Disconnected() {
+	   super("session input closed");
+	}
+   }
+   private static Session _console = null;
+
+   /**
+	* Reader that forwards to the input of the current session. It keeps no
+	* buffer of its own so input never leaks from one session to another.
+	*/
+   public static final BufferedReader IN = new BufferedReader(new StringReader(""), 1) {
+	public String readLine() throws IOException {
+	   String line = current()._in.readLine();
+	   if (line == null)
+		  throw new Disconnected();
+	   return line;
+	}
+	public int read() throws IOException {
+	   return current()._in.read();
+	}
+	public int read(char[] cbuf, int off, int len) throws IOException {
+	   return current()._in.read(cbuf, off, len);
+	}
+	public boolean ready() throws IOException {
+	   return current()._in.ready();
+	}
+	public void close() {
+	   // the session owns its input
+	}
+   };
+
+   /**
+	* Print stream that forwards to the output of the current session.
+	*/
+   public static final PrintStream OUT = new PrintStream(new OutputStream() {
+	public void write(int b) throws IOException {
+	   current()._out.write(b);
+	}
+	public void write(byte[] b, int off, int len) throws IOException {
+	   current()._out.write(b, off, len);
+	}
+	public void flush() throws IOException {
+	   current()._out.flush();
+	}
+   }, true);
+
+   private final ProfNetwork _esql;
+   private final BufferedReader _in;
+   private final PrintStream _out;
+   private final boolean _closeStreams;
+   private volatile String _user = null;
+
+   public Session(ProfNetwork esql, InputStream in, OutputStream out) {
+	this(esql, new BufferedReader(new InputStreamReader(in)), new PrintStream(out, true), true);
+   }
+
+   private Session(ProfNetwork esql, BufferedReader in, PrintStream out, boolean closeStreams) {
+	this._esql = esql;
+	this._in = in;
+	this._out = out;
+	this._closeStreams = closeStreams;
+   }
+
+   /**
+	* @return the session of the keyboard and screen of this process
+	*/
+   public static synchronized Session console(ProfNetwork esql) {
+	if (_console == null)
+	   _console = new Session(esql, new BufferedReader(new InputStreamReader(System.in)), System.out, false);
+	return _console;
+   }
+
+   /**
+	* @return the session bound to the calling thread, or the console
+	*/
+   public static Session current() {
+	Session session = CURRENT.get();
+	if (session == null)
+	   session = console(null);
+	return session;
+   }
+
+   public ProfNetwork esql() {
+	return _esql;
+   }
+
+   /**
+	* @return the user logged in on this session, or null
+	*/
+   public String user() {
+	return _user;
+   }
+
+   public void setUser(String user) {
+	this._user = user;
+   }
+
+   /**
+	* Runs the ProfNetwork menu for this session on the calling thread.
+	*/
+   public void run() {
+	Session previous = CURRENT.get();
+	CURRENT.set(this);
+	try {
+	   if (this != _console)
+		  ProfNetwork.Greeting();
+	   ProfNetwork.runMenu(_esql);
+	} catch (Disconnected e) {
+	   // the client went away, nothing left to do
+	} finally {
+	   _out.flush();
+	   if (previous == null)
+		  CURRENT.remove();
+	   else
+		  CURRENT.set(previous);
+	   if (_closeStreams)
+		  close();
+	}
+   }
+
+   /**
+	* Runs one action, e.g. a single menu handler driven by a benchmark,
+	* on the calling thread with this session bound to it.
+	*/
+   public void call(Runnable action) {
+	Session previous = CURRENT.get();
+	CURRENT.set(this);
+	try {
+	   action.run();
+	} finally {
+	   _out.flush();
+	   if (previous == null)
+		  CURRENT.remove();
+	   else
+		  CURRENT.set(previous);
+	}
+   }
+
+   private void close() {
+	try {
+	   _in.close();
+	} catch (IOException e) {
+	   // ignored.
+	}
+	_out.close();
+   }
+}//end Session
@@ -0,0 +1,134 @@
+/*
+ * Session server
+ * ==============
+ *
+ * Serves the ProfNetwork menu to many clients over a TCP socket on the
+ * loopback interface (e.g. "nc localhost <port>"). Each client gets its own
+ * Session running on its own thread; all of them share one ProfNetwork and
+ * its connection pool.
+ *
+ */
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * This class accepts client connections and runs a Session for each.
+ * Sessions spend nearly all their time blocked on client input, so on a
+ * JVM that has virtual threads (Java 21+) every session runs on one;
+ * older JVMs fall back to a platform thread per session.
+ *
+ */
+public class SessionServer {
+
+   private final ProfNetwork _esql;
+   private final int _port;
+   private final ExecutorService _executor;
+   private final boolean _virtual;
+   private final AtomicInteger _active = new AtomicInteger();
+   private final AtomicInteger _served = new AtomicInteger();
+   private volatile ServerSocket _socket = null;
+
+   public SessionServer(ProfNetwork esql, int port) {
+	this._esql = esql;
+	this._port = port;
+	ExecutorService virtual = newVirtualThreadExecutor();
+	this._virtual = virtual != null;
+	this._executor = _virtual ? virtual : Executors.newCachedThreadPool();
+   }
+
+   /**
+	* @return true if sessions run on virtual threads
+	*/
+   public boolean usesVirtualThreads() {
+	return _virtual;
+   }
+
+   public int activeSessions() {
+	return _active.get();
+   }
+
+   public int servedSessions() {
+	return _served.get();
+   }
+
+   /**
+	* Accepts clients until stop is called.
+	*
+	* @throws java.io.IOException when the port cannot be opened
+	*/
+   public void serve() throws IOException {
+	_socket = new ServerSocket(_port, 128, InetAddress.getByName("localhost"));
+	System.out.println("Serving sessions on localhost:" + _socket.getLocalPort() +
+		(usesVirtualThreads() ? " (virtual threads)" : " (platform threads)"));
+	try {
+	   while (!_socket.isClosed()) {
+		  final Socket client;
+		  try {
+			 client = _socket.accept();
+		  } catch (IOException e) {
+			 if (_socket.isClosed())
+				break;
+			 System.err.println(e.getMessage());
+			 continue;
+		  }
+		  _executor.execute(new Runnable() {
+			 public void run() {
+				serve(client);
+			 }
+		  });
+	   }
+	} finally {
+	   _executor.shutdown();
+	}
+   }
+
+   /**
+	* Stops accepting clients and waits up to timeoutMillis for the running
+	* sessions to end.
+	*/
+   public void stop(long timeoutMillis) throws InterruptedException {
+	try {
+	   if (_socket != null)
+		  _socket.close();
+	} catch (IOException e) {
+	   // ignored.
+	}
+	_executor.shutdown();
+	_executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+   }
+
+   private void serve(Socket client) {
+	_active.incrementAndGet();
+	_served.incrementAndGet();
+	try {
+	   new Session(_esql, client.getInputStream(), client.getOutputStream()).run();
+	} catch (IOException e) {
+	   System.err.println(e.getMessage());
+	} finally {
+	   _active.decrementAndGet();
+	   try {
+		  client.close();
+	   } catch (IOException e) {
+		  // ignored.
+	   }
+	}
+   }
+
+   // Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively
+   // so the project still compiles and runs on older JDKs.
+   private static ExecutorService newVirtualThreadExecutor() {
+	try {
+	   return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+	} catch (Exception e) {
+	   return null;
+	}
+   }
+}//end SessionServer
@@ -0,0 +1,121 @@
+/*
+ * Signup
+ * ======
+ *
+ * Creates accounts: the USR row and the first WORK_EXPR and
+ * EDUCATIONAL_DETAILS rows CreateUser asks for. All rows of a signup, or
+ * of a whole import, are written in one transaction, so a failure never
+ * leaves a user without the rest of the profile.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * This class writes accounts through a WriteBatch. Each table gets one
+ * multi-row INSERT per CHUNK accounts, so a signup costs three statements
+ * and an import of n accounts 3 * n / CHUNK, plus a single commit.
+ *
+ */
+public class Signup {
+
+   // accounts per multi-row INSERT
+   static final int CHUNK = 200;
+
+   /**
+	* Everything CreateUser asks for. Dates may be MM/dd/yyyy, yyyy/MM/dd
+	* or yyyy-MM-dd.
+	*/
+   public static class Account {
+	public final String login;
+	public final String password;
+	public final String email;
+	public final String name;
+	public final String birthday;
+	public final String company;
+	public final String role;
+	public final String location;
+	public final String workStart;
+	public final String workEnd;
+	public final String institution;
+	public final String major;
+	public final String degree;
+	public final String collegeStart;
+	public final String graduation;
+
+	public Account(String login, String password, String email, String name, String birthday,
+		String company, String role, String location, String workStart, String workEnd,
+		String institution, String major, String degree, String collegeStart, String graduation) {
+	   this.login = login;
+	   this.password = password;
+	   this.email = email;
+	   this.name = name;
+	   this.birthday = birthday;
+	   this.company = company;
+	   this.role = role;
+	   this.location = location;
+	   this.workStart = workStart;
+	   this.workEnd = workEnd;
+	   this.institution = institution;
+	   this.major = major;
+	   this.degree = degree;
+	   this.collegeStart = collegeStart;
+	   this.graduation = graduation;
+	}
+   }//end Account
+
+   /**
+	* Creates one account in a single transaction.
+	*
+	* @throws java.sql.SQLException when the account could not be created; nothing was written then
+	*/
+   public static void create(ProfNetwork esql, Account account) throws SQLException {
+	createAll(esql, Collections.singletonList(account));
+   }
+
+   /**
+	* Creates many accounts, e.g. for an onboarding import, in a single
+	* transaction.
+	*
+	* @return the number of accounts created
+	* @throws java.sql.SQLException when an account could not be created; nothing was written then
+	*/
+   public static int createAll(ProfNetwork esql, List<Account> accounts) throws SQLException {
+	WriteBatch batch = esql.batch();
+	for (int from = 0; from < accounts.size(); from += CHUNK) {
+	   List<Account> chunk = accounts.subList(from, Math.min(accounts.size(), from + CHUNK));
+	   Object[] usr = new Object[chunk.size() * 5];
+	   Object[] work = new Object[chunk.size() * 6];
+	   Object[] education = new Object[chunk.size() * 6];
+	   for (int i = 0; i < chunk.size(); ++i) {
+		  Account a = chunk.get(i);
+		  set(usr, i * 5, a.login, a.password, a.email, a.name, date(a.birthday));
+		  set(work, i * 6, a.login, a.company, a.role, a.location, date(a.workStart), date(a.workEnd));
+		  set(education, i * 6, a.login, a.institution, a.major, a.degree, date(a.collegeStart), date(a.graduation));
+	   }
+	   batch.add(BulkLoader.USR.insert(chunk.size()), usr);
+	   batch.add(BulkLoader.WORK_EXPR.insert(chunk.size()), work);
+	   batch.add(BulkLoader.EDUCATIONAL_DETAILS.insert(chunk.size()), education);
+	}
+	batch.flush();
+
+	for (Account a : accounts) {
+	   esql.users().add(a.login);
+	   esql.profiles().invalidate(a.login);
+	   esql.search().add(a);
+	   esql.typeahead().add(a.login, a.name);
+	}
+	return accounts.size();
+   }
+
+   private static void set(Object[] params, int offset, Object... values) {
+	System.arraycopy(values, 0, params, offset, values.length);
+   }
+
+   private static String date(String value) {
+	return BulkLoader.normalizeDate(value == null ? null : value.trim());
+   }
+}//end Signup
@@ -0,0 +1,248 @@
+/*
+ * Prepared statement cache
+ * ========================
+ *
+ * Bounded LRU cache of PreparedStatements for one physical connection,
+ * keyed by the SQL template. Reusing the statement lets the driver and
+ * the DBMS keep the parsed query and its plan between calls.
+ *
+ * PostgreSQL only accepts SELECT, INSERT, UPDATE, DELETE and VALUES in
+ * PREPARE, so only those are planned on the server; everything else (DDL,
+ * ANALYZE, EXPLAIN, cursor commands) goes through execute instead, on a
+ * statement of its own.
+ *
+ */
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * This class hands out a cached PreparedStatement per SQL template. The
+ * least recently used statement is closed once more than capacity
+ * templates are cached.
+ *
+ */
+public class StatementCache {
+
+   public static final int DEFAULT_CAPACITY = 64;
+
+   // the first server that has PREPARE, as major * 100 + minor
+   private static final int SERVER_PREPARE_VERSION = 703;
+   private static final Pattern VERSION = Pattern.compile("^(\\d+)(?:\\.(\\d+))?");
+   private static final Pattern PREPARABLE = Pattern.compile(
+	"^[\\s(]*(select|insert|update|delete|values|with)\\b", Pattern.CASE_INSENSITIVE);
+
+   private final Connection _connection;
+   private final int _capacity;
+   private final boolean _serverPrepare;
+   // the driver's setString(int, String, String), null when it has none
+   private Method _setTypedString = null;
+   private boolean _lookedUp = false;
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _evictions = 0;
+
+   public StatementCache(Connection connection, int capacity) {
+	this._connection = connection;
+	this._capacity = capacity;
+	this._serverPrepare = version(connection) >= SERVER_PREPARE_VERSION;
+	this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+	   protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+		  if (size() <= _capacity)
+			 return false;
+		  _evictions++;
+		  closeQuietly(eldest.getValue());
+		  return true;
+	   }
+	};
+   }
+
+   /**
+	* Returns the prepared statement for sql with params bound to its '?'
+	* placeholders, preparing it on a cache miss.
+	*
+	* @param sql the SQL template
+	* @param params the values of the placeholders, in order
+	* @return the bound statement, owned by the cache
+	* @throws java.sql.SQLException when failed to prepare or bind
+	*/
+   public synchronized PreparedStatement prepare(String sql, Object... params) throws SQLException {
+	PreparedStatement stmt = _statements.get(sql);
+	if (stmt == null) {
+	   _misses++;
+	   stmt = _connection.prepareStatement(sql);
+	   if (_serverPrepare && PREPARABLE.matcher(sql).find())
+		  useServerPrepare(stmt);
+	   _statements.put(sql, stmt);
+	}
+	else {
+	   _hits++;
+	   stmt.clearParameters();
+	}
+	for (int i = 0; i < params.length; ++i)
+	   bind(stmt, i + 1, params[i]);
+	return stmt;
+   }
+
+   /**
+	* Runs a statement PostgreSQL cannot PREPARE outside the cache: on a
+	* plain Statement, or when it has parameters on a PreparedStatement of
+	* its own, which the driver fills in on the client.
+	*
+	* @param sql the statement, with '?' for every parameter
+	* @param params the values of the placeholders, in order
+	* @return the executed statement, for its results; the caller closes it
+	* @throws java.sql.SQLException when failed to execute
+	*/
+   public Statement execute(String sql, Object... params) throws SQLException {
+	Statement stmt = null;
+	try {
+	   if (params.length == 0) {
+		  stmt = _connection.createStatement();
+		  stmt.execute(sql);
+	   } else {
+		  PreparedStatement prepared = _connection.prepareStatement(sql);
+		  stmt = prepared;
+		  for (int i = 0; i < params.length; ++i)
+			 bind(prepared, i + 1, params[i]);
+		  prepared.execute();
+	   }
+	   return stmt;
+	} catch (SQLException e) {
+	   if (stmt != null)
+		  closeQuietly(stmt);
+	   throw e;
+	}
+   }
+
+   public synchronized long hits() {
+	return _hits;
+   }
+
+   public synchronized long misses() {
+	return _misses;
+   }
+
+   public synchronized long evictions() {
+	return _evictions;
+   }
+
+   public synchronized int size() {
+	return _statements.size();
+   }
+
+   /**
+	* Closes every cached statement.
+	*/
+   public synchronized void close() {
+	for (Iterator<PreparedStatement> it = _statements.values().iterator(); it.hasNext(); ) {
+	   closeQuietly(it.next());
+	   it.remove();
+	}
+   }
+
+   public synchronized String toString() {
+	return String.format("statement cache: %d cached, %d hits, %d misses, %d evictions",
+		_statements.size(), _hits, _misses, _evictions);
+   }
+
+   private void bind(PreparedStatement stmt, int index, Object value) throws SQLException {
+	if (value == null)
+	   stmt.setNull(index, Types.VARCHAR);
+	else if (value instanceof Integer)
+	   stmt.setInt(index, ((Integer) value).intValue());
+	else if (value instanceof Long)
+	   stmt.setLong(index, ((Long) value).longValue());
+	else
+	   bindString(stmt, index, value.toString());
+   }
+
+   // The bundled driver declares every string it binds as text. In a
+   // statement prepared on the server "charColumn = $1" then compares as
+   // text, and the generic plan cannot use the indexes on the CHAR
+   // columns. Bound as unknown, the server takes the type of the column.
+   // Statements planned on the client ignore the declared type.
+   private void bindString(PreparedStatement stmt, int index, String value) throws SQLException {
+	if (!_lookedUp) {
+	   try {
+		  _setTypedString = stmt.getClass().getMethod("setString", int.class, String.class, String.class);
+	   } catch (NoSuchMethodException e) {
+		  // binds as text then
+	   }
+	   _lookedUp = true;
+	}
+	if (_setTypedString == null) {
+	   stmt.setString(index, value);
+	   return;
+	}
+	try {
+	   _setTypedString.invoke(stmt, index, value, "unknown");
+	} catch (InvocationTargetException e) {
+	   if (e.getCause() instanceof SQLException)
+		  throw (SQLException) e.getCause();
+	   throw new SQLException(e.getCause().toString());
+	} catch (IllegalAccessException e) {
+	   stmt.setString(index, value);
+	}
+   }
+
+   // the server version as major * 100 + minor, 0 when unknown
+   private static int version(Connection connection) {
+	try {
+	   Matcher m = VERSION.matcher(connection.getMetaData().getDatabaseProductVersion());
+	   if (m.find())
+		  return Integer.parseInt(m.group(1)) * 100 + (m.group(2) == null ? 0 : Integer.parseInt(m.group(2)));
+	} catch (SQLException e) {
+	   // nothing is prepared on the server then, statements are still reused
+	}
+	return 0;
+   }
+
+   // The PostgreSQL driver only plans on the server when asked to; the
+   // driver is not on the compile classpath so the switch is set reflectively.
+   // The bundled driver compares version strings alphabetically and so
+   // ignores the switch on 10 and later ("10" < "7.3"); the version was
+   // checked above, so its flag is set directly then.
+   private static void useServerPrepare(PreparedStatement stmt) {
+	try {
+	   Method m = stmt.getClass().getMethod("setUseServerPrepare", boolean.class);
+	   m.invoke(stmt, Boolean.TRUE);
+	   if (Boolean.TRUE.equals(stmt.getClass().getMethod("isUseServerPrepare").invoke(stmt)))
+		  return;
+	   for (Class<?> c = stmt.getClass(); c != null; c = c.getSuperclass()) {
+		  try {
+			 Field f = c.getDeclaredField("m_useServerPrepare");
+			 f.setAccessible(true);
+			 f.setBoolean(stmt, true);
+			 return;
+		  } catch (NoSuchFieldException e) {
+			 // declared further up
+		  }
+	   }
+	} catch (Exception e) {
+	   // not supported by this driver, statements are still reused
+	}
+   }
+
+   private static void closeQuietly(Statement stmt) {
+	try {
+	   stmt.close();
+	} catch (SQLException e) {
+	   // ignored.
+	}
+   }
+}//end StatementCache
@@ -0,0 +1,216 @@
+/*
+ * Suggestion index
+ * ================
+ *
+ * "People you may know": for every user, the users two and three accepted
+ * connections away, ranked by the number of friends they share. SendRequest
+ * reads the list from here instead of walking the graph each time.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+
+/**
+ * This class keeps the ranked suggestions of up to capacity users in
+ * least recently used order. A background thread fills it from the users
+ * of the connection graph until it is full and keeps it up to date: when a
+ * connection moves into or out of Accept, only the users within two hops
+ * of either end can see their three hop neighborhood change, so just those
+ * entries are dropped and computed again. A lookup of an entry that is
+ * missing, or was evicted, computes it on the spot.
+ *
+ */
+public class SuggestionIndex implements ConnectionGraph.Listener {
+
+   public static final int MAX_HOPS = 3;
+   public static final int DEFAULT_CAPACITY = 4096;
+
+   // the background thread waits this long after failing to read the
+   // graph, doubling up to MAX_BACKOFF_MILLIS while the failures last
+   private static final long MIN_BACKOFF_MILLIS = 1000;
+   private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+   private final ProfNetwork _esql;
+   private final int _capacity;
+   private final LinkedHashMap<String, List<ConnectionGraph.Suggestion>> _entries;
+
+   // accepted connections that changed since the entries were last checked;
+   // the graph reports them while it is locked, so they are queued without
+   // taking the lock of the index, which itself calls into the graph
+   private final ConcurrentLinkedQueue<String[]> _changes = new ConcurrentLinkedQueue<String[]>();
+   private volatile boolean _reloaded = false;
+   private final Semaphore _wakeup = new Semaphore(0);
+
+   // users whose entry was dropped and should be computed again
+   private final LinkedHashSet<String> _dirty = new LinkedHashSet<String>();
+   // next dense id the background build looks at
+   private int _buildCursor = 0;
+   // bumped whenever entries are dropped, so a racing computation is not stored
+   private long _generation = 0;
+
+   private Thread _worker = null;
+   private long _lookups = 0;
+   private long _computed = 0;
+   private long _evictions = 0;
+
+   public SuggestionIndex(ProfNetwork esql) {
+	this(esql, DEFAULT_CAPACITY);
+   }
+
+   public SuggestionIndex(ProfNetwork esql, int capacity) {
+	this._esql = esql;
+	this._capacity = capacity;
+	this._entries = new LinkedHashMap<String, List<ConnectionGraph.Suggestion>>(16, 0.75f, true) {
+	   protected boolean removeEldestEntry(Map.Entry<String, List<ConnectionGraph.Suggestion>> eldest) {
+		  if (size() <= _capacity)
+			 return false;
+		  _evictions++;
+		  return true;
+	   }
+	};
+   }
+
+   /**
+	* @param user the userId
+	* @return the users two or three hops away, most mutual friends first
+	* @throws java.sql.SQLException when the connection graph could not be loaded
+	*/
+   public List<ConnectionGraph.Suggestion> get(String user) throws SQLException {
+	user = user.trim();
+	ConnectionGraph graph = _esql.graph();
+	long generation;
+	synchronized (this) {
+	   start();
+	   _lookups++;
+	   generation = applyChanges(graph);
+	   List<ConnectionGraph.Suggestion> entry = _entries.get(user);
+	   if (entry != null)
+		  return entry;
+	}
+	return compute(graph, user, generation);
+   }
+
+   public synchronized int size() {
+	return _entries.size();
+   }
+
+   public synchronized String toString() {
+	return String.format("suggestion index: %d users of %d, %d lookups, %d computed, %d evicted, %d dirty",
+		_entries.size(), _capacity, _lookups, _computed, _evictions, _dirty.size());
+   }
+
+   public void acceptChanged(String user, String connection) {
+	_changes.add(new String[] { user, connection });
+	_wakeup.release();
+   }
+
+   public void reloaded() {
+	_reloaded = true;
+	_wakeup.release();
+   }
+
+   // starts the background build the first time the index is used
+   private void start() {
+	if (_worker != null)
+	   return;
+	_worker = new Thread(new Runnable() {
+	   public void run() {
+		  maintain();
+	   }
+	}, "suggestion-index");
+	_worker.setDaemon(true);
+	_worker.start();
+   }
+
+   // drops the entries of every user within two hops of a changed connection
+   private long applyChanges(ConnectionGraph graph) {
+	if (_reloaded) {
+	   _reloaded = false;
+	   _changes.clear();
+	   _entries.clear();
+	   _dirty.clear();
+	   _buildCursor = 0;
+	   _generation++;
+	}
+	String[] change;
+	while ((change = _changes.poll()) != null) {
+	   for (String end : change) {
+		  drop(end);
+		  for (String near : graph.withinHops(end, MAX_HOPS - 1).keySet())
+			 drop(near);
+	   }
+	   _generation++;
+	}
+	return _generation;
+   }
+
+   private void drop(String user) {
+	if (_entries.remove(user) != null)
+	   _dirty.add(user);
+   }
+
+   private List<ConnectionGraph.Suggestion> compute(ConnectionGraph graph, String user, long generation) {
+	List<ConnectionGraph.Suggestion> entry =
+	   Collections.unmodifiableList(graph.suggestions(user, MAX_HOPS));
+	synchronized (this) {
+	   _computed++;
+	   if (generation == _generation)
+		  _entries.put(user, entry);
+	}
+	return entry;
+   }
+
+   // background thread: computes dropped entries first, then the ones never
+   // built while there is room, so it does not evict what lookups read
+   private void maintain() {
+	long backoff = 0;
+	while (true) {
+	   try {
+		  ConnectionGraph graph = _esql.graph();
+		  backoff = 0;
+		  String user = null;
+		  long generation;
+		  synchronized (this) {
+			 generation = applyChanges(graph);
+			 while (user == null && !_dirty.isEmpty()) {
+				user = _dirty.iterator().next();
+				_dirty.remove(user);
+			 }
+			 while (user == null && _entries.size() < _capacity && _buildCursor < graph.userCount()) {
+				String next = graph.nameOf(_buildCursor++);
+				if (!_entries.containsKey(next))
+				   user = next;
+			 }
+		  }
+		  if (user == null) {
+			 // nothing left to build until the graph changes
+			 _wakeup.acquire();
+			 _wakeup.drainPermits();
+			 continue;
+		  }
+		  compute(graph, user, generation);
+	   } catch (InterruptedException e) {
+		  return;
+	   } catch (SQLException e) {
+		  // reported once per outage; lookups still compute their entry
+		  // on the spot, so the retries can wait
+		  if (backoff == 0)
+			 System.err.println("Warning: suggestions not built in the background: " + e.getMessage());
+		  backoff = Math.min(Math.max(2 * backoff, MIN_BACKOFF_MILLIS), MAX_BACKOFF_MILLIS);
+		  try {
+			 Thread.sleep(backoff);
+		  } catch (InterruptedException ie) {
+			 return;
+		  }
+	   }
+	}
+   }
+}//end SuggestionIndex
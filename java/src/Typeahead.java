@@ -0,0 +1,430 @@
+/*
+ * Typeahead
+ * =========
+ *
+ * Completes what was typed into a userId prompt: every userId, every
+ * display name and every word of a name is a key, and a prefix of any key
+ * finds its user. The best completions come first, ranked by the number
+ * of accepted connections a user had when the index was built.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+/**
+ * This class keeps the keys, lower cased, in a radix trie stored in
+ * parallel int arrays: a node is an index, its edge label a slice of one
+ * of the sorted keys, and its children are contiguous so the child for a
+ * character is found by binary search. Every node holds the MAX_K best
+ * users below it, so a completion costs the length of the prefix plus k,
+ * whatever the number of keys under it.
+ *
+ * The trie is immutable; users added after the build go to a small sorted
+ * overlay that is merged into the results and folded into a new trie once
+ * it holds REBUILD_AFTER keys.
+ *
+ */
+public class Typeahead {
+
+   // the most completions a node keeps, and so the largest k served from the trie
+   public static final int MAX_K = 10;
+   public static final int DEFAULT_K = 5;
+   static final int REBUILD_AFTER = 1024;
+
+   // users, by dense index
+   private final List<String> _userIds = new ArrayList<String>();
+   private final List<String> _names = new ArrayList<String>();
+   private int[] _weights = new int[0];
+   private final Map<String, Integer> _userIndex = new HashMap<String, Integer>();
+
+   // users by rank (heaviest first, then by userId) and back; users added
+   // since the build rank after everyone else
+   private int[] _rankOf = new int[0];
+   private int[] _userOfRank = new int[0];
+
+   // the keys in the trie, sorted, and the rank of the user of each
+   private String[] _keys = new String[0];
+   private int[] _keyRank = new int[0];
+
+   // the trie; node 0 is the root
+   private int _nodeCount = 0;
+   private int[] _labelKey = new int[0];   // the key holding the edge label
+   private int[] _labelFrom = new int[0];  // label = _keys[_labelKey].substring(_labelFrom, _labelTo)
+   private int[] _labelTo = new int[0];
+   private char[] _firstChar = new char[0];
+   private int[] _firstChild = new int[0];
+   private int[] _childCount = new int[0];
+   private int[] _topFrom = new int[0];    // ranks of the best users below the node:
+   private int[] _topCount = new int[0];   //   _tops[_topFrom, _topFrom + _topCount)
+   private int[] _tops = new int[0];
+   private int _topsUsed = 0;
+   private int[] _scratch = new int[0];
+
+   // keys of users added since the build -> their ranks
+   private final TreeMap<String, List<Integer>> _recent = new TreeMap<String, List<Integer>>();
+   private int _recentKeys = 0;
+
+   private boolean _built = false;
+
+   /**
+	* @return true once build has filled the index
+	*/
+   public synchronized boolean isBuilt() {
+	return _built;
+   }
+
+   /**
+	* Builds the index from USR in one streamed scan, ranking the users by
+	* their accepted connections in the connection graph.
+	*
+	* @throws java.sql.SQLException when failed to read USR or the graph
+	*/
+   public void build(ProfNetwork esql) throws SQLException {
+	final Map<String, String> users = new LinkedHashMap<String, String>();
+	esql.executeQueryForEach("SELECT userId, name FROM USR", ConnectionGraph.LOAD_FETCH_SIZE, new Row.Handler() {
+	   public boolean row(Row row) throws SQLException {
+		  users.put(row.getTrimmed(1), row.getTrimmed(2));
+		  return true;
+	   }
+	});
+	build(users, esql.graph());
+   }
+
+   /**
+	* Replaces the contents of the index.
+	*
+	* @param users userId -> display name
+	* @param graph the connections to rank by, or null to rank by userId only
+	*/
+   public synchronized void build(Map<String, String> users, ConnectionGraph graph) {
+	_userIds.clear();
+	_names.clear();
+	_userIndex.clear();
+	_weights = new int[users.size()];
+	for (Map.Entry<String, String> user : users.entrySet()) {
+	   int index = _userIds.size();
+	   _userIndex.put(user.getKey(), index);
+	   _userIds.add(user.getKey());
+	   _names.add(user.getValue());
+	   _weights[index] = graph == null ? 0 : graph.degree(user.getKey(), ConnectionGraph.ACCEPT);
+	}
+	_recent.clear();
+	_recentKeys = 0;
+	buildTrie();
+	_built = true;
+   }
+
+   /**
+	* Adds a user created after the build. Does nothing before the index is
+	* built, since the build will read it from USR.
+	*/
+   public synchronized void add(String userId, String name) {
+	if (!_built)
+	   return;
+	userId = userId.trim();
+	name = name == null ? null : name.trim();
+	Integer index = _userIndex.get(userId);
+	if (index == null) {
+	   index = _userIds.size();
+	   _userIndex.put(userId, index);
+	   _userIds.add(userId);
+	   _names.add(name);
+	   if (_weights.length == index)
+		  _weights = Arrays.copyOf(_weights, Math.max(16, index * 2));
+	   if (_rankOf.length == index) {
+		  _rankOf = Arrays.copyOf(_rankOf, Math.max(16, index * 2));
+		  _userOfRank = Arrays.copyOf(_userOfRank, _rankOf.length);
+	   }
+	   _rankOf[index] = index;
+	   _userOfRank[index] = index;
+	}
+	for (String key : keys(userId, name)) {
+	   List<Integer> users = _recent.get(key);
+	   if (users == null) {
+		  users = new ArrayList<Integer>(1);
+		  _recent.put(key, users);
+	   }
+	   users.add(_rankOf[index]);
+	   _recentKeys++;
+	}
+	if (_recentKeys >= REBUILD_AFTER) {
+	   _recent.clear();
+	   _recentKeys = 0;
+	   buildTrie();
+	}
+   }
+
+   /**
+	* @param prefix what was typed so far
+	* @param k the most completions wanted, at most MAX_K
+	* @return the userIds of the best users with a key starting with prefix
+	*/
+   public synchronized List<String> complete(String prefix, int k) {
+	String lower = prefix.trim().toLowerCase();
+	k = Math.min(k, MAX_K);
+	List<Integer> candidates = new ArrayList<Integer>();  // ranks
+	int node = find(lower);
+	if (node >= 0)
+	   for (int t = _topFrom[node]; t < _topFrom[node] + _topCount[node]; ++t)
+		  candidates.add(_tops[t]);
+	for (List<Integer> users : _recent.subMap(lower, true, lower + Character.MAX_VALUE, false).values())
+	   candidates.addAll(users);
+	return best(candidates, k);
+   }
+
+   /**
+	* Completes among the given users only, e.g. the caller's friends or
+	* three hop network. Costs one check per user in scope.
+	*
+	* @param scope the userIds to complete from, or null for everyone
+	*/
+   public synchronized List<String> complete(String prefix, int k, Collection<String> scope) {
+	if (scope == null)
+	   return complete(prefix, k);
+	String lower = prefix.trim().toLowerCase();
+	List<Integer> candidates = new ArrayList<Integer>();
+	for (String userId : scope) {
+	   Integer index = _userIndex.get(userId.trim());
+	   if (index == null)
+		  continue;
+	   for (String key : keys(_userIds.get(index), _names.get(index))) {
+		  if (key.startsWith(lower)) {
+			 candidates.add(_rankOf[index]);
+			 break;
+		  }
+	   }
+	}
+	return best(candidates, k);
+   }
+
+   /**
+	* @return the display name of a user in the index, or null
+	*/
+   public synchronized String nameOf(String userId) {
+	Integer index = _userIndex.get(userId.trim());
+	return index == null ? null : _names.get(index);
+   }
+
+   public synchronized int size() {
+	return _userIds.size();
+   }
+
+   /**
+	* @return an estimate of the bytes held by the keys and the trie
+	*/
+   public synchronized long memoryBytes() {
+	long bytes = 0;
+	for (String key : _keys)
+	   bytes += 40 + 2L * key.length();  // String and char array headers, the chars
+	bytes += 4L * (_keys.length + _keyRank.length + _weights.length + _rankOf.length + _userOfRank.length + _tops.length);
+	bytes += 4L * (_labelKey.length + _labelFrom.length + _labelTo.length + _firstChild.length
+		+ _childCount.length + _topFrom.length + _topCount.length) + 2L * _firstChar.length;
+	return bytes;
+   }
+
+   public synchronized String toString() {
+	return String.format("typeahead: %d users, %d keys, %d nodes, ~%.1f MB",
+		_userIds.size(), _keys.length + _recentKeys, _nodeCount, memoryBytes() / 1e6);
+   }
+
+   // the lower cased userId, name and name words of a user
+   private static Set<String> keys(String userId, String name) {
+	Set<String> keys = new LinkedHashSet<String>();
+	keys.add(userId.toLowerCase());
+	if (name != null && !name.isEmpty()) {
+	   String lower = name.toLowerCase();
+	   keys.add(lower);
+	   for (String word : lower.split("\\s+"))
+		  if (!word.isEmpty())
+			 keys.add(word);
+	}
+	return keys;
+   }
+
+   // the userIds of the k best distinct ranks among the candidates
+   private List<String> best(List<Integer> candidates, int k) {
+	int[] ranks = new int[candidates.size()];
+	for (int i = 0; i < ranks.length; ++i)
+	   ranks[i] = candidates.get(i);
+	Arrays.sort(ranks);
+	List<String> userIds = new ArrayList<String>();
+	for (int i = 0; i < ranks.length && userIds.size() < k; ++i)
+	   if (i == 0 || ranks[i] != ranks[i - 1])
+		  userIds.add(_userIds.get(_userOfRank[ranks[i]]));
+	return userIds;
+   }
+
+   // the node whose keys all start with prefix and that holds all of them, or -1
+   private int find(String prefix) {
+	if (_nodeCount == 0)
+	   return -1;
+	int node = 0;
+	int matched = 0;
+	while (true) {
+	   String key = _keys[_labelKey[node]];
+	   for (int j = _labelFrom[node]; j < _labelTo[node]; ++j) {
+		  if (matched == prefix.length())
+			 return node;
+		  if (key.charAt(j) != prefix.charAt(matched))
+			 return -1;
+		  matched++;
+	   }
+	   if (matched == prefix.length())
+		  return node;
+	   char c = prefix.charAt(matched);
+	   int lo = _firstChild[node], hi = lo + _childCount[node] - 1;
+	   int child = -1;
+	   while (lo <= hi) {
+		  int mid = (lo + hi) >>> 1;
+		  if (_firstChar[mid] < c)
+			 lo = mid + 1;
+		  else if (_firstChar[mid] > c)
+			 hi = mid - 1;
+		  else {
+			 child = mid;
+			 break;
+		  }
+	   }
+	   if (child < 0)
+		  return -1;
+	   node = child;
+	}
+   }
+
+   // ranks the users, sorts every key of every user and lays the trie out over them
+   private void buildTrie() {
+	final int users = _userIds.size();
+	Integer[] order = new Integer[users];
+	for (int u = 0; u < users; ++u)
+	   order[u] = u;
+	Arrays.sort(order, new Comparator<Integer>() {
+	   public int compare(Integer a, Integer b) {
+		  if (_weights[a] != _weights[b])
+			 return _weights[b] - _weights[a];
+		  return _userIds.get(a).compareTo(_userIds.get(b));
+	   }
+	});
+	_rankOf = new int[users];
+	_userOfRank = new int[users];
+	for (int r = 0; r < users; ++r) {
+	   _rankOf[order[r]] = r;
+	   _userOfRank[r] = order[r];
+	}
+
+	// each key is sorted with the rank of its user appended after a '\0',
+	// which sorts before any character of a longer key; the rank is written
+	// as four 7 bit characters so the strings stay one byte per character
+	List<String> tagged = new ArrayList<String>();
+	for (int u = 0; u < users; ++u) {
+	   int r = _rankOf[u];
+	   String tag = new String(new char[] { '\0', (char) ((r >>> 21) & 127), (char) ((r >>> 14) & 127),
+		  (char) ((r >>> 7) & 127), (char) (r & 127) });
+	   for (String key : keys(_userIds.get(u), _names.get(u)))
+		  tagged.add(key + tag);
+	}
+	String[] sorted = tagged.toArray(new String[tagged.size()]);
+	Arrays.sort(sorted);
+	_keys = new String[sorted.length];
+	_keyRank = new int[sorted.length];
+	for (int i = 0; i < sorted.length; ++i) {
+	   String t = sorted[i];
+	   int n = t.length();
+	   _keys[i] = t.substring(0, n - 5);
+	   _keyRank[i] = (t.charAt(n - 4) << 21) | (t.charAt(n - 3) << 14) | (t.charAt(n - 2) << 7) | t.charAt(n - 1);
+	}
+
+	// a radix trie over n keys has fewer than 2n nodes
+	int capacity = Math.max(1, 2 * _keys.length);
+	_labelKey = new int[capacity];
+	_labelFrom = new int[capacity];
+	_labelTo = new int[capacity];
+	_firstChar = new char[capacity];
+	_firstChild = new int[capacity];
+	_childCount = new int[capacity];
+	_topFrom = new int[capacity];
+	_topCount = new int[capacity];
+	_tops = new int[capacity * 2];
+	_topsUsed = 0;
+	_nodeCount = 1;
+	if (_keys.length > 0)
+	   buildNode(0, 0, _keys.length, 0);
+
+	_labelKey = Arrays.copyOf(_labelKey, _nodeCount);
+	_labelFrom = Arrays.copyOf(_labelFrom, _nodeCount);
+	_labelTo = Arrays.copyOf(_labelTo, _nodeCount);
+	_firstChar = Arrays.copyOf(_firstChar, _nodeCount);
+	_firstChild = Arrays.copyOf(_firstChild, _nodeCount);
+	_childCount = Arrays.copyOf(_childCount, _nodeCount);
+	_topFrom = Arrays.copyOf(_topFrom, _nodeCount);
+	_topCount = Arrays.copyOf(_topCount, _nodeCount);
+	_tops = Arrays.copyOf(_tops, _topsUsed);
+   }
+
+   // fills node with _keys[lo, hi), which share their first depth characters
+   private void buildNode(int node, int lo, int hi, int depth) {
+	// the label runs as far as all keys agree; sorted, so the first and last decide
+	String first = _keys[lo], last = _keys[hi - 1];
+	int end = depth;
+	while (end < first.length() && end < last.length() && first.charAt(end) == last.charAt(end))
+	   end++;
+	_labelKey[node] = lo;
+	_labelFrom[node] = depth;
+	_labelTo[node] = end;
+
+	// keys ending here sort first; the rest are grouped by their next character
+	int from = lo;
+	while (from < hi && _keys[from].length() == end)
+	   from++;
+	int children = 0;
+	for (int i = from; i < hi; ++i)
+	   if (i == from || _keys[i].charAt(end) != _keys[i - 1].charAt(end))
+		  children++;
+	_firstChild[node] = _nodeCount;
+	_childCount[node] = children;
+	_nodeCount += children;
+
+	int child = _firstChild[node];
+	for (int i = from; i < hi; ) {
+	   int j = i + 1;
+	   while (j < hi && _keys[j].charAt(end) == _keys[i].charAt(end))
+		  j++;
+	   _firstChar[child] = _keys[i].charAt(end);
+	   buildNode(child++, i, j, end);
+	   i = j;
+	}
+
+	// the best users here: those of the keys ending here and the children's best
+	int n = from - lo;
+	for (int c = _firstChild[node]; c < _firstChild[node] + children; ++c)
+	   n += _topCount[c];
+	if (_scratch.length < n)
+	   _scratch = new int[Math.max(n, _scratch.length * 2)];
+	int[] ranks = _scratch;
+	n = 0;
+	for (int i = lo; i < from; ++i)
+	   ranks[n++] = _keyRank[i];
+	for (int c = _firstChild[node]; c < _firstChild[node] + children; ++c)
+	   for (int t = _topFrom[c]; t < _topFrom[c] + _topCount[c]; ++t)
+		  ranks[n++] = _tops[t];
+	Arrays.sort(ranks, 0, n);
+	if (_topsUsed + MAX_K > _tops.length)
+	   _tops = Arrays.copyOf(_tops, Math.max(_tops.length * 2, _topsUsed + MAX_K));
+	_topFrom[node] = _topsUsed;
+	for (int i = 0; i < n && _topsUsed - _topFrom[node] < MAX_K; ++i)
+	   if (i == 0 || ranks[i] != ranks[i - 1])
+		  _tops[_topsUsed++] = ranks[i];
+	_topCount[node] = _topsUsed - _topFrom[node];
+   }
+}//end Typeahead
@@ -0,0 +1,72 @@
+/*
+ * User directory
+ * ==============
+ *
+ * Answers "does this userId exist?" without transferring the USR table.
+ * Every check is a primary key lookup; an optional Bloom filter of the
+ * known userIds, loaded at startup with -Dbloomfilter=true, lets most
+ * misses be answered without a round trip.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.List;
+
+
+/**
+ * This class checks the existence of users for the friend request and
+ * message flows.
+ *
+ */
+public class UserDirectory {
+
+   private final ProfNetwork _esql;
+
+   // null until loadBloomFilter is called
+   private BloomFilter _known = null;
+
+   public UserDirectory(ProfNetwork esql) {
+	this._esql = esql;
+   }
+
+   /**
+	* Loads every userId into an in-process Bloom filter. After this a userId
+	* the filter has never seen is reported missing without asking the DBMS,
+	* so it should only be enabled when every CreateUser goes through this
+	* process (see add).
+	*
+	* @throws java.sql.SQLException when failed to read USR
+	*/
+   public synchronized void loadBloomFilter() throws SQLException {
+	List<List<String>> count = _esql.executeQueryAndReturnResult("SELECT count(*) FROM USR");
+	final BloomFilter known = new BloomFilter(Math.max(1024, Integer.parseInt(count.get(0).get(0).trim()) * 2));
+	_esql.executeQueryForEach("SELECT userId FROM USR", 4096, new Row.Handler() {
+	   public boolean row(Row row) throws SQLException {
+		  known.add(row.getTrimmed(1));
+		  return true;
+	   }
+	});
+	_known = known;
+   }
+
+   /**
+	* Records a user created by this process.
+	*/
+   public synchronized void add(String userId) {
+	if (_known != null)
+	   _known.add(userId.trim());
+   }
+
+   /**
+	* @return true if userId is in USR
+	* @throws java.sql.SQLException when failed to execute the lookup
+	*/
+   public boolean exists(String userId) throws SQLException {
+	userId = userId.trim();
+	synchronized (this) {
+	   if (_known != null && !_known.mightContain(userId))
+		  return false;
+	}
+	return _esql.exists("SELECT 1 FROM USR WHERE userId = ?", userId);
+   }
+}//end UserDirectory
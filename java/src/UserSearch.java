@@ -0,0 +1,438 @@
+/*
+ * User search
+ * ===========
+ *
+ * Finds users by what their profile says rather than by exact userId:
+ * the userId and name from USR, company, role and location from
+ * WORK_EXPR, and institution and major from EDUCATIONAL_DETAILS. Every
+ * word of the query has to match, as a whole word or as the start of one.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+
+/**
+ * This class is an in-process inverted index. Each word maps to the users
+ * whose profile contains it and the weight of the best field it appears
+ * in; the words are kept sorted, so the words starting with a prefix are
+ * one contiguous range. The index is built from the tables (or from the
+ * files in data/) and kept up to date by Signup and updateField.
+ *
+ */
+public class UserSearch {
+
+   // weight of a word by the field it was found in
+   static final int USER_ID = 8;
+   static final int NAME = 8;
+   static final int COMPANY = 4;
+   static final int INSTITUTION = 4;
+   static final int ROLE = 2;
+   static final int MAJOR = 2;
+   static final int LOCATION = 1;
+
+   // a query word matching only the start of a word scores this fraction of it
+   static final int PREFIX_DIVISOR = 2;
+
+   // shortest query word matched as a prefix; shorter ones must match whole
+   static final int MIN_PREFIX = 2;
+
+   public static final int DEFAULT_PAGE_SIZE = 10;
+
+   /**
+	* One user found by a search.
+	*/
+   public static class Hit {
+	public final String userId;
+	public final String name;
+	public final int score;
+
+	Hit(String userId, String name, int score) {
+	   this.userId = userId;
+	   this.name = name;
+	   this.score = score;
+	}
+   }//end Hit
+
+   /**
+	* One page of search results, best first.
+	*/
+   public static class Result {
+	public final List<Hit> hits;
+	// number of users matching the whole query
+	public final int total;
+	public final int offset;
+
+	Result(List<Hit> hits, int total, int offset) {
+	   this.hits = Collections.unmodifiableList(hits);
+	   this.total = total;
+	   this.offset = offset;
+	}
+
+	public boolean hasMore() {
+	   return offset + hits.size() < total;
+	}
+   }//end Result
+
+   private final ProfNetwork _esql;
+
+   // word -> userId -> weight
+   private final TreeMap<String, Map<String, Integer>> _postings = new TreeMap<String, Map<String, Integer>>();
+   // userId -> its words and their weights, to take a user out again
+   private final Map<String, Map<String, Integer>> _documents = new HashMap<String, Map<String, Integer>>();
+   private final Map<String, String> _names = new HashMap<String, String>();
+   private boolean _built = false;
+
+   public UserSearch(ProfNetwork esql) {
+	this._esql = esql;
+   }
+
+   /**
+	* @return true once build or buildFromFiles has filled the index
+	*/
+   public synchronized boolean isBuilt() {
+	return _built;
+   }
+
+   /**
+	* Indexes every user by streaming USR, WORK_EXPR and
+	* EDUCATIONAL_DETAILS once each.
+	*
+	* @throws java.sql.SQLException when failed to read a table
+	*/
+   public synchronized void build() throws SQLException {
+	clear();
+	final Map<String, Map<String, Integer>> documents = new HashMap<String, Map<String, Integer>>();
+	_esql.executeQueryForEach("SELECT userId, name FROM USR", ConnectionGraph.LOAD_FETCH_SIZE, new Row.Handler() {
+	   public boolean row(Row row) throws SQLException {
+		  String userId = row.getTrimmed(1);
+		  _names.put(userId, row.getTrimmed(2));
+		  addWords(document(documents, userId), userId, USER_ID);
+		  addWords(document(documents, userId), row.getString(2), NAME);
+		  return true;
+	   }
+	});
+	_esql.executeQueryForEach("SELECT userId, company, role, location FROM WORK_EXPR", ConnectionGraph.LOAD_FETCH_SIZE, new Row.Handler() {
+	   public boolean row(Row row) throws SQLException {
+		  Map<String, Integer> document = document(documents, row.getTrimmed(1));
+		  addWords(document, row.getString(2), COMPANY);
+		  addWords(document, row.getString(3), ROLE);
+		  addWords(document, row.getString(4), LOCATION);
+		  return true;
+	   }
+	});
+	_esql.executeQueryForEach("SELECT userId, instituitionName, major FROM EDUCATIONAL_DETAILS", ConnectionGraph.LOAD_FETCH_SIZE, new Row.Handler() {
+	   public boolean row(Row row) throws SQLException {
+		  Map<String, Integer> document = document(documents, row.getTrimmed(1));
+		  addWords(document, row.getString(2), INSTITUTION);
+		  addWords(document, row.getString(3), MAJOR);
+		  return true;
+	   }
+	});
+	for (Map.Entry<String, Map<String, Integer>> document : documents.entrySet())
+	   put(document.getKey(), document.getValue());
+	_built = true;
+   }
+
+   /**
+	* Indexes every user from usr.csv, work_ex.csv and edu_det.csv, e.g.
+	* to search the data files without a database.
+	*
+	* @param dataDir the directory holding the files
+	* @throws java.io.IOException when failed to read a file
+	*/
+   public synchronized void buildFromFiles(Path dataDir) throws IOException {
+	clear();
+	Map<String, Map<String, Integer>> documents = new HashMap<String, Map<String, Integer>>();
+	for (String[] row : readFile(dataDir, BulkLoader.USR)) {
+	   _names.put(row[0], row[3]);
+	   addWords(document(documents, row[0]), row[0], USER_ID);
+	   addWords(document(documents, row[0]), row[3], NAME);
+	}
+	for (String[] row : readFile(dataDir, BulkLoader.WORK_EXPR)) {
+	   Map<String, Integer> document = document(documents, row[0]);
+	   addWords(document, row[1], COMPANY);
+	   addWords(document, row[2], ROLE);
+	   addWords(document, row[3], LOCATION);
+	}
+	for (String[] row : readFile(dataDir, BulkLoader.EDUCATIONAL_DETAILS)) {
+	   Map<String, Integer> document = document(documents, row[0]);
+	   addWords(document, row[1], INSTITUTION);
+	   addWords(document, row[2], MAJOR);
+	}
+	for (Map.Entry<String, Map<String, Integer>> document : documents.entrySet())
+	   put(document.getKey(), document.getValue());
+	_built = true;
+   }
+
+   /**
+	* Indexes an account Signup just created. Does nothing before the
+	* index is built, since the build will read it from the tables.
+	*/
+   public synchronized void add(Signup.Account account) {
+	if (!_built)
+	   return;
+	String userId = account.login.trim();
+	Map<String, Integer> document = new HashMap<String, Integer>();
+	addWords(document, userId, USER_ID);
+	addWords(document, account.name, NAME);
+	addWords(document, account.company, COMPANY);
+	addWords(document, account.role, ROLE);
+	addWords(document, account.location, LOCATION);
+	addWords(document, account.institution, INSTITUTION);
+	addWords(document, account.major, MAJOR);
+	_names.put(userId, account.name == null ? null : account.name.trim());
+	put(userId, document);
+   }
+
+   /**
+	* Indexes a user again after its profile changed, from the profile
+	* cache (which the writer has invalidated). Does nothing before the
+	* index is built.
+	*
+	* @throws java.sql.SQLException when failed to read the profile
+	*/
+   public void reindex(String userId) throws SQLException {
+	userId = userId.trim();
+	synchronized (this) {
+	   if (!_built)
+		  return;
+	}
+	Profile profile = _esql.profiles().get(userId);
+	Map<String, Integer> document = new HashMap<String, Integer>();
+	if (profile != null) {
+	   addWords(document, userId, USER_ID);
+	   addWords(document, profile.name, NAME);
+	   for (Profile.Work work : profile.work) {
+		  addWords(document, work.company, COMPANY);
+		  addWords(document, work.role, ROLE);
+		  addWords(document, work.location, LOCATION);
+	   }
+	   for (Profile.Education edu : profile.education) {
+		  addWords(document, edu.institution, INSTITUTION);
+		  addWords(document, edu.major, MAJOR);
+	   }
+	}
+	synchronized (this) {
+	   if (profile == null) {
+		  remove(userId);
+		  _names.remove(userId);
+	   } else {
+		  _names.put(userId, profile.name);
+		  put(userId, document);
+	   }
+	}
+   }
+
+   /**
+	* Finds the users matching every word of a query. A user scores, per
+	* query word, the weight of the best field holding that word, or a
+	* word it starts with at 1 / PREFIX_DIVISOR of the weight.
+	*
+	* @param query the words to look for
+	* @param offset the number of best hits to skip
+	* @param limit the page size
+	* @return the page of hits, best score first, then by userId
+	*/
+   public synchronized Result search(String query, int offset, int limit) {
+	List<String> words = new ArrayList<String>(new LinkedHashSet<String>(words(query, false)));
+	if (words.isEmpty())
+	   return new Result(new ArrayList<Hit>(), 0, offset);
+	// look the rarest word up in the index, then check the other words
+	// against the words of the users it matched
+	String rarest = null;
+	int fewest = Integer.MAX_VALUE;
+	for (String word : words) {
+	   int postings = 0;
+	   for (Map<String, Integer> posting : range(word).values())
+		  postings += posting.size();
+	   if (postings < fewest) {
+		  rarest = word;
+		  fewest = postings;
+	   }
+	}
+	Map<String, Integer> scores = match(rarest);
+	words.remove(rarest);
+	for (String word : words) {
+	   Iterator<Map.Entry<String, Integer>> it = scores.entrySet().iterator();
+	   while (it.hasNext()) {
+		  Map.Entry<String, Integer> score = it.next();
+		  int more = score(_documents.get(score.getKey()), word);
+		  if (more == 0)
+			 it.remove();
+		  else
+			 score.setValue(score.getValue() + more);
+	   }
+	}
+
+	List<Map.Entry<String, Integer>> ranked = new ArrayList<Map.Entry<String, Integer>>(scores.entrySet());
+	Collections.sort(ranked, new Comparator<Map.Entry<String, Integer>>() {
+	   public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+		  if (!a.getValue().equals(b.getValue()))
+			 return b.getValue() - a.getValue();
+		  return a.getKey().compareTo(b.getKey());
+	   }
+	});
+	List<Hit> hits = new ArrayList<Hit>();
+	for (int i = Math.max(0, offset); i < ranked.size() && hits.size() < limit; ++i) {
+	   Map.Entry<String, Integer> entry = ranked.get(i);
+	   hits.add(new Hit(entry.getKey(), _names.get(entry.getKey()), entry.getValue()));
+	}
+	return new Result(hits, ranked.size(), offset);
+   }
+
+   public synchronized int size() {
+	return _documents.size();
+   }
+
+   public synchronized String toString() {
+	return String.format("user search: %d users, %d words", _documents.size(), _postings.size());
+   }
+
+   // the postings of word and of the words starting with it
+   private SortedMap<String, Map<String, Integer>> range(String word) {
+	if (word.length() < MIN_PREFIX)
+	   return _postings.subMap(word, true, word, true);
+	return _postings.subMap(word, true, word + Character.MAX_VALUE, false);
+   }
+
+   // the users holding word, or a word starting with it, and their best score
+   private Map<String, Integer> match(String word) {
+	Map<String, Integer> scores = new HashMap<String, Integer>();
+	for (Map.Entry<String, Map<String, Integer>> posting : range(word).entrySet()) {
+	   boolean whole = posting.getKey().equals(word);
+	   for (Map.Entry<String, Integer> user : posting.getValue().entrySet()) {
+		  int score = whole ? user.getValue() : Math.max(1, user.getValue() / PREFIX_DIVISOR);
+		  Integer best = scores.get(user.getKey());
+		  if (best == null || best < score)
+			 scores.put(user.getKey(), score);
+	   }
+	}
+	return scores;
+   }
+
+   // the best score of word in the words of one user, 0 if it is not there
+   private static int score(Map<String, Integer> document, String word) {
+	Integer whole = document.get(word);
+	if (whole != null)
+	   return whole;
+	int best = 0;
+	if (word.length() >= MIN_PREFIX)
+	   for (Map.Entry<String, Integer> entry : document.entrySet())
+		  if (entry.getKey().startsWith(word))
+			 best = Math.max(best, Math.max(1, entry.getValue() / PREFIX_DIVISOR));
+	return best;
+   }
+
+   // replaces the words of a user
+   private void put(String userId, Map<String, Integer> document) {
+	remove(userId);
+	_documents.put(userId, document);
+	for (Map.Entry<String, Integer> word : document.entrySet()) {
+	   Map<String, Integer> posting = _postings.get(word.getKey());
+	   if (posting == null) {
+		  posting = new HashMap<String, Integer>(4);
+		  _postings.put(word.getKey(), posting);
+	   }
+	   posting.put(userId, word.getValue());
+	}
+   }
+
+   private void remove(String userId) {
+	Map<String, Integer> document = _documents.remove(userId);
+	if (document == null)
+	   return;
+	for (String word : document.keySet()) {
+	   Map<String, Integer> posting = _postings.get(word);
+	   posting.remove(userId);
+	   if (posting.isEmpty())
+		  _postings.remove(word);
+	}
+   }
+
+   private void clear() {
+	_postings.clear();
+	_documents.clear();
+	_names.clear();
+	_built = false;
+   }
+
+   private static Map<String, Integer> document(Map<String, Map<String, Integer>> documents, String userId) {
+	Map<String, Integer> document = documents.get(userId);
+	if (document == null) {
+	   document = new HashMap<String, Integer>();
+	   documents.put(userId, document);
+	}
+	return document;
+   }
+
+   // adds the words of text, keeping the highest weight of each
+   private static void addWords(Map<String, Integer> document, String text, int weight) {
+	for (String word : words(text, true)) {
+	   Integer previous = document.get(word);
+	   if (previous == null || previous < weight)
+		  document.put(word, weight);
+	}
+   }
+
+   /**
+	* Splits text into lower case words of letters and digits. With joined
+	* set, text without spaces also gives itself: a userId like Luis_Ortiz
+	* gives "luis" and "ortiz" as well as "luis_ortiz".
+	*/
+   static List<String> words(String text, boolean joined) {
+	List<String> words = new ArrayList<String>();
+	if (text == null)
+	   return words;
+	String lower = text.trim().toLowerCase();
+	int start = -1;
+	for (int i = 0; i <= lower.length(); ++i) {
+	   boolean letter = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+	   if (letter && start < 0)
+		  start = i;
+	   else if (!letter && start >= 0) {
+		  words.add(lower.substring(start, i));
+		  start = -1;
+	   }
+	}
+	if (joined && words.size() > 1 && lower.indexOf(' ') < 0)
+	   words.add(lower);
+	return words;
+   }
+
+   // reads a data file into rows of its table's columns, skipping the header
+   private static List<String[]> readFile(Path dataDir, BulkLoader.Table table) throws IOException {
+	List<String[]> rows = new ArrayList<String[]>();
+	BufferedReader reader = Files.newBufferedReader(dataDir.resolve(table.file), Charset.forName("UTF-8"));
+	try {
+	   String line = reader.readLine(); // header
+	   while ((line = reader.readLine()) != null) {
+		  if (line.trim().isEmpty())
+			 continue;
+		  String[] fields = line.split(";", -1);
+		  String[] row = new String[table.columns.length];
+		  for (int i = 0; i < row.length; ++i)
+			 row[i] = i < fields.length ? fields[i].trim() : "";
+		  rows.add(row);
+	   }
+	} finally {
+	   reader.close();
+	}
+	return rows;
+   }
+}//end UserSearch
@@ -0,0 +1,128 @@
+/*
+ * Write batch
+ * ===========
+ *
+ * Collects INSERT, UPDATE and DELETE statements issued inside a loop and
+ * sends them in one transaction, instead of autocommitting each one.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class queues writes until flush. Flush runs them on one pinned
+ * connection in a single transaction, as one JDBC batch per distinct SQL
+ * string, so either all of them are applied or none is. A caller that
+ * pinned the connection and began its own transaction keeps it: the
+ * writes join that transaction and are committed or rolled back with it.
+ *
+ */
+public class WriteBatch {
+
+   private final ProfNetwork _esql;
+
+   // the bound parameters of every queued statement, by SQL in first-use order
+   private final LinkedHashMap<String, List<Object[]>> _writes = new LinkedHashMap<String, List<Object[]>>();
+   private int _size = 0;
+
+   WriteBatch(ProfNetwork esql) {
+	this._esql = esql;
+   }
+
+   /**
+	* Queues a write.
+	*
+	* @param sql the input SQL string, with '?' for every parameter
+	* @param params the values of the '?' placeholders, in order
+	*/
+   public void add(String sql, Object... params) {
+	List<Object[]> group = _writes.get(sql);
+	if (group == null) {
+	   group = new ArrayList<Object[]>();
+	   _writes.put(sql, group);
+	}
+	group.add(params);
+	_size++;
+   }
+
+   /**
+	* @return the number of queued writes
+	*/
+   public int size() {
+	return _size;
+   }
+
+   /**
+	* Sends every queued write and empties the batch.
+	*
+	* @return the number of rows changed
+	* @throws java.sql.SQLException when a write failed; nothing was applied then
+	*/
+   public int flush() throws SQLException {
+	if (_size == 0)
+	   return 0;
+
+	int rows = 0;
+	ConnectionPool pool = _esql.pool();
+	ConnectionPool.PooledConnection conn = pool.pin();
+	Connection connection = conn.connection();
+	PreparedStatement stmt = null;
+	// false when the caller's transaction is open on the pinned connection
+	boolean own = connection.getAutoCommit();
+	try {
+	   if (own)
+		  connection.setAutoCommit(false);
+	   try {
+		  for (Map.Entry<String, List<Object[]>> group : _writes.entrySet()) {
+			 long start = System.nanoTime();
+			 int changed = -1;
+			 try {
+				for (Object[] params : group.getValue()) {
+				   stmt = conn.prepare(group.getKey(), params);
+				   stmt.addBatch();
+				}
+				changed = 0;
+				for (int count : stmt.executeBatch())
+				   changed += Math.max(count, 0);
+				rows += changed;
+				stmt = null;
+			 } finally {
+				// the driver sends a batch one statement at a time, so every
+				// write of the group is a round trip of its own
+				_esql.metrics().record(group.getKey(), group.getValue().size(), Math.max(changed, 0),
+					System.nanoTime() - start, changed < 0);
+			 }
+		  }
+		  if (own)
+			 connection.commit();
+	   } catch (SQLException e) {
+		  // the cached statement must not carry the failed batch to its next use
+		  if (stmt != null)
+			 stmt.clearBatch();
+		  if (own)
+			 connection.rollback();
+		  throw e;
+	   } finally {
+		  if (own)
+			 connection.setAutoCommit(true);
+	   }
+	} finally {
+	   pool.unpin();
+	}
+
+	// keep the connection graph in sync once the writes are committed
+	for (Map.Entry<String, List<Object[]>> group : _writes.entrySet())
+	   for (Object[] params : group.getValue())
+		  _esql.applyToGraph(group.getKey(), params);
+	_writes.clear();
+	_size = 0;
+	return rows;
+   }
+}//end WriteBatch